@@ -0,0 +1,95 @@
+/**
+ * The BenchmarkMatrices class creates the random operands of the benchmarks. The values are drawn from a seeded
+ * generator, so every run of a benchmark computes with the same matrices. A density below one makes the given
+ * fraction of the values non-zero, and such matrices are stored in the form the calculator would choose for them,
+ * so that sparse operands are measured with the sparse kernels.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.util.Random;
+
+final class BenchmarkMatrices {
+    private BenchmarkMatrices() {
+    }
+
+    /**
+     * Returns the shape of the matrices of a benchmark.
+     *
+     * @param shape "square" for size x size, "tallSkinny" for size x size/16
+     * @param size the number of rows
+     * @return the number of rows and columns
+     * @throws IllegalArgumentException if the shape is unknown
+     */
+    static int[] dimensions(String shape, int size) {
+        switch (shape) {
+            case "square":
+                return new int[] {size, size};
+            case "tallSkinny":
+                return new int[] {size, Math.max(1, size / 16)};
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+    }
+
+    /**
+     * Returns a random matrix with values in [-1, 1), of which about the given fraction is non-zero.
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param density the fraction of non-zero values
+     * @param seed the seed of the generator
+     * @return the matrix, in sparse form if the calculator would store it so
+     */
+    static Matrix random(int rows, int cols, double density, long seed) {
+        Random random = new Random(seed);
+        float[] values = new float[rows * cols];
+        for (int i = 0; i < values.length; i++)
+            if (random.nextDouble() < density)
+                values[i] = 2 * random.nextFloat() - 1;
+        return SparseMatrix.choose(new Matrix(rows, cols, values));
+    }
+
+    /**
+     * Returns a random square matrix as by {@link #random(int, int, double, long)} with the size added to its
+     * diagonal, so that it is well conditioned and can be inverted at every density.
+     *
+     * @param size the number of rows and columns
+     * @param density the fraction of non-zero values off the diagonal
+     * @param seed the seed of the generator
+     * @return the matrix, in sparse form if the calculator would store it so
+     */
+    static Matrix invertible(int size, double density, long seed) {
+        Matrix matrix = new Matrix(random(size, size, density, seed));
+        for (int i = 0; i < size; i++)
+            matrix.setValue(i, i, matrix.getValue(i, i) + size);
+        return SparseMatrix.choose(matrix);
+    }
+
+    /**
+     * Returns a random matrix literal as typed by a user, with values of two decimal places in [-10, 10], of which
+     * about the given fraction is non-zero.
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param density the fraction of non-zero values
+     * @param seed the seed of the generator
+     * @return the literal in brackets, with rows separated by semicolons
+     */
+    static String literal(int rows, int cols, double density, long seed) {
+        Random random = new Random(seed);
+        StringBuilder literal = new StringBuilder(6 * rows * cols + 2).append('[');
+        for (int i = 0; i < rows; i++) {
+            if (i > 0)
+                literal.append(';');
+            for (int j = 0; j < cols; j++) {
+                literal.append(' ');
+                if (random.nextDouble() < density)
+                    literal.append((random.nextInt(2001) - 1000) / 100f);
+                else
+                    literal.append('0');
+            }
+        }
+        return literal.append(']').toString();
+    }
+}
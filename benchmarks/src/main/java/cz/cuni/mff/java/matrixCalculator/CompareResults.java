@@ -0,0 +1,113 @@
+/**
+ * The CompareResults class compares two result files of the benchmarks, written by JMH with {@code -rf json}, and
+ * reports the change of every benchmark measured in both. A benchmark has regressed if its score is worse than the
+ * baseline by more than the threshold and by more than the errors of both scores together, so that noise within the
+ * confidence intervals is not reported. The exit status is 1 if any benchmark regressed, so that the comparison can
+ * stop a build.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public final class CompareResults {
+    private CompareResults() {
+    }
+
+    /**
+     * Compares two result files and prints the change of every benchmark.
+     *
+     * @param args the baseline result file, the current result file and the optional argument "threshold=PERCENT",
+     *             the change regarded as a regression, 10 by default
+     * @throws IOException if a result file cannot be read
+     * @throws IllegalArgumentException if the arguments or the result files are invalid
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3)
+            throw new IllegalArgumentException("Usage: CompareResults BASELINE CURRENT [threshold=PERCENT]");
+        double threshold = 10;
+        if (args.length == 3) {
+            if (!args[2].startsWith("threshold="))
+                throw new IllegalArgumentException("Illegal argument");
+            threshold = Double.parseDouble(args[2].substring("threshold=".length()));
+        }
+        Map<String, Score> baseline = read(Path.of(args[0]));
+        Map<String, Score> current = read(Path.of(args[1]));
+
+        int regressions = 0;
+        for (var entry : current.entrySet()) {
+            Score before = baseline.get(entry.getKey());
+            Score after = entry.getValue();
+            if (before == null) {
+                System.out.printf("%-12s %s: %s%n", "new", entry.getKey(), after);
+                continue;
+            }
+            // positive changes are improvements whatever the mode
+            double change = 100 * (before.score - after.score) / before.score;
+            if (after.higherIsBetter)
+                change = -change;
+            boolean significant = Math.abs(before.score - after.score) > before.error + after.error;
+            String status = "unchanged";
+            if (significant && change < -threshold) {
+                status = "REGRESSION";
+                regressions++;
+            } else if (significant && change > threshold)
+                status = "improvement";
+            System.out.printf("%-12s %s: %s -> %s (%+.1f %%)%n", status, entry.getKey(), before, after, change);
+        }
+        long missing = baseline.keySet().stream().filter(name -> !current.containsKey(name)).count();
+        System.out.println(regressions + " regressions of " + current.size() + " benchmarks, "
+                + missing + " benchmarks of the baseline not run");
+        if (regressions > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Reads a result file of JMH into the scores of its benchmarks, keyed by the name of the benchmark, its mode and
+     * its parameters.
+     */
+    private static Map<String, Score> read(Path path) throws IOException {
+        // the histograms of the raw data are nested seven levels deep
+        if (!(Json.parse(Files.readString(path), 8) instanceof List<?> results))
+            throw new IllegalArgumentException(path + " is not a result file of JMH");
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (Object result : results) {
+            if (!(result instanceof Map<?, ?> run) || !(run.get("primaryMetric") instanceof Map<?, ?> metric))
+                throw new IllegalArgumentException(path + " is not a result file of JMH");
+            StringBuilder name = new StringBuilder(String.valueOf(run.get("benchmark")));
+            String mode = String.valueOf(run.get("mode"));
+            name.append(" [").append(mode).append(']');
+            if (run.get("params") instanceof Map<?, ?> params)
+                new TreeMap<>(params).forEach((key, value) -> name.append(' ').append(key).append('=').append(value));
+            scores.put(name.toString(), new Score(number(metric.get("score")), number(metric.get("scoreError")),
+                    String.valueOf(metric.get("scoreUnit")), mode.equals("thrpt")));
+        }
+        return scores;
+    }
+
+    /**
+     * Converts a number of a result file; JMH writes undefined errors, such as those of a single measurement, as
+     * the string "NaN", which is read as zero.
+     */
+    private static double number(Object value) {
+        if (value instanceof Number number && !Double.isNaN(number.doubleValue()))
+            return number.doubleValue();
+        return 0;
+    }
+
+    /**
+     * The score of a benchmark with its error and unit.
+     */
+    private record Score(double score, double error, String unit, boolean higherIsBetter) {
+        @Override
+        public String toString() {
+            return String.format("%.3f +- %.3f %s", score, error, unit);
+        }
+    }
+}
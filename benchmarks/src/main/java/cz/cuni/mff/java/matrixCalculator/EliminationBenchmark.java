@@ -0,0 +1,65 @@
+/**
+ * The EliminationBenchmark class measures the row echelon form and the inverse, which both factor their operand by
+ * Gaussian elimination. The operands are square and diagonally dominant, so they are invertible at every density.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class EliminationBenchmark {
+    /** Number of rows and columns of the operand */
+    @Param({"16", "256", "1024", "4096"})
+    public int size;
+    /** Fraction of non-zero values off the diagonal of the operand */
+    @Param({"1.0", "0.1"})
+    public double density;
+
+    private Matrix A;
+
+    /**
+     * Creates the operand.
+     */
+    @Setup
+    public void setUp() {
+        A = BenchmarkMatrices.invertible(size, density, 1);
+    }
+
+    /**
+     * Computes the row echelon form of A.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public Matrix ref() {
+        return Matrix.ref(A);
+    }
+
+    /**
+     * Computes the inverse of A.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public Matrix inverse() {
+        return Matrix.inverse(A);
+    }
+}
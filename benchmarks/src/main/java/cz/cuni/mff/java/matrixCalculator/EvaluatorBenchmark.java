@@ -0,0 +1,99 @@
+/**
+ * The EvaluatorBenchmark class measures the evaluation of whole expressions by TermEvaluator: building the
+ * expression tree, reordering chains of multiplications, fusing element-wise operations and evaluating the tree.
+ * The expressions are
+ * <ul>
+ *     <li>"chain": {@code A * B * C * v}, which reordering turns into matrix-vector products,</li>
+ *     <li>"elementwise": {@code transpose C + A - B + A}, which is evaluated in one fused pass,</li>
+ *     <li>"solve": {@code A \ R + R}, which factors A and substitutes the columns of R.</li>
+ * </ul>
+ * The evaluator has no result cache, so every invocation computes the whole expression.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class EvaluatorBenchmark {
+    /** Number of rows of the operands */
+    @Param({"16", "256", "1024", "4096"})
+    public int size;
+    /** The evaluated expression, "chain", "elementwise" or "solve" */
+    @Param({"chain", "elementwise", "solve"})
+    public String expression;
+    /** Fraction of non-zero values of the operands */
+    @Param({"1.0", "0.01"})
+    public double density;
+
+    /** The operands and operators of the expression in infix order */
+    private Object[] tokens;
+
+    /**
+     * Creates the operands and the tokens of the expression.
+     */
+    @Setup
+    public void setUp() {
+        switch (expression) {
+            case "chain": {
+                Matrix A = BenchmarkMatrices.random(size, size, density, 1);
+                Matrix B = BenchmarkMatrices.random(size, size, density, 2);
+                Matrix C = BenchmarkMatrices.random(size, size, density, 3);
+                Matrix v = BenchmarkMatrices.random(size, 1, 1, 4);
+                tokens = new Object[] {A, Operators.multiplication, B, Operators.multiplication, C,
+                        Operators.multiplication, v};
+                break;
+            }
+            case "elementwise": {
+                Matrix A = BenchmarkMatrices.random(size, size, density, 1);
+                Matrix B = BenchmarkMatrices.random(size, size, density, 2);
+                Matrix C = BenchmarkMatrices.random(size, size, density, 3);
+                tokens = new Object[] {Operators.transpose, C, Operators.addition, A, Operators.subtraction, B,
+                        Operators.addition, A};
+                break;
+            }
+            case "solve": {
+                Matrix A = BenchmarkMatrices.invertible(size, density, 1);
+                Matrix R = BenchmarkMatrices.random(size, Math.max(1, size / 16), 1, 2);
+                tokens = new Object[] {A, Operators.solve, R, Operators.addition, R};
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown expression " + expression);
+        }
+    }
+
+    /**
+     * Adds the tokens of the expression to a new evaluator and evaluates it.
+     *
+     * @return the value of the expression
+     */
+    @Benchmark
+    public Matrix evaluate() {
+        TermEvaluator evaluator = new TermEvaluator();
+        for (Object token : tokens) {
+            if (token instanceof Matrix matrix)
+                evaluator.addOperand(matrix);
+            else
+                evaluator.addOperator((Operators) token);
+        }
+        return evaluator.getResult();
+    }
+}
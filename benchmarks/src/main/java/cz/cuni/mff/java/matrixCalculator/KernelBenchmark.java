@@ -0,0 +1,91 @@
+/**
+ * The KernelBenchmark class measures the element-wise, transpose and multiplication kernels of Matrix. Square
+ * operands are multiplied as {@code A * B}; tall and skinny ones as {@code transpose(A) * A}, whose long inner
+ * dimension is the common case of such matrices, with the transpose computed beforehand.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class KernelBenchmark {
+    /** Number of rows of the operands */
+    @Param({"16", "256", "1024", "4096"})
+    public int size;
+    /** Shape of the operands, "square" or "tallSkinny" */
+    @Param({"square", "tallSkinny"})
+    public String shape;
+    /** Fraction of non-zero values of the operands */
+    @Param({"1.0", "0.1", "0.01"})
+    public double density;
+
+    private Matrix A;
+    private Matrix B;
+    private Matrix left;
+    private Matrix right;
+
+    /**
+     * Creates the operands.
+     */
+    @Setup
+    public void setUp() {
+        int[] dimensions = BenchmarkMatrices.dimensions(shape, size);
+        A = BenchmarkMatrices.random(dimensions[0], dimensions[1], density, 1);
+        B = BenchmarkMatrices.random(dimensions[0], dimensions[1], density, 2);
+        if (shape.equals("square")) {
+            left = A;
+            right = B;
+        } else {
+            left = Matrix.transpose(A);
+            right = A;
+        }
+    }
+
+    /**
+     * Adds A and B.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public Matrix addition() {
+        return Matrix.addition(A, B);
+    }
+
+    /**
+     * Transposes A.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public Matrix transpose() {
+        return Matrix.transpose(A);
+    }
+
+    /**
+     * Multiplies the operands of the shape.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public Matrix multiplication() {
+        return Matrix.multiplication(left, right);
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * The ParserBenchmark class measures CommandLineInput on large matrix literals: reading the literal character by
+ * character into a matrix, alone and as the operand of a transpose and of an assignment. Every invocation uses a new
+ * CommandLineInput, as the console does for every line.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ParserBenchmark {
+    /** Number of rows of the literal */
+    @Param({"16", "256", "1024", "4096"})
+    public int size;
+    /** Shape of the literal, "square" or "tallSkinny" */
+    @Param({"square", "tallSkinny"})
+    public String shape;
+    /** Fraction of non-zero values of the literal */
+    @Param({"1.0", "0.01"})
+    public double density;
+
+    private Session session;
+    private String literal;
+    private String transpose;
+    private String assignment;
+
+    /**
+     * Creates the literal and the session the inputs are evaluated in.
+     */
+    @Setup
+    public void setUp() {
+        int[] dimensions = BenchmarkMatrices.dimensions(shape, size);
+        session = new Session();
+        literal = BenchmarkMatrices.literal(dimensions[0], dimensions[1], density, 1);
+        transpose = "transpose " + literal;
+        assignment = "X = " + literal;
+    }
+
+    /**
+     * Evaluates the literal alone.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public Matrix literal() {
+        return new CommandLineInput(session).evaluateTerm(literal);
+    }
+
+    /**
+     * Evaluates the transpose of the literal.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public Matrix transposeOfLiteral() {
+        return new CommandLineInput(session).evaluateTerm(transpose);
+    }
+
+    /**
+     * Assigns the literal to a variable.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public Matrix assignment() {
+        return new CommandLineInput(session).evaluateTerm(assignment);
+    }
+}
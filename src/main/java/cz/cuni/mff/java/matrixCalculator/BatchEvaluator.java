@@ -0,0 +1,120 @@
+/**
+ * The BatchEvaluator class evaluates a file of input lines, as entered at the console, and writes the response to
+ * every line in the order of the lines. Lines are evaluated concurrently by a fixed pool of threads, each line
+ * with its own CommandLineInput, while the results and errors are written by the thread reading the input.
+ * The futures of the lines in flight are kept in a queue in the order of the lines, which serves as the reorder
+ * buffer: responses are written as soon as all earlier ones have been written, and once the queue holds
+ * {@link #WINDOW_PER_THREAD} lines per thread, the oldest line is awaited before the next one is read, so the
+ * memory used does not grow with the length of the file.
+ * <p>
+ * Lines that change the session, that is assignments and saves, as well as the commands showing its state, wait for
+ * all earlier lines and are evaluated before any later line starts. The responses are therefore the same as if the
+ * lines were evaluated one after another, except for the order in which the variables were last used and the
+ * statistics of the result cache, which depend on the timing of the concurrent lines.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.security.InvalidParameterException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public final class BatchEvaluator {
+    /** Maximal number of lines in flight per thread */
+    static final int WINDOW_PER_THREAD = 16;
+    /** The Session shared by all lines */
+    private final Session session;
+    /** Whether matrices are printed in the same format as the input */
+    private final boolean brackets;
+    /** Number of threads evaluating lines */
+    private final int threads;
+
+    /**
+     * Constructs a BatchEvaluator evaluating lines in the given Session.
+     *
+     * @param session the Session holding the variables and the result cache
+     * @param brackets whether matrices are printed in the same format as the input
+     * @param threads the number of threads evaluating lines
+     * @throws InvalidParameterException if the number of threads is not positive
+     */
+    public BatchEvaluator(Session session, boolean brackets, int threads) {
+        if (threads <= 0)
+            throw new InvalidParameterException("Number of threads must be positive");
+        this.session = session;
+        this.brackets = brackets;
+        this.threads = threads;
+    }
+
+    /**
+     * Evaluates the lines of the input until its end or a line terminating the program, and writes the response
+     * to every line to the output in the order of the lines.
+     *
+     * @param input the lines to evaluate
+     * @param output the writer of the responses, flushed at the end
+     * @return the number of evaluated lines
+     * @throws IOException if the input cannot be read or the output cannot be written
+     */
+    public long run(BufferedReader input, Writer output) throws IOException {
+        int window = threads * WINDOW_PER_THREAD;
+        ArrayDeque<Future<String>> pending = new ArrayDeque<>(window);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long lines = 0;
+        try {
+            String line;
+            while ((line = input.readLine()) != null && !Main.isQuit(line)) {
+                lines++;
+                if (CommandLineInput.changesState(line) || Main.isCommand(line)) {
+                    while (!pending.isEmpty())
+                        write(output, pending.poll());
+                    write(output, Main.respond(session, line, brackets));
+                    continue;
+                }
+                if (pending.size() == window)
+                    write(output, pending.poll());
+                String data = line;
+                pending.add(pool.submit(() -> Main.respond(session, data, brackets)));
+                // write the responses that are ready without waiting
+                while (!pending.isEmpty() && pending.peek().isDone())
+                    write(output, pending.poll());
+            }
+            while (!pending.isEmpty())
+                write(output, pending.poll());
+        } finally {
+            pool.shutdownNow();
+        }
+        output.flush();
+        return lines;
+    }
+
+    /**
+     * Waits for the response to a line and writes it.
+     */
+    private static void write(Writer output, Future<String> response) throws IOException {
+        try {
+            write(output, response.get());
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Batch interrupted");
+        } catch (ExecutionException exception) {
+            // responses report every exception, only errors are left
+            if (exception.getCause() instanceof Error error)
+                throw error;
+            throw new IllegalStateException(exception.getCause());
+        }
+    }
+
+    /**
+     * Writes the response to a line followed by a line separator.
+     */
+    private static void write(Writer output, String response) throws IOException {
+        output.write(String.valueOf(response));
+        output.write(System.lineSeparator());
+    }
+}
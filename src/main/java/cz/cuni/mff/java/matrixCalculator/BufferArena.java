@@ -0,0 +1,131 @@
+/**
+ * The BufferArena class recycles the arrays of intermediate results during the evaluation of an expression. The
+ * evaluator opens an arena per evaluation, takes the arrays of the results it computes from it and gives back the
+ * result of a subtree as soon as its parent has consumed it, so that the next result of the same size reuses the
+ * array instead of allocating a new one. When the evaluation ends, the arrays left over are handed to a pool
+ * shared by all evaluations, from which the next arena starts, so that evaluating expressions of the same shape
+ * again allocates little more than the final result.
+ * <p>
+ * Only arrays that no one else can see may be recycled: the evaluator never gives back its operands, results that
+ * share their array with the result consuming them, or immutable matrices, which are held by the session
+ * variables or the result cache. The shared pool is limited to {@link #SHARED_BUDGET} bytes, beyond which the
+ * arrays of the least recently used lengths are dropped; small arrays are not pooled at all, as allocating them is
+ * cheaper than looking them up.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class BufferArena implements AutoCloseable {
+    /** Maximal number of bytes of the arrays kept in the shared pool between evaluations */
+    private static final long SHARED_BUDGET = 64L << 20;
+    /** Minimal length of the arrays that are pooled */
+    private static final int MIN_LENGTH = 1024;
+
+    /** Arrays kept between evaluations by their length, the least recently used length first */
+    private static final Map<Integer, ArrayDeque<float[]>> SHARED = new LinkedHashMap<>(16, 0.75f, true);
+    /** Number of bytes of the arrays in the shared pool */
+    private static long sharedBytes = 0;
+
+    /** Arrays free for reuse in this evaluation by their length */
+    private final Map<Integer, ArrayDeque<float[]>> free = new HashMap<>();
+
+    private BufferArena() {
+    }
+
+    /**
+     * Opens an arena for one evaluation.
+     *
+     * @return the new arena
+     */
+    static BufferArena open() {
+        return new BufferArena();
+    }
+
+    /**
+     * Returns a dense matrix of the given dimensions over a recycled array if there is one of the right length,
+     * otherwise over a new array. The values of a recycled array are arbitrary, so the matrix must be overwritten
+     * completely, as by the into forms of the Matrix operations.
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @return a mutable matrix with undefined values
+     */
+    synchronized Matrix matrix(int rows, int cols) {
+        int length = rows * cols;
+        float[] array = null;
+        if (length >= MIN_LENGTH) {
+            array = poll(free, length);
+            if (array == null)
+                array = takeShared(length);
+        }
+        return new Matrix(rows, cols, array == null ? new float[length] : array);
+    }
+
+    /**
+     * Gives back the array of a result that is no longer used. Matrices that are immutable, not held in a plain
+     * array or too small are ignored.
+     *
+     * @param matrix the dead result, whose array no one else may hold
+     */
+    synchronized void recycle(Matrix matrix) {
+        if (matrix.isImmutable() || matrix.data == null || matrix instanceof SparseMatrix
+                || matrix instanceof TiledMatrix || matrix.data.length < MIN_LENGTH)
+            return;
+        free.computeIfAbsent(matrix.data.length, length -> new ArrayDeque<>()).push(matrix.data);
+        // the matrix must not be used through any other reference from now on
+        matrix.data = null;
+    }
+
+    /**
+     * Hands the arrays left over by this evaluation to the shared pool, dropping the arrays of the least recently
+     * used lengths while the pool exceeds its budget.
+     */
+    @Override
+    public synchronized void close() {
+        synchronized (SHARED) {
+            for (var entry : free.entrySet()) {
+                if (4L * entry.getKey() > SHARED_BUDGET)
+                    continue;
+                ArrayDeque<float[]> sameLength = SHARED.computeIfAbsent(entry.getKey(), length -> new ArrayDeque<>());
+                for (float[] array : entry.getValue()) {
+                    sameLength.push(array);
+                    sharedBytes += 4L * array.length;
+                }
+            }
+            Iterator<ArrayDeque<float[]>> lengths = SHARED.values().iterator();
+            while (sharedBytes > SHARED_BUDGET && lengths.hasNext()) {
+                ArrayDeque<float[]> sameLength = lengths.next();
+                while (sharedBytes > SHARED_BUDGET && !sameLength.isEmpty())
+                    sharedBytes -= 4L * sameLength.pop().length;
+                if (sameLength.isEmpty())
+                    lengths.remove();
+            }
+        }
+        free.clear();
+    }
+
+    /**
+     * Takes an array of the given length from the shared pool.
+     *
+     * @return the array, or null if the pool holds none of this length
+     */
+    private static float[] takeShared(int length) {
+        synchronized (SHARED) {
+            float[] array = poll(SHARED, length);
+            if (array != null)
+                sharedBytes -= 4L * length;
+            return array;
+        }
+    }
+
+    private static float[] poll(Map<Integer, ArrayDeque<float[]>> arrays, int length) {
+        ArrayDeque<float[]> sameLength = arrays.get(length);
+        return sameLength == null ? null : sameLength.poll();
+    }
+}
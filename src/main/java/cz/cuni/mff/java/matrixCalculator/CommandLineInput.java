@@ -5,19 +5,30 @@
  * into a Matrix object. The class keeps track of the state of parsing, including the current
  * unary operation, whether a matrix has been opened or closed, the current matrix values, the
  * number of rows and columns in a matrix, and the length of each row.
+ * An input of the form {@code name = expression} binds the result to the name in the Session, and bound names
+ * can be used as operands in later input. The operand {@code load "path"} reads a matrix from a file written by
+ * MatrixFile, and an input of the form {@code save "path" expression} writes the result to such a file.
+ * The exponent of a power may be written as an integer without brackets, such as {@code A ^ 3} or {@code A ^ -1},
+ * which is read as the 1x1 matrix holding it.
  */
 
 package cz.cuni.mff.java.matrixCalculator;
 
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.security.InvalidParameterException;
-import java.util.ArrayList;
 import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class CommandLineInput {
-    /** A StringBuilder object for holding the current unary operation in the input */
+    /** Matches an assignment, capturing the name of the variable and the expression */
+    private static final Pattern ASSIGNMENT = Pattern.compile("\\s*([A-Za-z_][A-Za-z0-9_]*)\\s*=(.*)");
+    /** Matches a save, capturing the path of the file and the expression */
+    private static final Pattern SAVE = Pattern.compile("\\s*save\\s*\"([^\"]*)\"(.*)");
+    /** A StringBuilder object for holding the current unary operation or variable name in the input */
     public StringBuilder unary = new StringBuilder();
-    /** A StringBuilder object for holding the current matrix value in the input */
-    public StringBuilder matrixValue = new StringBuilder();
     /** A boolean flag indicating whether a whitespace character has been encountered in the input */
     public boolean whiteSpace = false;
     /** A boolean flag indicating whether a matrix has been opened in the input */
@@ -25,8 +36,8 @@ public class CommandLineInput {
     /** A boolean flag indicating whether a matrix has been closed in the input */
     public boolean matrixClosed = true;
     // contains the values of matrix, from which the matrix is transformed into type Matrix
-    /** An ArrayList object for holding the current matrix values in the input */
-    public ArrayList<Float> matrixValues = new ArrayList<>();
+    /** A FloatTokenizer object converting the numbers of the current matrix into its values */
+    private final FloatTokenizer matrixValues = new FloatTokenizer();
     /** An integer representing the number of rows in the current matrix */
     public int rows = 0;
     /** An integer representing the number of columns in the current matrix row */
@@ -35,6 +46,75 @@ public class CommandLineInput {
     public int rowLength = 0;
     /** A TermEvaluater object for evaluating the mathematical expression */
     public TermEvaluator evaluator = new TermEvaluator();
+    /** The Session holding the variables */
+    private final Session session;
+    /** The name the result is bound to, or null if the input is not an assignment */
+    private String assignedName = null;
+    /** The path the result is saved to, or null if the input is not a save */
+    private String savedPath = null;
+    /** A boolean flag indicating whether "load" has been read and its quoted path is expected */
+    private boolean loadPending = false;
+    /** The path being read between quotes, or null if no quotes are open */
+    private StringBuilder quotedPath = null;
+    /** Whether load and save may access files */
+    private boolean filesAllowed = true;
+    /** The exponent being read after '^', or null if no exponent is expected */
+    private StringBuilder exponent = null;
+
+    /**
+     * Constructs a CommandLineInput with its own empty Session.
+     */
+    public CommandLineInput() {
+        this(new Session());
+    }
+
+    /**
+     * Constructs a CommandLineInput that reads and binds variables in the given Session.
+     *
+     * @param session the Session holding the variables
+     */
+    public CommandLineInput(Session session) {
+        this.session = session;
+        evaluator.setResultCache(session.getResultCache());
+    }
+
+    /**
+     * Returns whether evaluating the given input changes state that other input may depend on,
+     * that is whether it is an assignment or a save.
+     *
+     * @param input the input string
+     * @return true if the input binds a variable or writes a file
+     */
+    public static boolean changesState(String input) {
+        return SAVE.matcher(input).matches() || ASSIGNMENT.matcher(input).matches();
+    }
+
+    /**
+     * Allows or forbids load and save, for input from clients that may not access the files of the calculator.
+     *
+     * @param allowed {@code true} to allow access to files
+     */
+    public void setFilesAllowed(boolean allowed) {
+        filesAllowed = allowed;
+    }
+
+    /**
+     * Returns the name the result of the evaluated input was bound to.
+     *
+     * @return the name of the assigned variable, or null if the input was not an assignment
+     */
+    public String getAssignedName() {
+        return assignedName;
+    }
+
+    /**
+     * Returns the path of the file the result of the evaluated input was saved to.
+     *
+     * @return the path of the file, or null if the input was not a save
+     */
+    public String getSavedPath() {
+        return savedPath;
+    }
 
     /**
      * Returns the result of evaluating the mathematical expression as a Matrix object.
@@ -47,39 +127,89 @@ public class CommandLineInput {
 
     /**
      * Parses the given input string and evaluates the mathematical expression as a Matrix object.
+     * If the input is an assignment, the result is also bound to the assigned name.
+     * If the input is a save, the result is also written to the file.
      *
      * @param input the input string to parse and evaluate
      * @return the result of evaluating the mathematical expression as a Matrix object
+     * @throws IllegalArgumentException if an assignment uses a reserved name, a path is not closed by a quote
+     *                                  or a file cannot be read or written
      */
     public Matrix evaluateTerm(String input) {
+        Matcher save = SAVE.matcher(input);
+        Matcher assignment = ASSIGNMENT.matcher(input);
+        if (save.matches()) {
+            if (!filesAllowed)
+                throw new IllegalArgumentException("Files cannot be accessed");
+            savedPath = save.group(1);
+            input = save.group(2);
+        } else if (assignment.matches()) {
+            String name = assignment.group(1);
+            if (isReservedName(name))
+                throw new IllegalArgumentException(name + " is a reserved name");
+            input = assignment.group(2);
+            assignedName = name;
+        }
+        OperationStats.Timer timer = OperationStats.start();
         for (int i = 0; i < input.length(); i++)
             parseExpression(input.charAt(i));
-        return getResult();
+        // a name or an exponent at the very end of the input has not been resolved yet
+        resolveName();
+        resolveExponent();
+        timer.stop("parse", null, 0);
+        if (loadPending || quotedPath != null)
+            throw new IllegalArgumentException("load must be followed by a path in quotes");
+        Matrix result = getResult();
+        if (assignedName != null)
+            session.bind(assignedName, result);
+        if (savedPath != null) {
+            try {
+                MatrixFile.save(result, Path.of(savedPath));
+            } catch (IOException exception) {
+                throw new IllegalArgumentException("Cannot write " + savedPath + ": " + exception.getMessage());
+            }
+        }
+        return result;
     }
 
     /**
      * Parses a single character of the expression and identifies the operator or operand it represents.
-     * If the character is a letter, it appends it to the unary operator string.
+     * If the character belongs to a name, it appends it to the unary operator string. A completed name is
+     * either a unary operation or a variable, which is added as an operand.
      * If the character is a whitespace, it sets the whitespace flag to true.
      * If the character is an open parenthesis, it checks if the matrix brackets are valid and adds an open bracket operator.
      * If the character is a close parenthesis, it checks if the matrix brackets are valid and adds a close bracket operator.
-     * If the character is a binary operator (+, -, or *), it checks if the matrix brackets are valid and identifies the operator.
+     * If the character is a binary operator (+, -, *, \ or ^), it checks if the matrix brackets are valid and identifies the operator.
+     * If the character belongs to an integer exponent following '^', it is added to the exponent.
+     * If the character is a quote following "load", the characters up to the closing quote are read as the path of
+     * a matrix file, which is loaded and added as an operand.
      * If the character is none of the above, it looks for a matrix and adds it as an operand if found.
      * @param value the character to be parsed
      */
     private void parseExpression(char value) {
-        if (isLetter(value)) {
+        if (quotedPath != null) {
+            if (value == '"') {
+                evaluator.addOperand(loadMatrix(quotedPath.toString()));
+                quotedPath = null;
+            } else
+                quotedPath.append(value);
+        }
+        else if (readExponent(value)) {
+            // the character belongs to the exponent
+        }
+        else if (isNameCharacter(value)) {
             unary.append(value);
         }
         else {
-            if (!unary.isEmpty()) {
-                Operators unaryOperation = identifyUnaryOperation(unary.toString());
-                evaluator.addOperator(unaryOperation);
-                // clear content of unary
-                unary.setLength(0);
-            }
+            resolveName();
             if (value == ' ')
                 whiteSpace = true;
+            else if (loadPending) {
+                if (value != '"')
+                    throw new IllegalArgumentException("load must be followed by a path in quotes");
+                loadPending = false;
+                quotedPath = new StringBuilder();
+            }
             else if (value == '(') {
                 hasValidMatrixBrackets();
                 evaluator.addOperator(Operators.openBracket);
@@ -93,6 +223,8 @@ public class CommandLineInput {
                 hasValidMatrixBrackets();
                 Operators operator = identifyBinaryOperator(value);
                 evaluator.addOperator(operator);
+                if (operator == Operators.power)
+                    exponent = new StringBuilder();
             } else {
                 var foundMatrix = findMatrix(value);
                 if (foundMatrix != null) {
@@ -103,6 +235,99 @@ public class CommandLineInput {
         }
     }
 
+    /**
+     * Reads a character of an integer exponent written without brackets after '^'. Spaces before the number and
+     * a minus sign before its digits are allowed. The first character that does not belong to the number ends it,
+     * and is parsed as usual.
+     *
+     * @param value the character to be read
+     * @return true if the character belongs to the exponent, false if it has to be parsed as usual
+     * @throws InvalidParameterException if the digits are followed by a decimal point or an exponent mark
+     */
+    private boolean readExponent(char value) {
+        if (exponent == null)
+            return false;
+        boolean hasDigits = !exponent.isEmpty() && Character.isDigit(exponent.charAt(exponent.length() - 1));
+        if (Character.isDigit(value) || value == '-' && exponent.isEmpty() || value == ' ' && !hasDigits) {
+            if (value != ' ')
+                exponent.append(value);
+            return true;
+        }
+        if (hasDigits && (value == '.' || value == 'e' || value == 'E'))
+            throw new InvalidParameterException("Exponent is not an integer");
+        resolveExponent();
+        return false;
+    }
+
+    /**
+     * Adds the integer exponent read by readExponent to the evaluator as a 1x1 matrix. Nothing is added if no
+     * digits were read, since the exponent is then another operand, such as a matrix or a variable.
+     *
+     * @throws InvalidParameterException if only a minus sign was read or the exponent is not exactly a float
+     */
+    private void resolveExponent() {
+        if (exponent == null)
+            return;
+        String digits = exponent.toString();
+        exponent = null;
+        if (digits.isEmpty())
+            return;
+        if (Objects.equals(digits, "-"))
+            throw new InvalidParameterException("Invalid parameter:-");
+        long value;
+        try {
+            value = Long.parseLong(digits);
+        } catch (NumberFormatException exception) {
+            throw new InvalidParameterException("Exponent is too large");
+        }
+        if ((long) (float) value != value)
+            throw new InvalidParameterException("Exponent " + digits + " is not exactly representable");
+        evaluator.addOperand(new Matrix(new float[][] {{value}}));
+    }
+
+    /**
+     * Reads the matrix stored in the file of the given path.
+     *
+     * @param path the path of the file
+     * @return the matrix stored in the file
+     * @throws IllegalArgumentException if the file cannot be read or is not a matrix file
+     */
+    private Matrix loadMatrix(String path) {
+        if (matrixOpened)
+            throw new InvalidParameterException("Invalid parameter:\"");
+        try {
+            return SparseMatrix.choose(MatrixFile.load(Path.of(path)));
+        } catch (NoSuchFileException exception) {
+            throw new IllegalArgumentException(path + " does not exist");
+        } catch (IOException exception) {
+            throw new IllegalArgumentException("Cannot read " + path + ": " + exception.getMessage());
+        }
+    }
+
+    /**
+     * Adds the name collected in unary to the evaluator, either as a unary operator or as the operand
+     * bound to the variable of that name. The name "load" instead expects a quoted path to follow.
+     * Clears the content of unary afterwards.
+     */
+    private void resolveName() {
+        if (!unary.isEmpty()) {
+            String name = unary.toString();
+            if (loadPending)
+                throw new IllegalArgumentException("load must be followed by a path in quotes");
+            if (Objects.equals(name, "load")) {
+                if (!filesAllowed)
+                    throw new IllegalArgumentException("Files cannot be accessed");
+                loadPending = true;
+            }
+            else if (isUnaryOperation(name))
+                evaluator.addOperator(identifyUnaryOperation(name));
+            else
+                evaluator.addOperand(identifyVariable(name));
+            // clear content of unary
+            unary.setLength(0);
+        }
+    }
+
     /**
      * Identifies the unary operator based on the given string.
      *
@@ -120,17 +345,59 @@ public class CommandLineInput {
                 return Operators.rref;
             case "inverse":
                 return Operators.inverse;
+            case "det":
+                return Operators.det;
+            case "rank":
+                return Operators.rank;
             default:
-                throw new UnsupportedOperationException(unary + "is not a defined unary operation");
+                throw new UnsupportedOperationException(unary + " is not a defined unary operation");
         }
     }
 
+    /**
+     * Checks if the given name is a unary operation.
+     *
+     * @param name the name to be checked
+     * @return true if the name is a defined unary operation, false otherwise
+     */
+    private static boolean isUnaryOperation(String name) {
+        return Objects.equals(name, "transpose") || Objects.equals(name, "ref")
+                || Objects.equals(name, "rref") || Objects.equals(name, "inverse")
+                || Objects.equals(name, "det") || Objects.equals(name, "rank");
+    }
+
+    /**
+     * Checks if the given name may not be assigned to, because it is a unary operation or a command.
+     *
+     * @param name the name to be checked
+     * @return true if the name is reserved, false otherwise
+     */
+    static boolean isReservedName(String name) {
+        return isUnaryOperation(name) || Objects.equals(name, "load") || Objects.equals(name, "save");
+    }
+
+    /**
+     * Returns the matrix bound to the given variable name in the Session.
+     *
+     * @param name the name of the variable
+     * @return the bound matrix
+     * @throws UnsupportedOperationException if the name is neither a unary operation nor a bound variable
+     */
+    private Matrix identifyVariable(String name) {
+        if (matrixOpened)
+            throw new InvalidParameterException("Invalid parameter:" + name);
+        Matrix variable = session.lookup(name);
+        if (variable == null)
+            throw new UnsupportedOperationException(name + " is not a defined unary operation or variable");
+        return variable;
+    }
+
     /**
      * Identifies the binary operator based on the given character.
      *
      * @param value the character representing the binary operator
      * @return the corresponding operator
-     * @throws UnsupportedOperationException if the given character is not a valid operator (+, -, or *)
+     * @throws UnsupportedOperationException if the given character is not a valid operator (+, -, *, \ or ^)
      */
     private Operators identifyBinaryOperator(char value) {
         switch (value) {
@@ -140,19 +407,26 @@ public class CommandLineInput {
                 return Operators.subtraction;
             case '*':
                 return Operators.multiplication;
+            case '\\':
+                return Operators.solve;
+            case '^':
+                return Operators.power;
             default:
                 throw new UnsupportedOperationException("Invalid operator:" + value);
         }
     }
 
     /**
-     * Checks if the given character is a letter.
+     * Checks if the given character belongs to a name. Names start with a letter or an underscore and may
+     * continue with digits.
      *
      * @param value the character to be checked
-     * @return true if the character is a letter, false otherwise
+     * @return true if the character belongs to a name, false otherwise
      */
-    private boolean isLetter(char value) {
-        return value >= 'a' && value <= 'z';
+    private boolean isNameCharacter(char value) {
+        if (value >= 'a' && value <= 'z' || value >= 'A' && value <= 'Z' || value == '_')
+            return true;
+        return Character.isDigit(value) && !unary.isEmpty();
     }
 
     /**
@@ -166,13 +440,13 @@ public class CommandLineInput {
     }
 
     /**
-     * Checks if the given character represents a binary operator (+, -, *).
+     * Checks if the given character represents a binary operator (+, -, *, \, ^).
      *
      * @param operator the operator to be checked
      * @return true if the operator is a binary operator, false otherwise
      */
     private boolean isBinaryOperator(char operator) {
-        return operator == '+' || operator == '-' || operator == '*';
+        return operator == '+' || operator == '-' || operator == '*' || operator == '\\' || operator == '^';
     }
 
     /**
@@ -180,7 +454,8 @@ public class CommandLineInput {
      *
      * @param value the character to start searching for a matrix from
      * @return the matrix found, or null if no matrix was found yet
-     * @throws InvalidParameterException if the parameter is not a valid character in the input string
+     * @throws InvalidParameterException if the parameter is not a valid character in the input string, or is part
+     *                                   of a number outside of matrix brackets
      */
     private Matrix findMatrix(char value) {
         if (whiteSpace) {
@@ -188,7 +463,9 @@ public class CommandLineInput {
             addFloatToMatrix();
         }
         if (value == '-' || Character.isDigit(value) || value == '.') {
-            matrixValue.append(value);
+            if (!matrixOpened)
+                throw new InvalidParameterException("Invalid parameter:" + value);
+            matrixValues.append(value);
         } else {
             if (value == '[') {
                 matrixOpened = true;
@@ -212,16 +489,12 @@ public class CommandLineInput {
     }
 
     /**
-     * Adds the current float value in matrixValue to the list of matrix values.
-     * Clears the content of matrixValue afterwards.
+     * Adds the number currently read by matrixValues to the matrix values.
      * Also increments the column count.
      */
     private void addFloatToMatrix() {
-        if (!matrixValue.isEmpty()) {
-            float matrixNumber = Float.parseFloat(matrixValue.toString());
-            // clear content of matrixValue
-            matrixValue.setLength(0);
-            matrixValues.add(matrixNumber);
+        if (matrixValues.hasNumber()) {
+            matrixValues.finishNumber();
             cols++;
         }
     }
@@ -249,20 +522,17 @@ public class CommandLineInput {
             rowLength = cols;
         }
         else {
-            if (!Objects.equals(rowLength, cols))
+            if (rowLength != cols)
                 throw new InvalidParameterException("Matrix has inconsistent size");
         }
     }
 
     /**
-     * Converts the list of matrix values to a 2D float array and creates a Matrix object from it.
-     * @return a Matrix object created from the list of matrix values
+     * Creates a Matrix object directly over the row-major array of the matrix values, converted to sparse form
+     * if most of the values are zeros.
+     * @return a Matrix object created from the matrix values
      */
     public Matrix stringToMatrix() {
-        float[][] matrix = new float[rows][cols];
-        for (int i = 0; i < rows; i++)
-            for (int j = 0; j < cols; j++)
-                matrix[i][j] = matrixValues.get(i*cols + j);
-        return new Matrix(matrix);
+        return SparseMatrix.choose(new Matrix(rows, cols, matrixValues.takeValues()));
     }
 }
\ No newline at end of file
@@ -0,0 +1,116 @@
+/**
+ * The ComputePool class owns the fork-join pool shared by the parallel matrix kernels and by the evaluator, which
+ * evaluates independent subtrees of an expression on it. The pool size, the minimal amount of work for which a
+ * kernel is split across threads, and whether the parallel paths are used at all can be configured, so that the
+ * calculator can share the machine with other services.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.security.InvalidParameterException;
+import java.util.concurrent.ForkJoinPool;
+
+public final class ComputePool {
+    /** Number of worker threads of the pool */
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+    /** Whether the parallel paths of the kernels are used */
+    private static volatile boolean enabled = true;
+    /** Minimal number of floating point operations for which a kernel runs in parallel */
+    private static volatile long threshold = 1L << 24;
+    /** Minimal number of floating point operations of a subtree of an expression evaluated on another thread */
+    private static final long SUBTREE_THRESHOLD = 1L << 20;
+    /** The shared pool, created on first use */
+    private static ForkJoinPool pool;
+
+    private ComputePool() {
+    }
+
+    /**
+     * Sets the number of worker threads. The current pool is shut down and a new one is created on next use.
+     * A parallelism of 1 turns the parallel paths off.
+     *
+     * @param threads the number of worker threads
+     * @throws InvalidParameterException if the number of threads is not positive
+     */
+    public static synchronized void setParallelism(int threads) {
+        if (threads <= 0)
+            throw new InvalidParameterException("Number of threads must be positive");
+        parallelism = threads;
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * Returns the number of worker threads.
+     *
+     * @return the number of worker threads
+     */
+    public static synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Turns the parallel paths of the kernels on or off.
+     *
+     * @param parallel {@code true} to allow the kernels to run in parallel
+     */
+    public static void setEnabled(boolean parallel) {
+        enabled = parallel;
+    }
+
+    /**
+     * Returns whether the parallel paths of the kernels are turned on.
+     *
+     * @return {@code true} if the kernels may run in parallel
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the minimal number of floating point operations for which a kernel is split across threads.
+     *
+     * @param flops the minimal number of floating point operations
+     * @throws InvalidParameterException if the threshold is negative
+     */
+    public static void setThreshold(long flops) {
+        if (flops < 0)
+            throw new InvalidParameterException("Threshold must not be negative");
+        threshold = flops;
+    }
+
+    /**
+     * Decides whether a kernel with the given amount of work should run in parallel.
+     *
+     * @param flops the estimated number of floating point operations of the kernel
+     * @return {@code true} if the work should be split across the pool
+     */
+    static boolean useParallel(long flops) {
+        return enabled && flops >= threshold && getParallelism() > 1;
+    }
+
+    /**
+     * Decides whether a subtree of an expression with the given amount of work is worth evaluating on another
+     * thread. The threshold is lower than the one of the kernels, since a subtree is handed to the pool as a whole
+     * instead of being split, but high enough that the handing over costs little against the work.
+     *
+     * @param flops the estimated number of floating point operations of the subtree
+     * @return {@code true} if the subtree may be evaluated concurrently with its siblings
+     */
+    static boolean forksSubtree(long flops) {
+        return enabled && flops >= SUBTREE_THRESHOLD && getParallelism() > 1;
+    }
+
+    /**
+     * Returns the shared fork-join pool, creating it if necessary.
+     *
+     * @return the shared fork-join pool
+     */
+    static synchronized ForkJoinPool pool() {
+        if (pool == null)
+            pool = new ForkJoinPool(parallelism);
+        return pool;
+    }
+}
@@ -0,0 +1,311 @@
+/**
+ * The ElementArray class is a flat array of matrix values of either float or double type, so that the factorizations
+ * can be written once and run in both precisions. The values are read and written as doubles, which holds every float
+ * exactly, and stored rounded to the type of the array; the loops over runs of values are delegated to the float or
+ * double kernels of {@link RowKernels}. The two implementations are final, so that the calls are inlined and no value
+ * is ever boxed. As a single addition, multiplication or division of floats computed in double and rounded to float
+ * gives the float result, an array of floats behaves exactly as the plain float loops.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+abstract sealed class ElementArray permits ElementArray.Floats, ElementArray.Doubles {
+    /**
+     * Creates an array of zeros of float type.
+     *
+     * @param length the number of values
+     * @return the array
+     */
+    static ElementArray floats(int length) {
+        return new Floats(new float[length]);
+    }
+
+    /**
+     * Creates an array of zeros of double type.
+     *
+     * @param length the number of values
+     * @return the array
+     */
+    static ElementArray doubles(int length) {
+        return new Doubles(new double[length]);
+    }
+
+    /**
+     * Creates an array of zeros of the type in which the given precision factors matrices.
+     *
+     * @param precision the precision of the factorization
+     * @param length the number of values
+     * @return the array
+     */
+    static ElementArray forFactors(Precision precision, int length) {
+        return precision == Precision.float64 ? doubles(length) : floats(length);
+    }
+
+    /**
+     * Wraps the values of a float array without copying them.
+     *
+     * @param values the values
+     * @return the array backed by the given values
+     */
+    static ElementArray wrap(float[] values) {
+        return new Floats(values);
+    }
+
+    /**
+     * Returns the number of values.
+     *
+     * @return the length of the array
+     */
+    abstract int length();
+
+    /**
+     * Returns a value.
+     *
+     * @param index the index of the value
+     * @return the value
+     */
+    abstract double get(int index);
+
+    /**
+     * Sets a value, rounded to the type of the array.
+     *
+     * @param index the index of the value
+     * @param value the new value
+     */
+    abstract void set(int index, double value);
+
+    /**
+     * Copies a run of floats into the array.
+     *
+     * @param source the floats to copy
+     * @param sourceOffset the index of the first float to copy
+     * @param offset the index the first float is copied to
+     * @param length the number of floats
+     */
+    abstract void copyFrom(float[] source, int sourceOffset, int offset, int length);
+
+    /**
+     * Copies a run of the array into floats, rounding the values.
+     *
+     * @param offset the index of the first value to copy
+     * @param target the floats to copy to
+     * @param targetOffset the index the first value is copied to
+     * @param length the number of values
+     */
+    abstract void copyTo(int offset, float[] target, int targetOffset, int length);
+
+    /**
+     * Swaps two runs of the array.
+     *
+     * @param offset1 the index of the first run
+     * @param offset2 the index of the second run
+     * @param length the number of values of the runs
+     */
+    abstract void swap(int offset1, int offset2, int length);
+
+    /**
+     * Divides a run of the array by a divisor rounded to the type of the array. Zeros stay positive when the divisor
+     * is negative, so that they are printed as 0.0 and not as -0.0.
+     *
+     * @param offset the index of the run
+     * @param length the number of values of the run
+     * @param divisor the divisor
+     */
+    abstract void divide(int offset, int length, double divisor);
+
+    /**
+     * Computes {@code this[offset + i] += alpha * b[bOffset + i]} for i from 0 to length - 1, with alpha rounded to
+     * the type of the arrays.
+     *
+     * @param b an array of the same type, possibly this one
+     */
+    abstract void multiplyAdd(double alpha, ElementArray b, int bOffset, int offset, int length);
+
+    /**
+     * Adds alpha0 to alpha3 times the same run of b to four runs of this array that are {@code stride} apart, with
+     * the alphas rounded to the type of the arrays.
+     *
+     * @param b an array of the same type, possibly this one
+     */
+    abstract void multiplyAdd4(double alpha0, double alpha1, double alpha2, double alpha3, ElementArray b,
+                               int bOffset, int offset, int stride, int length);
+
+    /**
+     * Computes {@code this[offset] -= a[aOffset + t * aStep] * this[from + t * step]} for t from 0 to count - 1 in
+     * this order, skipping the zero values of a, so that the value is updated exactly as by {@link #multiplyAdd}
+     * with the same values of a in the same order.
+     *
+     * @param a an array of the same type
+     */
+    abstract void subtractProducts(int offset, ElementArray a, int aOffset, int aStep, int from, int step, int count);
+
+    /**
+     * Returns the number of bytes of the values.
+     *
+     * @return the size of the array in bytes
+     */
+    abstract long heapSize();
+
+    /**
+     * An array of float values.
+     */
+    static final class Floats extends ElementArray {
+        private final float[] values;
+
+        private Floats(float[] values) {
+            this.values = values;
+        }
+
+        @Override
+        int length() {
+            return values.length;
+        }
+
+        @Override
+        double get(int index) {
+            return values[index];
+        }
+
+        @Override
+        void set(int index, double value) {
+            values[index] = (float) value;
+        }
+
+        @Override
+        void copyFrom(float[] source, int sourceOffset, int offset, int length) {
+            System.arraycopy(source, sourceOffset, values, offset, length);
+        }
+
+        @Override
+        void copyTo(int offset, float[] target, int targetOffset, int length) {
+            System.arraycopy(values, offset, target, targetOffset, length);
+        }
+
+        @Override
+        void swap(int offset1, int offset2, int length) {
+            for (int i = 0; i < length; i++) {
+                float temp = values[offset1 + i];
+                values[offset1 + i] = values[offset2 + i];
+                values[offset2 + i] = temp;
+            }
+        }
+
+        @Override
+        void divide(int offset, int length, double divisor) {
+            float value = (float) divisor;
+            for (int i = offset; i < offset + length; i++)
+                values[i] = values[i] / value + 0.0f;
+        }
+
+        @Override
+        void multiplyAdd(double alpha, ElementArray b, int bOffset, int offset, int length) {
+            RowKernels.multiplyAdd((float) alpha, ((Floats) b).values, bOffset, values, offset, length);
+        }
+
+        @Override
+        void multiplyAdd4(double alpha0, double alpha1, double alpha2, double alpha3, ElementArray b,
+                          int bOffset, int offset, int stride, int length) {
+            RowKernels.multiplyAdd4((float) alpha0, (float) alpha1, (float) alpha2, (float) alpha3,
+                    ((Floats) b).values, bOffset, values, offset, stride, length);
+        }
+
+        @Override
+        void subtractProducts(int offset, ElementArray a, int aOffset, int aStep, int from, int step, int count) {
+            float[] factors = ((Floats) a).values;
+            float value = values[offset];
+            for (int t = 0; t < count; t++) {
+                float factor = factors[aOffset + t * aStep];
+                if (factor != 0)
+                    value -= factor * values[from + t * step];
+            }
+            values[offset] = value;
+        }
+
+        @Override
+        long heapSize() {
+            return 4L * values.length;
+        }
+    }
+
+    /**
+     * An array of double values.
+     */
+    static final class Doubles extends ElementArray {
+        private final double[] values;
+
+        private Doubles(double[] values) {
+            this.values = values;
+        }
+
+        @Override
+        int length() {
+            return values.length;
+        }
+
+        @Override
+        double get(int index) {
+            return values[index];
+        }
+
+        @Override
+        void set(int index, double value) {
+            values[index] = value;
+        }
+
+        @Override
+        void copyFrom(float[] source, int sourceOffset, int offset, int length) {
+            for (int i = 0; i < length; i++)
+                values[offset + i] = source[sourceOffset + i];
+        }
+
+        @Override
+        void copyTo(int offset, float[] target, int targetOffset, int length) {
+            for (int i = 0; i < length; i++)
+                target[targetOffset + i] = (float) values[offset + i];
+        }
+
+        @Override
+        void swap(int offset1, int offset2, int length) {
+            for (int i = 0; i < length; i++) {
+                double temp = values[offset1 + i];
+                values[offset1 + i] = values[offset2 + i];
+                values[offset2 + i] = temp;
+            }
+        }
+
+        @Override
+        void divide(int offset, int length, double divisor) {
+            for (int i = offset; i < offset + length; i++)
+                values[i] = values[i] / divisor + 0.0;
+        }
+
+        @Override
+        void multiplyAdd(double alpha, ElementArray b, int bOffset, int offset, int length) {
+            RowKernels.multiplyAdd(alpha, ((Doubles) b).values, bOffset, values, offset, length);
+        }
+
+        @Override
+        void multiplyAdd4(double alpha0, double alpha1, double alpha2, double alpha3, ElementArray b,
+                          int bOffset, int offset, int stride, int length) {
+            RowKernels.multiplyAdd4(alpha0, alpha1, alpha2, alpha3, ((Doubles) b).values, bOffset, values, offset,
+                    stride, length);
+        }
+
+        @Override
+        void subtractProducts(int offset, ElementArray a, int aOffset, int aStep, int from, int step, int count) {
+            double[] factors = ((Doubles) a).values;
+            double value = values[offset];
+            for (int t = 0; t < count; t++) {
+                double factor = factors[aOffset + t * aStep];
+                if (factor != 0)
+                    value -= factor * values[from + t * step];
+            }
+            values[offset] = value;
+        }
+
+        @Override
+        long heapSize() {
+            return 8L * values.length;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * The ExpressionNode class represents a node of the expression tree built by TermEvaluator. A node is either an
+ * operand holding a matrix, a unary operation with one child, or a binary operation with two children.
+ * The shape of the result of every node is known when the node is created, so dimension errors are reported
+ * before any computation is done and the evaluator can estimate the cost of a subtree from its shapes.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.security.InvalidParameterException;
+
+final class ExpressionNode {
+    /** Operator of the node, {@code null} for an operand */
+    final Operators operator;
+    /** The only child of a unary node or the first child of a binary node */
+    final ExpressionNode left;
+    /** The second child of a binary node */
+    final ExpressionNode right;
+    /** The matrix of an operand node */
+    final Matrix matrix;
+    /** Number of rows of the result of the node */
+    final int rows;
+    /** Number of columns of the result of the node */
+    final int cols;
+
+    private ExpressionNode(Operators operator, ExpressionNode left, ExpressionNode right, Matrix matrix,
+                           int rows, int cols) {
+        this.operator = operator;
+        this.left = left;
+        this.right = right;
+        this.matrix = matrix;
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    /**
+     * Creates an operand node holding the given matrix.
+     *
+     * @param matrix the matrix of the operand
+     * @return the operand node
+     */
+    static ExpressionNode operand(Matrix matrix) {
+        return new ExpressionNode(null, null, null, matrix, matrix.rows, matrix.cols);
+    }
+
+    /**
+     * Creates a node applying a unary operator to the given child.
+     *
+     * @param operator the unary operator
+     * @param child the operand of the operator
+     * @return the unary node
+     * @throws InvalidParameterException if the operator requires a square matrix and the child is not square
+     */
+    static ExpressionNode unary(Operators operator, ExpressionNode child) {
+        switch (operator) {
+            case transpose:
+                return new ExpressionNode(operator, child, null, null, child.cols, child.rows);
+            case inverse:
+                if (child.rows != child.cols)
+                    throw new InvalidParameterException("Matrix is not a square matrix");
+                return new ExpressionNode(operator, child, null, null, child.rows, child.cols);
+            case det:
+                if (child.rows != child.cols)
+                    throw new InvalidParameterException("Matrix is not a square matrix");
+                return new ExpressionNode(operator, child, null, null, 1, 1);
+            case rank:
+                return new ExpressionNode(operator, child, null, null, 1, 1);
+            case ref:
+            case rref:
+                return new ExpressionNode(operator, child, null, null, child.rows, child.cols);
+            default:
+                throw new UnsupportedOperationException("Invalid operator: " + operator);
+        }
+    }
+
+    /**
+     * Creates a node applying a binary operator to the given children.
+     *
+     * @param operator the binary operator
+     * @param left the first operand
+     * @param right the second operand
+     * @return the binary node
+     * @throws InvalidParameterException if the shapes of the operands do not fit the operator
+     */
+    static ExpressionNode binary(Operators operator, ExpressionNode left, ExpressionNode right) {
+        switch (operator) {
+            case addition:
+            case subtraction:
+                if (left.rows != right.rows || left.cols != right.cols)
+                    throw new InvalidParameterException("Matrices do not have appropriate dimensions");
+                return new ExpressionNode(operator, left, right, null, left.rows, left.cols);
+            case multiplication:
+                if (left.cols != right.rows)
+                    throw new InvalidParameterException("Matrices do not have appropriate dimensions");
+                return new ExpressionNode(operator, left, right, null, left.rows, right.cols);
+            case solve:
+                if (left.rows != left.cols)
+                    throw new InvalidParameterException("Matrix is not a square matrix");
+                if (left.rows != right.rows)
+                    throw new InvalidParameterException("Matrices do not have appropriate dimensions");
+                return new ExpressionNode(operator, left, right, null, left.cols, right.cols);
+            case power:
+                if (left.rows != left.cols)
+                    throw new InvalidParameterException("Matrix is not a square matrix");
+                if (right.rows != 1 || right.cols != 1)
+                    throw new InvalidParameterException("Exponent is not a 1x1 matrix");
+                return new ExpressionNode(operator, left, right, null, left.rows, left.cols);
+            default:
+                throw new UnsupportedOperationException("Invalid operator: " + operator);
+        }
+    }
+
+    /**
+     * Returns whether this node is an operand.
+     *
+     * @return {@code true} if the node holds a matrix
+     */
+    boolean isOperand() {
+        return operator == null;
+    }
+
+    /**
+     * Estimates the number of floating point operations of this node alone, without its children.
+     * Elimination based operators are counted as {@code rows * cols * min(rows, cols)} updates,
+     * inverse and rref twice that, since they also eliminate above the pivot. Solving a system is counted as
+     * the LU decomposition of its matrix and a forward and back substitution per right-hand side. A power is
+     * counted as its multiplications by repeated squaring and the inverse for a negative exponent, or as one
+     * multiplication if the exponent is not known before evaluation.
+     *
+     * @return the estimated number of floating point operations
+     */
+    long ownFlops() {
+        if (isOperand())
+            return 0;
+        long elements = (long) rows * cols;
+        switch (operator) {
+            case multiplication:
+                return 2L * left.rows * left.cols * right.cols;
+            case addition:
+            case subtraction:
+                return elements;
+            case ref:
+                return 2L * elements * Math.min(rows, cols);
+            case det:
+            case rank:
+                return 2L * left.rows * left.cols * Math.min(left.rows, left.cols);
+            case solve:
+                return 2L * left.rows * left.rows * left.rows / 3 + 2L * left.rows * left.rows * right.cols;
+            case rref:
+            case inverse:
+                return 4L * elements * Math.min(rows, cols);
+            case power:
+                long multiplication = 2L * rows * rows * rows;
+                if (!right.isOperand())
+                    return multiplication;
+                long exponent = (long) right.matrix.getValue(0, 0);
+                long magnitude = Math.abs(exponent);
+                long multiplications = magnitude == 0 ? 0
+                        : 63 - Long.numberOfLeadingZeros(magnitude) + Long.bitCount(magnitude) - 1;
+                return multiplications * multiplication + (exponent < 0 ? 2 * multiplication : 0);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Estimates the number of floating point operations needed to evaluate the subtree of this node.
+     *
+     * @return the estimated number of floating point operations
+     */
+    long estimatedFlops() {
+        long flops = ownFlops();
+        if (left != null)
+            flops += left.estimatedFlops();
+        if (right != null)
+            flops += right.estimatedFlops();
+        return flops;
+    }
+}
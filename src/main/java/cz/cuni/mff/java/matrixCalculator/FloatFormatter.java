@@ -0,0 +1,233 @@
+/**
+ * The FloatFormatter class writes floats as ASCII bytes, character for character as {@link Float#toString(float)}
+ * does, without creating a String for every value. The digits are found by the Schubfach algorithm of Raffaello
+ * Giulietti, which Float.toString is specified by: the shortest decimal that rounds to the float, the one closest
+ * to it among several, computed with a few 64-bit multiplications by a table of powers of ten. Values of at least
+ * 10^-3 and below 10^7 are written in plain notation with at least one digit after the point, other values in
+ * scientific notation such as {@code 1.0E-5}.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.math.BigInteger;
+
+final class FloatFormatter {
+    /** Maximal number of bytes of a formatted float, as of {@code -1.17549435E-38} */
+    static final int MAX_LENGTH = 15;
+
+    /** Number of bits of the significand including the hidden bit */
+    private static final int P = 24;
+    /** Exponent of the least significant bit of the subnormal floats */
+    private static final int Q_MIN = -149;
+    /** Exponent of the least significant bit of the largest floats */
+    private static final int Q_MAX = 104;
+    /** Smallest significand of a normal float */
+    private static final int C_MIN = 1 << 23;
+    /** Subnormal significands below this are scaled by ten, so that decimals of two digits are considered */
+    private static final int C_TINY = 8;
+    /** Number of digits of the significand of the decimals the digits are extracted from */
+    private static final int H = 9;
+    private static final long MASK_32 = 0xFFFF_FFFFL;
+
+    /** Smallest and largest exponent of ten looked up in {@link #G} */
+    private static final int K_MIN = flog10threeQuartersPow2(Q_MIN);
+    private static final int K_MAX = flog10pow2(Q_MAX);
+    /** The 63 most significant bits of 10^-k rounded up, for every k from K_MIN to K_MAX */
+    private static final long[] G = powersOfTen();
+
+    private FloatFormatter() {
+    }
+
+    /**
+     * Writes a float to a byte array.
+     *
+     * @param value the float to write
+     * @param out the array receiving the characters, with at least {@link #MAX_LENGTH} bytes from the offset on
+     * @param offset the position of the first character
+     * @return the position after the last character
+     */
+    static int format(float value, byte[] out, int offset) {
+        int bits = Float.floatToRawIntBits(value);
+        int t = bits & C_MIN - 1;
+        int bq = bits >>> P - 1 & 0xFF;
+        if (bq == 0xFF)
+            return append(t != 0 ? "NaN" : bits > 0 ? "Infinity" : "-Infinity", out, offset);
+        if (bits < 0)
+            out[offset++] = '-';
+        if (bq != 0) {
+            // a normal float c * 2^-mq
+            int mq = -Q_MIN + 1 - bq;
+            int c = C_MIN | t;
+            if (0 < mq & mq < P) {
+                int f = c >> mq;
+                if (f << mq == c)
+                    return digits(f, 0, out, offset);
+            }
+            return toDecimal(-mq, c, 0, out, offset);
+        }
+        if (t != 0)
+            return t < C_TINY ? toDecimal(Q_MIN, 10 * t, -1, out, offset) : toDecimal(Q_MIN, t, 0, out, offset);
+        return append("0.0", out, offset);
+    }
+
+    /**
+     * Writes the shortest decimal rounding to c * 2^q * 10^dk.
+     */
+    private static int toDecimal(int q, int c, int dk, byte[] out, int offset) {
+        // the rounding interval of the float is [cbl, cbr] * 2^(q - 2), closed for an even significand
+        int odd = c & 1;
+        long cb = (long) c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != C_MIN | q == Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            // the float below a power of two is closer than the one above it
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 33;
+        long g = G[k - K_MIN] + 1;
+
+        int vb = roundToOdd(g, cb << h);
+        int vbl = roundToOdd(g, cbl << h);
+        int vbr = roundToOdd(g, cbr << h);
+
+        int s = vb >> 2;
+        if (s >= 100) {
+            // try a decimal of one digit less
+            int sp10 = 10 * (int) (s * 1_717_986_919L >>> 34);
+            int tp10 = sp10 + 10;
+            boolean upin = vbl + odd <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + odd <= vbr;
+            if (upin != wpin)
+                return digits(upin ? sp10 : tp10, k, out, offset);
+        }
+        int t = s + 1;
+        boolean uin = vbl + odd <= s << 2;
+        boolean win = (t << 2) + odd <= vbr;
+        if (uin != win)
+            return digits(uin ? s : t, k + dk, out, offset);
+        // both are in the interval, the closer one wins, the even one on a tie
+        int cmp = vb - (s + t << 1);
+        return digits(cmp < 0 || cmp == 0 && (s & 1) == 0 ? s : t, k + dk, out, offset);
+    }
+
+    /**
+     * Returns the product of g and cp scaled down by 2^95, rounded to odd.
+     */
+    private static int roundToOdd(long g, long cp) {
+        long x1 = Math.multiplyHigh(g, cp);
+        long vbp = x1 >>> 31;
+        return (int) (vbp | (x1 & MASK_32) + MASK_32 >>> 32);
+    }
+
+    /**
+     * Writes the decimal f * 10^e, where f is positive, in plain or scientific notation.
+     */
+    private static int digits(int f, int e, byte[] out, int offset) {
+        int length = 1;
+        for (int power = 10; length < H && f >= power; power *= 10)
+            length++;
+        // the value is 0.d1...d9 * 10^e with the nine digits of f padded by zeros
+        e += length;
+        if (-3 < e && e <= 0) {
+            out[offset++] = '0';
+            out[offset++] = '.';
+            for (int i = e; i < 0; i++)
+                out[offset++] = '0';
+            writeDigits(f, length, out, offset);
+            return removeTrailingZeroes(out, offset + H);
+        }
+        // the point follows the first e digits in plain, the first digit in scientific notation
+        int point = 0 < e && e <= 7 ? e : 1;
+        writeDigits(f, length, out, offset);
+        System.arraycopy(out, offset + point, out, offset + point + 1, H - point);
+        out[offset + point] = '.';
+        offset = removeTrailingZeroes(out, offset + H + 1);
+        if (point == e)
+            return offset;
+        out[offset++] = 'E';
+        int exponent = e - 1;
+        if (exponent < 0) {
+            out[offset++] = '-';
+            exponent = -exponent;
+        }
+        if (exponent >= 10)
+            out[offset++] = (byte) ('0' + exponent / 10);
+        out[offset++] = (byte) ('0' + exponent % 10);
+        return offset;
+    }
+
+    /**
+     * Writes the given number of digits of f followed by zeros up to {@link #H} digits.
+     */
+    private static void writeDigits(int f, int length, byte[] out, int offset) {
+        for (int i = H - 1; i >= length; i--)
+            out[offset + i] = '0';
+        for (int i = length - 1; i >= 0; i--) {
+            out[offset + i] = (byte) ('0' + f % 10);
+            f /= 10;
+        }
+    }
+
+    /**
+     * Removes the zeros at the end of the digits after the point, keeping at least one digit.
+     */
+    private static int removeTrailingZeroes(byte[] out, int offset) {
+        while (out[offset - 1] == '0')
+            offset--;
+        if (out[offset - 1] == '.')
+            offset++;
+        return offset;
+    }
+
+    private static int append(String text, byte[] out, int offset) {
+        for (int i = 0; i < text.length(); i++)
+            out[offset++] = (byte) text.charAt(i);
+        return offset;
+    }
+
+    /**
+     * Returns floor(q * log10(2)).
+     */
+    private static int flog10pow2(int q) {
+        return (int) (q * 661_971_961_083L >> 41);
+    }
+
+    /**
+     * Returns floor(log10(3/4 * 2^q)).
+     */
+    private static int flog10threeQuartersPow2(int q) {
+        return (int) (q * 661_971_961_083L - 274_743_187_321L >> 41);
+    }
+
+    /**
+     * Returns floor(e * log2(10)).
+     */
+    private static int flog2pow10(int e) {
+        return (int) (e * 913_124_641_741L >> 38);
+    }
+
+    /**
+     * Computes the table {@link #G}: for every k, 10^-k = b * 2^r with 2^125 <= b < 2^126, and the entry holds
+     * the 63 most significant bits of floor(b) + 1.
+     */
+    private static long[] powersOfTen() {
+        long[] table = new long[K_MAX - K_MIN + 1];
+        for (int k = K_MIN; k <= K_MAX; k++) {
+            int r = flog2pow10(-k) - 125;
+            BigInteger numerator = k <= 0 ? BigInteger.TEN.pow(-k) : BigInteger.ONE;
+            BigInteger denominator = k <= 0 ? BigInteger.ONE : BigInteger.TEN.pow(k);
+            if (r < 0)
+                numerator = numerator.shiftLeft(-r);
+            else
+                denominator = denominator.shiftLeft(r);
+            BigInteger g = numerator.divide(denominator).add(BigInteger.ONE);
+            table[k - K_MIN] = g.shiftRight(63).longValueExact();
+        }
+        return table;
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * The FloatTokenizer class collects the values of a matrix literal. The characters of every number are fed to it
+ * one by one and the number is converted directly into a growable primitive float array, without boxing and
+ * without building a temporary String.
+ * <p>
+ * A number is an optional minus sign followed by digits with at most one decimal point. While it is read, its
+ * digits are accumulated into an integer mantissa. When the mantissa and the number of decimal places are small
+ * enough for the division by a power of ten to be exact up to a single rounding, the value is computed
+ * arithmetically; otherwise the characters are handed to {@link Float#parseFloat}. Both ways give the correctly
+ * rounded float, so the values are the same as if every number was parsed with Float.parseFloat.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.util.Arrays;
+
+final class FloatTokenizer {
+    /** Powers of ten exactly representable as floats */
+    private static final float[] FLOAT_POWERS = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+    /** Powers of ten exactly representable as doubles */
+    private static final double[] DOUBLE_POWERS = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    /** Largest mantissa for which the arithmetic conversion is used */
+    private static final long MAX_MANTISSA = 1L << 53;
+    /** The bits of a double mantissa that are dropped when it is rounded to float */
+    private static final long HALFWAY_MASK = (1L << 29) - 1;
+    /** The dropped bits of a double lying exactly halfway between two floats */
+    private static final long HALFWAY = 1L << 28;
+
+    /** The values read so far */
+    private float[] values = new float[16];
+    /** Number of values read so far */
+    private int size = 0;
+
+    /** Characters of the current number, kept for the slow path and for error messages */
+    private char[] text = new char[32];
+    /** Number of characters of the current number */
+    private int length = 0;
+    /** Digits of the current number read as an integer */
+    private long mantissa = 0;
+    /** Number of digits after the decimal point of the current number */
+    private int decimals = 0;
+    /** Number of digits of the current number */
+    private int digits = 0;
+    /** Whether the current number contains a decimal point */
+    private boolean point = false;
+    /** Whether the current number is well-formed and small enough for the arithmetic conversion */
+    private boolean fast = true;
+
+    /**
+     * Adds a character of the current number.
+     *
+     * @param value a digit, a decimal point or a minus sign
+     */
+    void append(char value) {
+        if (length == text.length)
+            text = Arrays.copyOf(text, 2 * length);
+        text[length++] = value;
+        if (value == '-') {
+            // the sign is only valid as the first character
+            if (length != 1)
+                fast = false;
+        } else if (value == '.') {
+            if (point)
+                fast = false;
+            point = true;
+        } else {
+            digits++;
+            if (point)
+                decimals++;
+            if (mantissa >= MAX_MANTISSA / 10)
+                fast = false;
+            else
+                mantissa = 10 * mantissa + (value - '0');
+        }
+    }
+
+    /**
+     * Returns whether characters of a number have been added since the last completed number.
+     *
+     * @return true if a number is being read
+     */
+    boolean hasNumber() {
+        return length > 0;
+    }
+
+    /**
+     * Converts the current number and adds it to the values.
+     *
+     * @throws NumberFormatException if the characters do not form a number
+     */
+    void finishNumber() {
+        float value;
+        if (fast && digits > 0 && decimals < DOUBLE_POWERS.length)
+            value = convert();
+        else
+            value = Float.parseFloat(new String(text, 0, length));
+        if (size == values.length)
+            values = Arrays.copyOf(values, 2 * size);
+        values[size++] = value;
+        resetNumber();
+    }
+
+    /**
+     * Converts the current number arithmetically, falling back to Float.parseFloat if the result could suffer
+     * from double rounding.
+     */
+    private float convert() {
+        float value;
+        if (mantissa < (1 << 24) && decimals < FLOAT_POWERS.length) {
+            // both operands are exact floats, so the quotient is rounded once
+            value = mantissa / FLOAT_POWERS[decimals];
+        } else {
+            // the quotient is rounded once to double; rounding it to float is only wrong for exact halfway cases
+            double exact = mantissa / DOUBLE_POWERS[decimals];
+            if ((Double.doubleToRawLongBits(exact) & HALFWAY_MASK) == HALFWAY)
+                return Float.parseFloat(new String(text, 0, length));
+            value = (float) exact;
+        }
+        return text[0] == '-' ? -value : value;
+    }
+
+    /**
+     * Clears the state of the current number.
+     */
+    private void resetNumber() {
+        length = 0;
+        mantissa = 0;
+        decimals = 0;
+        digits = 0;
+        point = false;
+        fast = true;
+    }
+
+    /**
+     * Returns the number of values read so far.
+     *
+     * @return the number of values
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Hands the values read so far over to the caller and starts a new, empty list of values.
+     *
+     * @return an array holding exactly the values read so far
+     */
+    float[] takeValues() {
+        float[] result = size == values.length ? values : Arrays.copyOf(values, size);
+        values = new float[16];
+        size = 0;
+        return result;
+    }
+
+    /**
+     * Discards the values read so far and the current number.
+     */
+    void clear() {
+        size = 0;
+        resetNumber();
+    }
+}
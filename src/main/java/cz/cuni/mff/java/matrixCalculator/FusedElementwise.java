@@ -0,0 +1,231 @@
+/**
+ * The FusedElementwise class evaluates a subtree of additions, subtractions and transposes in one pass over the
+ * result, without creating a matrix for every intermediate sum. The subtree is compiled into a tree of terms whose
+ * leaves are matrices read either along their rows or, below an odd number of transposes, along their columns;
+ * a leaf that is a {@link TransposedMatrix} is its base read the other way.
+ * Other operators inside the subtree, such as a multiplication, are evaluated beforehand and become leaves.
+ * <p>
+ * The result is then computed row by row: every row of the inputs is read once and every inner node of the
+ * term tree only needs a scratch buffer the length of one row. The operations on every element are the same
+ * as when each node is evaluated separately, so the rounding of the result does not change.
+ * Subtrees with sparse or tiled leaves are instead evaluated operator by operator, so that the leaves keep their
+ * representation. The result array is taken from the {@link BufferArena} of the evaluation, to which the leaves
+ * computed for the pass are given back once it is done.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+final class FusedElementwise {
+    /** The compiled term tree */
+    private final Term root;
+    /** Number of rows of the result */
+    private final int rows;
+    /** Number of columns of the result */
+    private final int cols;
+    /** One scratch row for every level of the term tree */
+    private final float[][] scratch;
+
+    /**
+     * Creates the fused loop of a compiled term tree.
+     */
+    private FusedElementwise(Term root, int rows, int cols) {
+        this.root = root;
+        this.rows = rows;
+        this.cols = cols;
+        this.scratch = new float[root.depth()][cols];
+    }
+
+    /**
+     * Returns whether the given node can be evaluated by a fused loop.
+     *
+     * @param node the node to check
+     * @return {@code true} if the node is an addition or a subtraction
+     */
+    static boolean isElementwise(ExpressionNode node) {
+        return node.operator == Operators.addition || node.operator == Operators.subtraction;
+    }
+
+    /**
+     * Returns the subtrees inside an element-wise subtree that are not element-wise and have to be computed before
+     * the pass, in the order in which the pass asks its evaluator for them. They do not depend on each other.
+     *
+     * @param node the root of the subtree, an addition or a subtraction
+     * @return the roots of the subtrees evaluated beforehand, without the operands of the expression
+     */
+    static List<ExpressionNode> computedLeaves(ExpressionNode node) {
+        List<ExpressionNode> leaves = new ArrayList<>();
+        addComputedLeaves(node, leaves);
+        return leaves;
+    }
+
+    private static void addComputedLeaves(ExpressionNode node, List<ExpressionNode> leaves) {
+        if (isElementwise(node)) {
+            addComputedLeaves(node.left, leaves);
+            addComputedLeaves(node.right, leaves);
+        } else if (node.operator == Operators.transpose)
+            addComputedLeaves(node.left, leaves);
+        else if (!node.isOperand())
+            leaves.add(node);
+    }
+
+    /**
+     * Evaluates an element-wise subtree in one pass, which is recorded in {@link OperationStats} as "elementwise".
+     *
+     * @param node the root of the subtree, an addition or a subtraction
+     * @param evaluator evaluates the subtrees that are not element-wise
+     * @param arena the arena providing the result array and receiving the computed leaves
+     * @return the result matrix of the subtree
+     */
+    static Matrix evaluate(ExpressionNode node, Function<ExpressionNode, Matrix> evaluator, BufferArena arena) {
+        List<Matrix> computed = new ArrayList<>();
+        Term root = compile(node, false, evaluator, computed);
+        OperationStats.Timer timer = OperationStats.start();
+        Matrix result = root.isArrayBacked()
+                ? new FusedElementwise(root, node.rows, node.cols).run(arena.matrix(node.rows, node.cols))
+                : root.evaluateSeparately();
+        long flops = (long) root.operations() * node.rows * node.cols;
+        timer.stop("elementwise", OperationStats.Shape.of(node.rows, node.cols), flops);
+        for (Matrix leaf : computed)
+            if (leaf.data != result.data)
+                arena.recycle(leaf);
+        return result;
+    }
+
+    /**
+     * Compiles a subtree into a term tree. Transposes are pushed down to the leaves; the leaves computed by the
+     * evaluator are added to the given list.
+     */
+    private static Term compile(ExpressionNode node, boolean transposed, Function<ExpressionNode, Matrix> evaluator,
+                                List<Matrix> computed) {
+        if (isElementwise(node))
+            return new Term(node.operator, compile(node.left, transposed, evaluator, computed),
+                    compile(node.right, transposed, evaluator, computed), null, false);
+        if (node.operator == Operators.transpose)
+            return compile(node.left, !transposed, evaluator, computed);
+        Matrix matrix = node.matrix;
+        if (!node.isOperand()) {
+            matrix = evaluator.apply(node);
+            computed.add(matrix);
+        }
+        if (matrix instanceof TransposedMatrix view)
+            return new Term(null, null, null, view.base, !transposed);
+        return new Term(null, null, null, matrix, transposed);
+    }
+
+    /**
+     * Computes the result row by row into the given matrix, overwriting all of its values.
+     */
+    private Matrix run(Matrix result) {
+        for (int i = 0; i < rows; i++)
+            row(root, i, result.data, i * result.stride, 0);
+        return result;
+    }
+
+    /**
+     * Writes row i of the given term into out, starting at outOffset.
+     * Scratch buffers from the given depth on may be used.
+     */
+    private void row(Term term, int i, float[] out, int outOffset, int depth) {
+        if (term.isLeaf()) {
+            term.copyRow(i, out, outOffset, cols);
+            return;
+        }
+        float[] leftArray = out;
+        int leftOffset = outOffset;
+        if (term.left.isDirect()) {
+            leftArray = term.left.matrix.data;
+            leftOffset = term.left.rowOffset(i);
+        } else
+            row(term.left, i, out, outOffset, depth);
+
+        float[] rightArray = scratch[depth];
+        int rightOffset = 0;
+        if (term.right.isDirect()) {
+            rightArray = term.right.matrix.data;
+            rightOffset = term.right.rowOffset(i);
+        } else
+            row(term.right, i, rightArray, 0, depth + 1);
+
+        if (term.operator == Operators.addition)
+            RowKernels.add(leftArray, leftOffset, rightArray, rightOffset, out, outOffset, cols);
+        else
+            RowKernels.subtract(leftArray, leftOffset, rightArray, rightOffset, out, outOffset, cols);
+    }
+
+    /**
+     * A node of the compiled term tree: either an element-wise operator with two children or a leaf matrix.
+     */
+    private static final class Term {
+        final Operators operator;
+        final Term left;
+        final Term right;
+        final Matrix matrix;
+        final boolean transposed;
+
+        Term(Operators operator, Term left, Term right, Matrix matrix, boolean transposed) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+            this.matrix = matrix;
+            this.transposed = transposed;
+        }
+
+        boolean isLeaf() {
+            return matrix != null;
+        }
+
+        /** A leaf read along its rows can be passed to the kernels without copying. */
+        boolean isDirect() {
+            return isLeaf() && !transposed;
+        }
+
+        int rowOffset(int i) {
+            return i * matrix.stride;
+        }
+
+        /** Whether all leaves are dense matrices held in arrays, which the fused loop reads directly. */
+        boolean isArrayBacked() {
+            if (isLeaf())
+                return matrix.data != null;
+            return left.isArrayBacked() && right.isArrayBacked();
+        }
+
+        /** Evaluates the term with the Matrix operations, one operator at a time. */
+        Matrix evaluateSeparately() {
+            if (isLeaf())
+                return transposed ? Matrix.transpose(matrix) : matrix;
+            if (operator == Operators.addition)
+                return Matrix.addition(left.evaluateSeparately(), right.evaluateSeparately());
+            return Matrix.subtraction(left.evaluateSeparately(), right.evaluateSeparately());
+        }
+
+        /** Number of additions and subtractions of this term. */
+        int operations() {
+            if (isLeaf())
+                return 0;
+            return 1 + left.operations() + right.operations();
+        }
+
+        /** Number of scratch rows needed to evaluate this term. */
+        int depth() {
+            if (isLeaf())
+                return 0;
+            return Math.max(left.depth(), right.depth() + 1);
+        }
+
+        void copyRow(int i, float[] out, int outOffset, int length) {
+            if (!transposed) {
+                System.arraycopy(matrix.data, rowOffset(i), out, outOffset, length);
+                return;
+            }
+            float[] data = matrix.data;
+            int stride = matrix.stride;
+            for (int j = 0; j < length; j++)
+                out[outOffset + j] = data[j * stride + i];
+        }
+    }
+}
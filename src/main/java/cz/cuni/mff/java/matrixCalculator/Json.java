@@ -0,0 +1,338 @@
+/**
+ * The Json class reads and writes the small subset of JSON used by the MatrixServer: objects, arrays, strings,
+ * numbers, booleans and null. Objects are read into LinkedHashMaps, arrays into ArrayLists and numbers into
+ * {@link Numeral}s keeping their text, so that matrix values are converted to floats with a single rounding.
+ * Matrices are written as arrays of rows; values that JSON numbers cannot express are written as the strings
+ * "NaN", "Infinity" and "-Infinity", which are also accepted when reading a matrix. The nesting of arrays and objects
+ * is limited by the caller, so that a document sent by a client cannot overflow the stack of the recursive parser.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+final class Json {
+    /** The text being parsed */
+    private final String text;
+    /** Maximal number of arrays and objects nested in each other */
+    private final int maxDepth;
+    /** Index of the next character to parse */
+    private int position = 0;
+    /** Number of arrays and objects enclosing the next character */
+    private int depth = 0;
+
+    private Json(String text, int maxDepth) {
+        this.text = text;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Parses a JSON document.
+     *
+     * @param text the document
+     * @param maxDepth the maximal number of arrays and objects nested in each other, 2 for a matrix
+     * @return the parsed value: a Map, List, String, Numeral, Boolean or null
+     * @throws IllegalArgumentException if the text is not valid JSON or is nested deeper than maxDepth
+     */
+    static Object parse(String text, int maxDepth) {
+        Json parser = new Json(text, maxDepth);
+        Object value = parser.value();
+        parser.skipWhitespace();
+        if (parser.position != text.length())
+            throw parser.error("Unexpected content");
+        return value;
+    }
+
+    private Object value() {
+        skipWhitespace();
+        if (position >= text.length())
+            throw error("Unexpected end");
+        char c = text.charAt(position);
+        switch (c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            default:
+                if (c == '-' || c >= '0' && c <= '9')
+                    return number();
+                throw error("Unexpected character " + c);
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        enter();
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            depth--;
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"')
+                throw error("Expected a name");
+            String name = string();
+            skipWhitespace();
+            expect(':');
+            object.put(name, value());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+                continue;
+            }
+            expect('}');
+            depth--;
+            return object;
+        }
+    }
+
+    private List<Object> array() {
+        List<Object> array = new ArrayList<>();
+        enter();
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            depth--;
+            return array;
+        }
+        while (true) {
+            array.add(value());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+                continue;
+            }
+            expect(']');
+            depth--;
+            return array;
+        }
+    }
+
+    private String string() {
+        position++;
+        StringBuilder string = new StringBuilder();
+        while (true) {
+            if (position >= text.length())
+                throw error("Unterminated string");
+            char c = text.charAt(position++);
+            if (c == '"')
+                return string.toString();
+            if (c != '\\') {
+                string.append(c);
+                continue;
+            }
+            if (position >= text.length())
+                throw error("Unterminated string");
+            char escaped = text.charAt(position++);
+            switch (escaped) {
+                case '"', '\\', '/' -> string.append(escaped);
+                case 'b' -> string.append('\b');
+                case 'f' -> string.append('\f');
+                case 'n' -> string.append('\n');
+                case 'r' -> string.append('\r');
+                case 't' -> string.append('\t');
+                case 'u' -> {
+                    if (position + 4 > text.length())
+                        throw error("Invalid escape");
+                    try {
+                        string.append((char) Integer.parseInt(text, position, position + 4, 16));
+                    } catch (NumberFormatException exception) {
+                        throw error("Invalid escape");
+                    }
+                    position += 4;
+                }
+                default -> throw error("Invalid escape \\" + escaped);
+            }
+        }
+    }
+
+    private Numeral number() {
+        int start = position;
+        if (peek() == '-')
+            position++;
+        while (position < text.length() && "0123456789.eE+-".indexOf(text.charAt(position)) >= 0)
+            position++;
+        String number = text.substring(start, position);
+        try {
+            Double.parseDouble(number);
+        } catch (NumberFormatException exception) {
+            throw error("Invalid number " + number);
+        }
+        return new Numeral(number);
+    }
+
+    private Object literal(String literal, Object value) {
+        if (!text.startsWith(literal, position))
+            throw error("Unexpected character " + text.charAt(position));
+        position += literal.length();
+        return value;
+    }
+
+    private void enter() {
+        if (++depth > maxDepth)
+            throw error("Nested deeper than " + maxDepth + " levels");
+        position++;
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position)))
+            position++;
+    }
+
+    private char peek() {
+        if (position >= text.length())
+            throw error("Unexpected end");
+        return text.charAt(position);
+    }
+
+    private void expect(char expected) {
+        if (peek() != expected)
+            throw error("Expected " + expected);
+        position++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Invalid JSON: " + message + " at " + position);
+    }
+
+    /**
+     * Returns a value as a JSON string literal.
+     *
+     * @param value the string to quote
+     * @return the quoted and escaped string
+     */
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                case '\n' -> quoted.append("\\n");
+                case '\r' -> quoted.append("\\r");
+                case '\t' -> quoted.append("\\t");
+                default -> {
+                    if (c < 0x20)
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    else
+                        quoted.append(c);
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Appends a matrix as an array of rows.
+     *
+     * @param json the builder of the document
+     * @param matrix the matrix to write
+     */
+    static void appendMatrix(StringBuilder json, Matrix matrix) {
+        matrix = matrix.inMemory();
+        json.append('[');
+        for (int i = 0; i < matrix.rows; i++) {
+            if (i > 0)
+                json.append(',');
+            json.append('[');
+            for (int j = 0; j < matrix.cols; j++) {
+                if (j > 0)
+                    json.append(',');
+                float value = matrix.data[i * matrix.stride + j];
+                if (Float.isFinite(value))
+                    json.append(value);
+                else
+                    json.append('"').append(value).append('"');
+            }
+            json.append(']');
+        }
+        json.append(']');
+    }
+
+    /**
+     * Converts a parsed array of rows to a matrix.
+     *
+     * @param value the parsed value, a non-empty List of Lists of equal length
+     * @return the matrix
+     * @throws IllegalArgumentException if the value is not a non-empty array of rows of equal length
+     */
+    static Matrix toMatrix(Object value) {
+        if (!(value instanceof List<?> rows) || rows.isEmpty() || !(rows.get(0) instanceof List<?> first)
+                || first.isEmpty())
+            throw new IllegalArgumentException("A matrix must be a non-empty array of rows");
+        int cols = first.size();
+        float[] values = new float[rows.size() * cols];
+        for (int i = 0; i < rows.size(); i++) {
+            if (!(rows.get(i) instanceof List<?> row) || row.size() != cols)
+                throw new IllegalArgumentException("Rows of a matrix must be arrays of equal length");
+            for (int j = 0; j < cols; j++)
+                values[i * cols + j] = toFloat(row.get(j));
+        }
+        return new Matrix(rows.size(), cols, values);
+    }
+
+    private static float toFloat(Object value) {
+        if (value instanceof Numeral number)
+            return number.floatValue();
+        if (value instanceof String string) {
+            switch (string) {
+                case "NaN":
+                    return Float.NaN;
+                case "Infinity":
+                    return Float.POSITIVE_INFINITY;
+                case "-Infinity":
+                    return Float.NEGATIVE_INFINITY;
+            }
+        }
+        throw new IllegalArgumentException("Matrix values must be numbers");
+    }
+
+    /**
+     * A parsed JSON number, which keeps its text so that it can be converted to a float or a double exactly.
+     */
+    static final class Numeral extends Number {
+        private final String text;
+
+        Numeral(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int intValue() {
+            return (int) doubleValue();
+        }
+
+        @Override
+        public long longValue() {
+            return (long) doubleValue();
+        }
+
+        @Override
+        public float floatValue() {
+            return Float.parseFloat(text);
+        }
+
+        @Override
+        public double doubleValue() {
+            return Double.parseDouble(text);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,813 @@
+/**
+ * The LUDecomposition class factors a matrix A into {@code P A = L U} by Gaussian elimination with partial
+ * pivoting: in every step the row with the largest absolute value in the pivot column is swapped to the top.
+ * P is a permutation, L is unit lower triangular and U is in row echelon form. A column whose remaining values
+ * are all at most a tolerance in absolute value has no pivot and is skipped, so the factorization also exists for
+ * singular and rectangular matrices, and the number of pivots is the rank.
+ * <p>
+ * A factorization is computed once in O(n^3) and can then be reused: a linear system with it is solved by forward
+ * and back substitution in O(n^2) per right-hand side, and the determinant is the signed product of the pivots.
+ * The factorizations used for inverses, determinants and solutions are exact, that is only zero columns are
+ * skipped; the ones for the rank and the echelon forms use a tolerance relative to the largest value of A, so that
+ * rounding errors are not mistaken for pivots.
+ * <p>
+ * The elimination is blocked: the pivots of a panel of {@link #PANEL} columns are found and eliminated within the
+ * panel alone, and only then are the rows right of the panel updated with all of its pivots at once. The update of
+ * the trailing rows is a product of the panel with the pivot rows, which reuses the pivot rows from the cache and
+ * is split into blocks of rows computed in parallel by {@link ComputePool}. The substitutions for many right-hand
+ * sides and the reduction to the reduced row echelon form are likewise split into independent blocks of columns.
+ * Every value receives the same updates in the same order as in an unblocked elimination, so the results do not
+ * depend on the blocking or on the number of threads.
+ * <p>
+ * An interrupted thread stops the elimination before its next panel and the substitutions before their next slab
+ * of columns with a CancellationException, so that a cancelled evaluation releases its thread early.
+ * <p>
+ * The {@link Precision} chosen for a factorization decides its arithmetic, while the matrices themselves stay in
+ * float. With float32 the factors and the substitutions are computed in float, with float64 in double, rounding
+ * only the final results to float. With mixed the factors are computed in float, and every solution of the float
+ * substitutions is refined: the residual {@code B - A X} is computed in double from A and the solution held in
+ * double, the correction is solved with the float factors and added to the solution, until the corrections fall
+ * far below the precision of float. This gives results of double quality at the cost of the float factorization
+ * and a few O(n^2) steps per right-hand side. If the corrections stop shrinking before that, A is too
+ * ill-conditioned for the float factors, and the system is solved again with a factorization in double. Systems
+ * with more than one right-hand side per {@link #ROWS_PER_REFINED_COLUMN} rows, such as the inverse, are solved
+ * with a factorization in double right away, as the refinement of all columns would take longer. The determinant,
+ * a product of the pivots that cannot be refined, is likewise computed from a factorization in double.
+ * The echelon forms and the rank use float factors for mixed, as refinement applies to linear systems only.
+ * Mixed is the default, so that small inputs with exact results, such as the inverse of an integer matrix with a
+ * determinant of 1, are printed without the rounding errors of float32.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.security.InvalidParameterException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public final class LUDecomposition {
+    /** Number of columns of a panel eliminated before the trailing rows are updated */
+    static final int PANEL = 64;
+    /** Number of columns of the trailing rows updated together, so that the pivot rows stay in the cache */
+    private static final int COLUMN_BLOCK = 512;
+    /** Maximal number of rows updated by one task */
+    private static final int ROW_BLOCK = 64;
+    /** Number of columns of the right-hand sides and the echelon form processed together */
+    private static final int SLAB = 128;
+    /** Number of columns of the right-hand sides below which they are substituted one column at a time */
+    private static final int NARROW = 4;
+    /** Minimal number of rows per right-hand side for which mixed precision refines, double factors are faster */
+    private static final int ROWS_PER_REFINED_COLUMN = 32;
+    /** Maximal number of refinement steps of a mixed precision solution */
+    private static final int MAX_REFINEMENTS = 10;
+    /** Size of a correction relative to the solution below which a mixed precision solution is accurate */
+    private static final double CONVERGED = 0x1p-30;
+    /** Size of a correction relative to the solution below which a refinement that stopped converging is accepted */
+    private static final double STAGNATED = 0x1p-24;
+
+    /** Precision used when none is given explicitly */
+    private static volatile Precision defaultPrecision = Precision.mixed;
+
+    /** Number of rows of the factored matrix */
+    final int rows;
+    /** Number of columns of the factored matrix */
+    final int cols;
+    /** Precision of the arithmetic of the factorization and its solutions */
+    private final Precision precision;
+    /** L below the pivots without its unit diagonal, U on and right of the pivots, row-major */
+    private final ElementArray lu;
+    /** The factored matrix backed by an array, kept for the residuals of mixed precision, null otherwise */
+    private final Matrix matrix;
+    /** Number of bytes of the factored matrix held only by the factorization */
+    private final long matrixBytes;
+    /** Row i of P A is row permutation[i] of A */
+    private final int[] permutation;
+    /** Column of the pivot of every row of U that has one */
+    private final int[] pivotCols;
+    /** Number of pivots */
+    private final int rank;
+    /** Whether P is an odd permutation */
+    private final boolean oddPermutation;
+
+    /**
+     * Computes the exact factorization of a matrix in the default precision, skipping only columns without a
+     * non-zero pivot.
+     *
+     * @param A the matrix to factor
+     */
+    public LUDecomposition(Matrix A) {
+        this(A, defaultPrecision);
+    }
+
+    /**
+     * Computes the exact factorization of a matrix in the given precision, skipping only columns without a
+     * non-zero pivot.
+     *
+     * @param A the matrix to factor
+     * @param precision the precision of the factorization and its solutions
+     */
+    public LUDecomposition(Matrix A, Precision precision) {
+        this(A, 0, precision);
+    }
+
+    /**
+     * Computes the factorization of a matrix, skipping columns without a pivot larger than the tolerance.
+     *
+     * @param A the matrix to factor
+     * @param tolerance the largest absolute value treated as zero when looking for a pivot
+     * @param precision the precision of the factorization and its solutions
+     */
+    private LUDecomposition(Matrix A, float tolerance, Precision precision) {
+        rows = A.rows;
+        cols = A.cols;
+        this.precision = precision;
+        matrix = precision == Precision.mixed ? A.inMemory() : null;
+        matrixBytes = matrix != null && matrix != A ? matrix.heapSize() : 0;
+        lu = ElementArray.forFactors(precision, rows * cols);
+        load(matrix != null ? matrix : A instanceof TransposedMatrix ? A : A.inMemory());
+        permutation = new int[rows];
+        for (int i = 0; i < rows; i++)
+            permutation[i] = i;
+        pivotCols = new int[Math.min(rows, cols)];
+
+        boolean odd = false;
+        int row = 0;
+        for (int panel = 0; panel < cols && row < rows; panel += PANEL) {
+            checkInterrupted();
+            int panelEnd = Math.min(panel + PANEL, cols);
+            int first = row;
+            for (int col = panel; col < panelEnd && row < rows; col++) {
+                int pivotRow = row;
+                double max = Math.abs(lu.get(row * cols + col));
+                for (int i = row + 1; i < rows; i++) {
+                    double value = Math.abs(lu.get(i * cols + col));
+                    if (value > max) {
+                        max = value;
+                        pivotRow = i;
+                    }
+                }
+                if (max <= tolerance) {
+                    // no pivot in this column, its remaining values are treated as zeros
+                    for (int i = row; i < rows; i++)
+                        lu.set(i * cols + col, 0);
+                    continue;
+                }
+                if (pivotRow != row) {
+                    swapRows(row, pivotRow);
+                    odd = !odd;
+                }
+                eliminate(row, col, panelEnd);
+                pivotCols[row++] = col;
+            }
+            if (panelEnd < cols && row > first) {
+                updatePivotRows(first, row, panelEnd);
+                updateTrailingRows(first, row, panelEnd);
+            }
+        }
+        rank = row;
+        oddPermutation = odd;
+    }
+
+    /**
+     * Computes the factorization of a matrix with the tolerance {@code max(rows, cols) * ulp(1) * max|A|},
+     * as used for the rank and the echelon forms. It is computed in double for the default precision float64
+     * and in float otherwise.
+     *
+     * @param A the matrix to factor
+     * @return the factorization
+     */
+    static LUDecomposition withTolerance(Matrix A) {
+        if (!(A instanceof TransposedMatrix))
+            A = A.inMemory();
+        // a view has the values of its base
+        Matrix values = A instanceof TransposedMatrix view ? view.base : A;
+        float max = 0;
+        for (int i = 0; i < values.rows; i++)
+            for (int j = 0; j < values.cols; j++)
+                max = Math.max(max, Math.abs(values.data[i * values.stride + j]));
+        Precision precision = defaultPrecision == Precision.float64 ? Precision.float64 : Precision.float32;
+        return new LUDecomposition(A, Math.max(A.rows, A.cols) * Math.ulp(1f) * max, precision);
+    }
+
+    /**
+     * Sets the precision of the factorizations used by the matrix operations.
+     *
+     * @param precision the precision to use
+     */
+    public static void setDefaultPrecision(Precision precision) {
+        defaultPrecision = precision;
+    }
+
+    /**
+     * Returns the precision of the factorizations used by the matrix operations.
+     *
+     * @return the default precision
+     */
+    public static Precision getDefaultPrecision() {
+        return defaultPrecision;
+    }
+
+    /**
+     * Returns the precision of this factorization.
+     *
+     * @return the precision of the arithmetic of the factorization and its solutions
+     */
+    public Precision precision() {
+        return precision;
+    }
+
+    /**
+     * Stops the computation if the current thread is interrupted.
+     *
+     * @throws CancellationException if the current thread is interrupted
+     */
+    private static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted())
+            throw new CancellationException("Evaluation cancelled");
+    }
+
+    /**
+     * Copies the values of a dense matrix or of a transposed view into the factors. The rows of a view are
+     * copied {@link #PANEL} at a time by the blocked transpose, without a dense copy of the whole view.
+     */
+    private void load(Matrix A) {
+        if (A.data != null) {
+            for (int i = 0; i < rows; i++)
+                lu.copyFrom(A.data, i * A.stride, i * cols, cols);
+            return;
+        }
+        float[] block = new float[Math.min(rows, PANEL) * cols];
+        for (int row = 0; row < rows; row += PANEL) {
+            int height = Math.min(PANEL, rows - row);
+            A.copyBlock(row, 0, height, cols, block);
+            lu.copyFrom(block, 0, row * cols, height * cols);
+        }
+    }
+
+    /**
+     * Swaps two rows of the factorization and of the permutation.
+     */
+    private void swapRows(int row1, int row2) {
+        lu.swap(row1 * cols, row2 * cols, cols);
+        int temp = permutation[row1];
+        permutation[row1] = permutation[row2];
+        permutation[row2] = temp;
+    }
+
+    /**
+     * Eliminates the values below the pivot at the given row and column, storing the multipliers in their place.
+     * Only the columns of the panel, up to the given end, are updated.
+     */
+    private void eliminate(int row, int col, int panelEnd) {
+        double pivot = lu.get(row * cols + col);
+        int length = panelEnd - col - 1;
+        for (int i = row + 1; i < rows; i++) {
+            lu.set(i * cols + col, lu.get(i * cols + col) / pivot);
+            double factor = lu.get(i * cols + col);
+            if (factor != 0)
+                lu.multiplyAdd(-factor, lu, row * cols + col + 1, i * cols + col + 1, length);
+        }
+    }
+
+    /**
+     * Applies the pivots of a panel to the part of its own pivot rows right of the panel, completing these rows of U.
+     *
+     * @param first the first pivot row of the panel
+     * @param last the row after the last pivot row of the panel
+     * @param from the first column right of the panel
+     */
+    private void updatePivotRows(int first, int last, int from) {
+        for (int p = first + 1; p < last; p++) {
+            for (int q = first; q < p; q++) {
+                double factor = lu.get(p * cols + pivotCols[q]);
+                if (factor != 0)
+                    lu.multiplyAdd(-factor, lu, q * cols + from, p * cols + from, cols - from);
+            }
+        }
+    }
+
+    /**
+     * Applies the pivots of a panel to the rows below it, right of the panel. The rows are split into blocks
+     * updated in parallel when the update is large enough.
+     *
+     * @param first the first pivot row of the panel
+     * @param last the row after the last pivot row of the panel
+     * @param from the first column right of the panel
+     */
+    private void updateTrailingRows(int first, int last, int from) {
+        long flops = 2L * (rows - last) * (last - first) * (cols - from);
+        if (rows - last > ROW_BLOCK && ComputePool.useParallel(flops))
+            ComputePool.pool().invoke(new TrailingUpdate(first, last, from, last, rows));
+        else
+            updateRows(first, last, from, last, rows);
+    }
+
+    /**
+     * Applies the pivots of a panel to the rows {@code rowStart} to {@code rowEnd - 1} right of the panel, one
+     * block of columns at a time. Four rows are updated together unless one of them has a zero multiplier.
+     */
+    private void updateRows(int first, int last, int from, int rowStart, int rowEnd) {
+        for (int jj = from; jj < cols; jj += COLUMN_BLOCK) {
+            int width = Math.min(COLUMN_BLOCK, cols - jj);
+            int i = rowStart;
+            for (; i + 3 < rowEnd; i += 4) {
+                int offset = i * cols;
+                for (int q = first; q < last; q++) {
+                    int col = pivotCols[q];
+                    double factor0 = lu.get(offset + col);
+                    double factor1 = lu.get(offset + cols + col);
+                    double factor2 = lu.get(offset + 2 * cols + col);
+                    double factor3 = lu.get(offset + 3 * cols + col);
+                    if (factor0 != 0 && factor1 != 0 && factor2 != 0 && factor3 != 0)
+                        lu.multiplyAdd4(-factor0, -factor1, -factor2, -factor3,
+                                lu, q * cols + jj, offset + jj, cols, width);
+                    else
+                        for (int k = 0; k < 4; k++)
+                            updateRow(q, i + k, jj, width);
+                }
+            }
+            for (; i < rowEnd; i++)
+                for (int q = first; q < last; q++)
+                    updateRow(q, i, jj, width);
+        }
+    }
+
+    /**
+     * Subtracts the multiple of a part of a pivot row given by the multiplier of another row from that row.
+     */
+    private void updateRow(int pivotRow, int row, int from, int width) {
+        double factor = lu.get(row * cols + pivotCols[pivotRow]);
+        if (factor != 0)
+            lu.multiplyAdd(-factor, lu, pivotRow * cols + from, row * cols + from, width);
+    }
+
+    /**
+     * Returns the number of pivots, which is the rank of the matrix.
+     *
+     * @return the rank
+     */
+    public int rank() {
+        return rank;
+    }
+
+    /**
+     * Returns whether the factored matrix is square and singular.
+     *
+     * @return {@code true} if the matrix is square and has fewer pivots than rows
+     */
+    public boolean isSingular() {
+        return rows == cols && rank < rows;
+    }
+
+    /**
+     * Checks that the factored matrix is square.
+     *
+     * @throws InvalidParameterException if the matrix is not square
+     */
+    private void checkSquare() {
+        if (rows != cols)
+            throw new InvalidParameterException("Matrix is not a square matrix");
+    }
+
+    /**
+     * Returns the determinant: the product of the pivots, negated for an odd permutation. For mixed precision the
+     * pivots are those of a factorization in double, as the product of the float pivots cannot be refined.
+     *
+     * @return the determinant of the matrix, 0 if it is singular
+     * @throws InvalidParameterException if the matrix is not square
+     */
+    public float determinant() {
+        checkSquare();
+        if (rank < rows)
+            return 0;
+        if (precision == Precision.mixed)
+            return new LUDecomposition(matrix, Precision.float64).determinant();
+        double determinant = oddPermutation ? -1 : 1;
+        for (int i = 0; i < rows; i++)
+            determinant *= lu.get(i * cols + i);
+        return (float) determinant;
+    }
+
+    /**
+     * Solves the linear system {@code A X = B} by forward and back substitution, refining the solution for
+     * mixed precision.
+     *
+     * @param B the right-hand sides, one per column
+     * @return the solution X
+     * @throws InvalidParameterException if A is not square, is singular or B does not have as many rows as A
+     */
+    public Matrix solve(Matrix B) {
+        checkSquare();
+        if (B.rows != rows)
+            throw new InvalidParameterException("Matrices do not have appropriate dimensions");
+        if (rank < rows)
+            throw new InvalidParameterException("Matrix is singular");
+        B = B.inMemory();
+        if (precision == Precision.mixed)
+            return refinedSolve(B);
+        int n = rows;
+        int width = B.cols;
+        float[] values = new float[n * width];
+        ElementArray x = precision == Precision.float64 ? ElementArray.doubles(n * width) : ElementArray.wrap(values);
+        for (int i = 0; i < n; i++)
+            x.copyFrom(B.data, permutation[i] * B.stride, i * width, width);
+        forEachSlab(width, 2L * n * n * width, (colStart, colEnd) -> substitute(x, width, colStart, colEnd));
+        if (precision == Precision.float64)
+            x.copyTo(0, values, 0, n * width);
+        return new Matrix(n, width, values);
+    }
+
+    /**
+     * Solves the linear system {@code A X = B} with the float factors and refines the solution in double.
+     * If the refinement does not converge for some slab of columns, or there are so many right-hand sides that
+     * refining them would take longer than a factorization in double, the system is solved with a factorization
+     * in double instead.
+     *
+     * @param B the right-hand sides backed by an array
+     * @return the solution X
+     */
+    private Matrix refinedSolve(Matrix B) {
+        int width = B.cols;
+        if ((long) width * ROWS_PER_REFINED_COLUMN > rows)
+            return new LUDecomposition(matrix, Precision.float64).solve(B);
+        float[] values = new float[rows * width];
+        AtomicBoolean failed = new AtomicBoolean();
+        forEachSlab(width, 6L * rows * rows * width, (colStart, colEnd) -> {
+            if (!failed.get() && !refine(B, values, width, colStart, colEnd))
+                failed.set(true);
+        });
+        if (failed.get())
+            return new LUDecomposition(matrix, Precision.float64).solve(B);
+        return new Matrix(rows, width, values);
+    }
+
+    /**
+     * Solves for the columns {@code colStart} to {@code colEnd - 1} of the right-hand sides with the float factors
+     * and refines the solution, one slab of columns at a time. Every step computes the residual {@code B - A X} in
+     * double, rounds it to float, solves for the correction with the factors and adds it to the solution held in
+     * double. The refinement of a slab ends when its largest correction is below {@link #CONVERGED} times its
+     * largest value. It fails if the corrections stop halving before reaching {@link #STAGNATED} times the largest
+     * value, or after {@link #MAX_REFINEMENTS} steps.
+     *
+     * @param B the right-hand sides backed by an array
+     * @param result the solution, its columns of the slabs are set
+     * @param width the number of columns of B and the solution
+     * @return whether the refinement converged for all slabs
+     */
+    private boolean refine(Matrix B, float[] result, int width, int colStart, int colEnd) {
+        int n = rows;
+        for (int jj = colStart; jj < colEnd; jj += SLAB) {
+            int length = Math.min(SLAB, colEnd - jj);
+            float[] values = new float[n * length];
+            ElementArray correction = ElementArray.wrap(values);
+            double[] solution = new double[n * length];
+            double[] residual = new double[n * length];
+            for (int i = 0; i < n; i++)
+                correction.copyFrom(B.data, permutation[i] * B.stride + jj, i * length, length);
+            substitute(correction, length, 0, length);
+            for (int index = 0; index < n * length; index++)
+                solution[index] = values[index];
+
+            double previous = Double.POSITIVE_INFINITY;
+            for (int step = 0; ; step++) {
+                if (step == MAX_REFINEMENTS)
+                    return false;
+                computeResidual(B, solution, residual, jj, length);
+                for (int index = 0; index < n * length; index++)
+                    values[index] = (float) residual[index];
+                substitute(correction, length, 0, length);
+                double largestCorrection = 0;
+                double largestValue = 0;
+                for (int index = 0; index < n * length; index++) {
+                    solution[index] += values[index];
+                    largestCorrection = Math.max(largestCorrection, Math.abs(values[index]));
+                    largestValue = Math.max(largestValue, Math.abs(solution[index]));
+                }
+                // once the corrections shrink, the error left is about the last one times their ratio
+                double ratio = step == 0 ? 1 : Math.min(1, largestCorrection / previous);
+                if (largestCorrection * ratio <= CONVERGED * largestValue)
+                    break;
+                if (largestCorrection > previous / 2) {
+                    if (largestCorrection <= STAGNATED * largestValue)
+                        break;
+                    return false;
+                }
+                previous = largestCorrection;
+            }
+            for (int i = 0; i < n; i++)
+                for (int j = 0; j < length; j++)
+                    result[i * width + jj + j] = (float) solution[i * length + j];
+        }
+        return true;
+    }
+
+    /**
+     * Computes the residual {@code B - A X} of a slab of columns in double, with its rows permuted by P, so that it
+     * can be substituted directly. Four rows of the residual are updated together unless one of them has a zero
+     * value of A; a slab of few columns is computed value by value instead.
+     *
+     * @param B the right-hand sides backed by an array
+     * @param solution the solution of the slab, row-major with {@code length} columns
+     * @param residual the permuted residual of the slab, row-major with {@code length} columns
+     * @param from the first column of the slab in B
+     * @param length the number of columns of the slab
+     */
+    private void computeResidual(Matrix B, double[] solution, double[] residual, int from, int length) {
+        int n = rows;
+        float[] a = matrix.data;
+        if (length < NARROW) {
+            for (int i = 0; i < n; i++) {
+                int offset = permutation[i] * matrix.stride;
+                for (int j = 0; j < length; j++) {
+                    double value = B.data[permutation[i] * B.stride + from + j];
+                    for (int k = 0; k < n; k++)
+                        value -= a[offset + k] * solution[k * length + j];
+                    residual[i * length + j] = value;
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < n; i++)
+            for (int j = 0; j < length; j++)
+                residual[i * length + j] = B.data[permutation[i] * B.stride + from + j];
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            int offset0 = permutation[i] * matrix.stride;
+            int offset1 = permutation[i + 1] * matrix.stride;
+            int offset2 = permutation[i + 2] * matrix.stride;
+            int offset3 = permutation[i + 3] * matrix.stride;
+            for (int k = 0; k < n; k++) {
+                float value0 = a[offset0 + k];
+                float value1 = a[offset1 + k];
+                float value2 = a[offset2 + k];
+                float value3 = a[offset3 + k];
+                if (value0 != 0 && value1 != 0 && value2 != 0 && value3 != 0) {
+                    RowKernels.multiplyAdd4(-value0, -value1, -value2, -value3, solution, k * length,
+                            residual, i * length, length, length);
+                    continue;
+                }
+                for (int row = i; row < i + 4; row++) {
+                    float value = a[permutation[row] * matrix.stride + k];
+                    if (value != 0)
+                        RowKernels.multiplyAdd(-value, solution, k * length, residual, row * length, length);
+                }
+            }
+        }
+        for (; i < n; i++) {
+            int offset = permutation[i] * matrix.stride;
+            for (int k = 0; k < n; k++) {
+                float value = a[offset + k];
+                if (value != 0)
+                    RowKernels.multiplyAdd(-value, solution, k * length, residual, i * length, length);
+            }
+        }
+    }
+
+    /**
+     * Solves for the columns {@code colStart} to {@code colEnd - 1} of the right-hand sides permuted by P,
+     * one slab of columns at a time. The rows are substituted in blocks of four: the rows solved before the block
+     * are subtracted from all four rows together, then the block is solved row by row. Forward substitution
+     * subtracts the solved rows in increasing order, back substitution in decreasing order.
+     *
+     * @param x the permuted right-hand sides, replaced by the solution
+     * @param width the number of columns of x
+     */
+    private void substitute(ElementArray x, int width, int colStart, int colEnd) {
+        int n = rows;
+        for (int jj = colStart; jj < colEnd; jj += SLAB) {
+            checkInterrupted();
+            int length = Math.min(SLAB, colEnd - jj);
+            if (length < NARROW) {
+                substituteColumns(x, width, jj, length);
+                continue;
+            }
+            // L Y = P B
+            for (int i = 0; i < n; i += 4) {
+                int end = Math.min(i + 4, n);
+                for (int k = 0; k < i; k++)
+                    subtractSolved(x, width, jj, length, i, end, k);
+                for (int row = i + 1; row < end; row++)
+                    for (int k = i; k < row; k++)
+                        subtractSolved(x, width, jj, length, row, row + 1, k);
+            }
+            // U X = Y
+            for (int end = n; end > 0; end -= 4) {
+                int i = Math.max(end - 4, 0);
+                for (int k = n - 1; k >= end; k--)
+                    subtractSolved(x, width, jj, length, i, end, k);
+                for (int row = end - 1; row >= i; row--) {
+                    for (int k = end - 1; k > row; k--)
+                        subtractSolved(x, width, jj, length, row, row + 1, k);
+                    x.divide(row * width + jj, length, lu.get(row * n + row));
+                }
+            }
+        }
+    }
+
+    /**
+     * Solves for a few columns of the permuted right-hand sides one column at a time, subtracting all solved values
+     * from a value in one loop over a row of L or U. The values are updated in the same order as by the substitution
+     * in blocks of rows, so the results are the same, without the cost of many calls on very short runs.
+     *
+     * @param x the permuted right-hand sides, replaced by the solution
+     * @param width the number of columns of x
+     * @param from the first column to solve for
+     * @param length the number of columns to solve for
+     */
+    private void substituteColumns(ElementArray x, int width, int from, int length) {
+        int n = rows;
+        for (int j = from; j < from + length; j++) {
+            // L Y = P B
+            for (int i = 1; i < n; i++)
+                x.subtractProducts(i * width + j, lu, i * n, 1, j, width, i);
+            // U X = Y
+            for (int row = n - 1; row >= 0; row--) {
+                x.subtractProducts(row * width + j, lu, row * n + n - 1, -1, (n - 1) * width + j, -width,
+                        n - 1 - row);
+                x.divide(row * width + j, 1, lu.get(row * n + row));
+            }
+        }
+    }
+
+    /**
+     * Subtracts the multiples of the solved row k given by L or U from the rows {@code rowStart} to
+     * {@code rowEnd - 1}, at most four, in the columns {@code from} to {@code from + length - 1} of x.
+     * Four rows are updated together unless one of them has a zero multiplier.
+     */
+    private void subtractSolved(ElementArray x, int width, int from, int length, int rowStart, int rowEnd, int k) {
+        int n = rows;
+        if (rowEnd - rowStart == 4) {
+            double factor0 = lu.get(rowStart * n + k);
+            double factor1 = lu.get((rowStart + 1) * n + k);
+            double factor2 = lu.get((rowStart + 2) * n + k);
+            double factor3 = lu.get((rowStart + 3) * n + k);
+            if (factor0 != 0 && factor1 != 0 && factor2 != 0 && factor3 != 0) {
+                x.multiplyAdd4(-factor0, -factor1, -factor2, -factor3,
+                        x, k * width + from, rowStart * width + from, width, length);
+                return;
+            }
+        }
+        for (int row = rowStart; row < rowEnd; row++) {
+            double factor = lu.get(row * n + k);
+            if (factor != 0)
+                x.multiplyAdd(-factor, x, k * width + from, row * width + from, length);
+        }
+    }
+
+    /**
+     * Returns the inverse, computed by solving against the identity matrix.
+     *
+     * @return the inverse of the matrix
+     * @throws InvalidParameterException if the matrix is not square or is singular
+     */
+    public Matrix inverse() {
+        checkSquare();
+        return solve(Matrix.identityMatrix(rows));
+    }
+
+    /**
+     * Returns U, a row echelon form of the factored matrix.
+     *
+     * @return the row echelon form
+     */
+    Matrix upper() {
+        float[] upper = new float[rows * cols];
+        for (int r = 0; r < rank; r++) {
+            int offset = r * cols + pivotCols[r];
+            lu.copyTo(offset, upper, offset, cols - pivotCols[r]);
+        }
+        return new Matrix(rows, cols, upper);
+    }
+
+    /**
+     * Returns the reduced row echelon form, computed from U by scaling every pivot to one and eliminating the
+     * values above the pivots, from the last pivot up. The values above a pivot are not changed by the pivots
+     * below it, so they are read from U up front and the columns are reduced in independent slabs.
+     *
+     * @return the reduced row echelon form
+     */
+    Matrix reducedEchelon() {
+        Matrix upper = upper();
+        float[] u = upper.data;
+        float[] above = new float[rank * rank];
+        for (int i = 0; i < rank; i++)
+            for (int r = i; r < rank; r++)
+                above[i * rank + r] = u[i * cols + pivotCols[r]];
+        ElementArray values = ElementArray.wrap(u);
+        forEachSlab(cols, (long) rank * rank * cols, (colStart, colEnd) -> reduce(values, above, colStart, colEnd));
+        return upper;
+    }
+
+    /**
+     * Reduces the columns {@code colStart} to {@code colEnd - 1} of U, one slab of columns at a time.
+     *
+     * @param u the values of U, replaced by the reduced row echelon form
+     * @param above the values of U above and at the pivots, {@code above[i * rank + r]} in row i above pivot r
+     */
+    private void reduce(ElementArray u, float[] above, int colStart, int colEnd) {
+        for (int jj = colStart; jj < colEnd; jj += SLAB) {
+            int slabEnd = Math.min(jj + SLAB, colEnd);
+            for (int r = rank - 1; r >= 0; r--) {
+                int start = Math.max(jj, pivotCols[r]);
+                if (start >= slabEnd)
+                    continue;
+                u.divide(r * cols + start, slabEnd - start, above[r * rank + r]);
+                for (int i = 0; i < r; i++) {
+                    float factor = above[i * rank + r];
+                    if (factor != 0)
+                        u.multiplyAdd(-factor, u, r * cols + start, i * cols + start, slabEnd - start);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the arrays of the factorization.
+     *
+     * @return the number of bytes held by the factorization
+     */
+    long heapSize() {
+        return lu.heapSize() + 4L * (permutation.length + pivotCols.length) + matrixBytes;
+    }
+
+    /**
+     * Runs an action on the columns {@code 0} to {@code width - 1}, split into slabs processed in parallel when the
+     * work is large enough.
+     *
+     * @param width the number of columns
+     * @param flops the estimated number of floating point operations of all columns
+     * @param action the action on a range of columns
+     */
+    private void forEachSlab(int width, long flops, SlabAction action) {
+        if (width > SLAB && ComputePool.useParallel(flops))
+            ComputePool.pool().invoke(new SlabTask(action, 0, width));
+        else
+            action.run(0, width);
+    }
+
+    /**
+     * An action on the columns {@code colStart} to {@code colEnd - 1}, independent of the other columns.
+     */
+    @FunctionalInterface
+    private interface SlabAction {
+        void run(int colStart, int colEnd);
+    }
+
+    /**
+     * A fork-join task applying the pivots of a panel to a block of trailing rows. Blocks larger than
+     * {@link #ROW_BLOCK} rows are split in half.
+     */
+    private final class TrailingUpdate extends RecursiveAction {
+        private final int first;
+        private final int last;
+        private final int from;
+        private final int rowStart;
+        private final int rowEnd;
+
+        TrailingUpdate(int first, int last, int from, int rowStart, int rowEnd) {
+            this.first = first;
+            this.last = last;
+            this.from = from;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+        }
+
+        @Override
+        protected void compute() {
+            if (rowEnd - rowStart <= ROW_BLOCK) {
+                updateRows(first, last, from, rowStart, rowEnd);
+                return;
+            }
+            int middle = rowStart + (rowEnd - rowStart) / 2;
+            invokeAll(new TrailingUpdate(first, last, from, rowStart, middle),
+                    new TrailingUpdate(first, last, from, middle, rowEnd));
+        }
+    }
+
+    /**
+     * A fork-join task processing a block of columns, such as substituting right-hand sides or reducing U.
+     * Blocks larger than one {@link #SLAB} are split in half.
+     */
+    private static final class SlabTask extends RecursiveAction {
+        private final SlabAction action;
+        private final int colStart;
+        private final int colEnd;
+
+        SlabTask(SlabAction action, int colStart, int colEnd) {
+            this.action = action;
+            this.colStart = colStart;
+            this.colEnd = colEnd;
+        }
+
+        @Override
+        protected void compute() {
+            if (colEnd - colStart <= SLAB) {
+                action.run(colStart, colEnd);
+                return;
+            }
+            // split on a slab boundary, so that the slabs do not depend on the splitting
+            int middle = colStart + (colEnd - colStart + SLAB - 1) / SLAB / 2 * SLAB;
+            invokeAll(new SlabTask(action, colStart, middle), new SlabTask(action, middle, colEnd));
+        }
+    }
+}
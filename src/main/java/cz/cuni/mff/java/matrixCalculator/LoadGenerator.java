@@ -0,0 +1,184 @@
+/**
+ * The LoadGenerator class measures the throughput and latency of a MatrixServer. A number of clients, each on its own
+ * virtual thread, send the same request one after another for a given time; requests finishing during the warm-up
+ * are not counted. Afterwards the number of requests per second and the percentiles of the latencies are printed.
+ * Without a URL, a server is started in the same process on a free port of the loopback address.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public final class LoadGenerator {
+    /** Percentiles of the latencies reported */
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private LoadGenerator() {
+    }
+
+    /**
+     * Runs the load generator.
+     *
+     * @param args accepts the optional arguments "url=URL", "clients=N", "seconds=S", "warmup=S", "size=N" and
+     *             "expression=EXPRESSION".
+     *             "url=URL" is the evaluation endpoint, by default a server started in this process.
+     *             "clients=N" is the number of concurrent clients, 16 by default.
+     *             "seconds=S" is the measured time in seconds, 10 by default.
+     *             "warmup=S" is the time in seconds before the measurement, 2 by default.
+     *             "size=N" is the size of the random square matrices of the default expression
+     *             {@code inverse A * B}, 8 by default.
+     *             "expression=EXPRESSION" replaces the default expression.
+     * @throws Exception if the server cannot be started or a client fails
+     */
+    public static void main(String[] args) throws Exception {
+        String url = null;
+        int clients = 16;
+        double seconds = 10;
+        double warmup = 2;
+        int size = 8;
+        String expression = null;
+        for (String arg : args) {
+            if (arg.startsWith("url="))
+                url = arg.substring("url=".length());
+            else if (arg.startsWith("clients="))
+                clients = Integer.parseInt(arg.substring("clients=".length()));
+            else if (arg.startsWith("seconds="))
+                seconds = Double.parseDouble(arg.substring("seconds=".length()));
+            else if (arg.startsWith("warmup="))
+                warmup = Double.parseDouble(arg.substring("warmup=".length()));
+            else if (arg.startsWith("size="))
+                size = Integer.parseInt(arg.substring("size=".length()));
+            else if (arg.startsWith("expression="))
+                expression = arg.substring("expression=".length());
+            else
+                throw new IllegalArgumentException("Illegal argument");
+        }
+        if (expression == null)
+            expression = "inverse " + randomMatrix(size, 1) + " * " + randomMatrix(size, 2);
+
+        MatrixServer server = null;
+        if (url == null) {
+            server = new MatrixServer(0, 30_000, Runtime.getRuntime().maxMemory() / 4, 0,
+                    Runtime.getRuntime().maxMemory() / 16);
+            server.start();
+            url = "http://127.0.0.1:" + server.getPort() + "/evaluate";
+        }
+        try {
+            run(URI.create(url), expression, clients, warmup, seconds);
+        } finally {
+            if (server != null)
+                server.stop();
+        }
+    }
+
+    /**
+     * Sends the expression from the given number of clients and prints the throughput and latencies.
+     */
+    private static void run(URI uri, String expression, int clients, double warmup, double seconds)
+            throws Exception {
+        HttpClient client = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .header("Content-Type", "text/plain")
+                .POST(HttpRequest.BodyPublishers.ofString(expression))
+                .build();
+        long start = System.nanoTime();
+        long measureFrom = start + (long) (warmup * 1e9);
+        long end = measureFrom + (long) (seconds * 1e9);
+
+        List<Future<Latencies>> results = new ArrayList<>();
+        try (var threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++)
+                results.add(threads.submit(() -> send(client, request, measureFrom, end)));
+        }
+        Latencies all = new Latencies();
+        for (Future<Latencies> result : results)
+            all.addAll(result.get());
+        long[] latencies = all.sorted();
+        System.out.printf("%d requests in %.1f s from %d clients: %.1f requests/s, %d errors%n",
+                latencies.length, seconds, clients, latencies.length / seconds, all.errors);
+        if (latencies.length == 0)
+            return;
+        StringBuilder percentiles = new StringBuilder("latency ms:");
+        for (double percentile : PERCENTILES) {
+            int index = (int) Math.min(latencies.length - 1, Math.ceil(percentile / 100 * latencies.length) - 1);
+            percentiles.append(String.format(" p%s %.3f,", trim(percentile), latencies[Math.max(index, 0)] / 1e6));
+        }
+        percentiles.append(String.format(" max %.3f", latencies[latencies.length - 1] / 1e6));
+        System.out.println(percentiles);
+    }
+
+    /**
+     * Sends the request repeatedly until the end, recording the latencies of the requests finished after
+     * the warm-up.
+     */
+    private static Latencies send(HttpClient client, HttpRequest request, long measureFrom, long end)
+            throws IOException, InterruptedException {
+        Latencies latencies = new Latencies();
+        while (true) {
+            long sent = System.nanoTime();
+            if (sent >= end)
+                return latencies;
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            long received = System.nanoTime();
+            if (received < measureFrom || received >= end)
+                continue;
+            if (response.statusCode() == 200)
+                latencies.add(received - sent);
+            else
+                latencies.errors++;
+        }
+    }
+
+    private static String randomMatrix(int size, long seed) {
+        Random random = new Random(seed);
+        StringBuilder matrix = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                matrix.append(';');
+            for (int j = 0; j < size; j++)
+                matrix.append(' ').append(random.nextInt(19) - 9);
+        }
+        return matrix.append(']').toString();
+    }
+
+    private static String trim(double percentile) {
+        return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+    }
+
+    /**
+     * The latencies in nanoseconds and the number of failed requests of a client.
+     */
+    private static final class Latencies {
+        private long[] values = new long[1024];
+        private int size = 0;
+        private long errors = 0;
+
+        void add(long latency) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, 2 * size);
+            values[size++] = latency;
+        }
+
+        void addAll(Latencies other) {
+            for (int i = 0; i < other.size; i++)
+                add(other.values[i]);
+            errors += other.errors;
+        }
+
+        long[] sorted() {
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -1,13 +1,26 @@
 /**
  * The Main class contains the main method to run the Matrix Library command-line interface.
  * This class reads user input from the console, passes it to the CommandLineInput class for evaluation,
- * and prints the resulting matrix to the console. If an error occurs during input evaluation, an error message
- * is printed to the console.
+ * and prints the resulting matrix to the console, or to a file, through a {@link MatrixWriter} in text or binary
+ * form. If an error occurs during input evaluation, an error message is printed to the console. In batch mode, the
+ * lines of a file are evaluated by a BatchEvaluator instead, and in server mode, expressions are received over HTTP
+ * by a MatrixServer.
  */
 
 package cz.cuni.mff.java.matrixCalculator;
 
-import java.security.InvalidParameterException;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Objects;
 import java.util.Scanner;
 
@@ -16,43 +29,282 @@ public class Main {
      * The main method of the Matrix Library command-line interface.
      * This method reads user input from the console, passes it to the CommandLineInput class for evaluation,
      * and prints the resulting matrix to the console. If an error occurs during input evaluation, an error message is printed
-     * to the console. "^Q" and "^q" terminate the program.
+     * to the console. "^Q" and "^q" terminate the program, "vars" lists the variables bound by assignments
+     * and "cache" shows the hits and misses of the result cache. Results of saves are reported by their
+     * dimensions instead of being printed.
      *
-     * @param args accepts one optional argument "brackets".
-     *             If the argument is present, all matrix results are printed in the same format as the input
+     * @param args accepts the optional arguments "brackets", "binary", "threads=N", "multiplication=ALGORITHM",
+     *             "precision=PRECISION", "reorder=BOOLEAN", "variables=MB", "cache=MB", "memory=MB",
+     *             "scratch=DIRECTORY", "sparse=DENSITY", "batch=FILE", "output=FILE", "server=PORT", "timeout=MS"
+     *             and "body=MB".
+     *             If "brackets" is present, all matrix results are printed in the same format as the input.
+     *             If "binary" is present, matrix results are written in the binary format of MatrixFile instead of
+     *             text, and the other responses to the standard error output unless "output=FILE" is given.
+     *             "threads=N" sets the number of threads used by the parallel kernels, 1 turns them off.
+     *             "multiplication=ALGORITHM" selects classic, strassen or automatic multiplication.
+     *             "precision=PRECISION" selects float32, mixed or float64 arithmetic of inverses, determinants
+     *             and solutions, mixed by default.
+     *             "reorder=false" evaluates chains of multiplications in the order as written instead of the
+     *             cheapest order.
+     *             "variables=MB" sets the memory budget of the session variables in megabytes.
+     *             "cache=MB" sets the memory budget of the result cache in megabytes, 0 turns it off.
+     *             "memory=MB" sets the size in megabytes above which results are stored on disk.
+     *             "scratch=DIRECTORY" sets the directory of the files of matrices stored on disk.
+     *             "sparse=DENSITY" sets the share of non-zero values below which matrices are stored
+     *             in sparse form, 0 turns it off.
+     *             "batch=FILE" evaluates the lines of the file instead of the console input, on as many threads
+     *             as set by "threads=N", and writes the responses in the order of the lines to the file given by
+     *             "output=FILE", or to the console if it is not given.
+     *             "output=FILE" also writes the results of the console input to the file instead of the console.
+     *             "server=PORT" serves requests on the port of the loopback address until the process is ended.
+     *             "timeout=MS" sets the maximal time of the evaluation of a request in milliseconds, 30000 by default.
+     *             "body=MB" sets the maximal size of the body of a request in megabytes, a sixteenth of the maximal
+     *             heap size by default.
      */
     public static void main(String[] args) {
         // output uses matrix brackets
         boolean brackets = false;
+        // matrix results are written in binary form
+        boolean binary = false;
+        // memory budget of the session variables in bytes
+        long variablesBudget = Runtime.getRuntime().maxMemory() / 4;
+        // memory budget of the result cache in bytes
+        long cacheBudget = Runtime.getRuntime().maxMemory() / 8;
+        // file evaluated in batch mode, null for the console
+        Path batchInput = null;
+        // file the responses are written to, null for the console
+        Path output = null;
+        // port of the server mode, -1 for the console
+        int serverPort = -1;
+        // maximal time of the evaluation of a request in milliseconds
+        long timeout = 30_000;
+        // maximal size of the body of a request in bytes
+        long maxBody = Runtime.getRuntime().maxMemory() / 16;
 
         // determine, what kind of output the user wants
-        if (args.length == 1 && Objects.equals(args[0], "brackets"))
-            brackets = true;
-        else if (args.length > 1)
-            throw new IllegalArgumentException("Program takes at most only one argument");
-        else if (args.length > 0 && !Objects.equals(args[0], "brackets"))
-            throw new IllegalArgumentException("Illegal argument");
-
-        while (true) {
+        for (String arg : args) {
+            if (Objects.equals(arg, "brackets"))
+                brackets = true;
+            else if (Objects.equals(arg, "binary"))
+                binary = true;
+            else if (arg.startsWith("threads="))
+                ComputePool.setParallelism(Integer.parseInt(arg.substring("threads=".length())));
+            else if (arg.startsWith("variables="))
+                variablesBudget = Long.parseLong(arg.substring("variables=".length())) << 20;
+            else if (arg.startsWith("cache="))
+                cacheBudget = Long.parseLong(arg.substring("cache=".length())) << 20;
+            else if (arg.startsWith("memory="))
+                TiledMatrix.setMemoryBudget(Long.parseLong(arg.substring("memory=".length())) << 20);
+            else if (arg.startsWith("scratch="))
+                TiledMatrix.setScratchDirectory(Path.of(arg.substring("scratch=".length())));
+            else if (arg.startsWith("sparse="))
+                SparseMatrix.setDensityThreshold(Double.parseDouble(arg.substring("sparse=".length())));
+            else if (arg.startsWith("batch="))
+                batchInput = Path.of(arg.substring("batch=".length()));
+            else if (arg.startsWith("output="))
+                output = Path.of(arg.substring("output=".length()));
+            else if (arg.startsWith("server="))
+                serverPort = Integer.parseInt(arg.substring("server=".length()));
+            else if (arg.startsWith("timeout="))
+                timeout = Long.parseLong(arg.substring("timeout=".length()));
+            else if (arg.startsWith("body="))
+                maxBody = Long.parseLong(arg.substring("body=".length())) << 20;
+            else if (arg.startsWith("multiplication="))
+                MultiplicationKernel.setAlgorithm(MultiplicationAlgorithm.valueOf(arg.substring("multiplication=".length())));
+            else if (arg.startsWith("precision="))
+                LUDecomposition.setDefaultPrecision(Precision.valueOf(arg.substring("precision=".length())));
+            else if (Objects.equals(arg, "reorder=true") || Objects.equals(arg, "reorder=false"))
+                TermEvaluator.setReorderChains(Objects.equals(arg, "reorder=true"));
+            else
+                throw new IllegalArgumentException("Illegal argument");
+        }
+
+        if (binary && (serverPort >= 0 || batchInput != null))
+            throw new IllegalArgumentException("Binary output is only supported for the console input");
+
+        if (serverPort >= 0) {
             try {
-                Scanner input = new Scanner(System.in);
+                MatrixServer server = new MatrixServer(serverPort, timeout, variablesBudget, cacheBudget, maxBody);
+                server.start();
+                System.out.println("Listening on http://127.0.0.1:" + server.getPort());
+            } catch (IOException exception) {
+                System.out.println("Cannot start the server: " + exception.getMessage());
+            }
+            return;
+        }
+        Session session = new Session(variablesBudget, cacheBudget);
+        if (batchInput != null) {
+            var batch = new BatchEvaluator(session, brackets, ComputePool.getParallelism());
+            try (var reader = Files.newBufferedReader(batchInput);
+                 var writer = output == null ? new BufferedWriter(new OutputStreamWriter(System.out))
+                         : Files.newBufferedWriter(output)) {
+                batch.run(reader, writer);
+            } catch (IOException exception) {
+                System.out.println("Batch failed: " + exception.getMessage());
+            }
+            return;
+        }
+        Scanner input = new Scanner(System.in);
+        try (MatrixWriter results = output == null
+                ? new MatrixWriter(new FileOutputStream(FileDescriptor.out).getChannel(), System.out.charset())
+                : new MatrixWriter(FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING), StandardCharsets.UTF_8)) {
+            // the other responses must not be mixed into a binary stream
+            MatrixWriter messages = !binary ? results : output == null
+                    ? new MatrixWriter(Channels.newChannel(System.err), System.err.charset())
+                    : new MatrixWriter(Channels.newChannel(System.out), System.out.charset());
+            while (input.hasNextLine()) {
                 String data = input.nextLine();
-                if (Objects.equals(data, "^Q") || Objects.equals(data, "^q"))
+                if (isQuit(data))
                     return;
-                Matrix result = new CommandLineInput().evaluateTerm(data);
-                if (brackets)
-                    System.out.println(result.stringRepresentationWithBrackets());
-                else
-                    System.out.println(result);
-            } catch (InvalidParameterException invalidParameter) {
-                System.out.println(invalidParameter.getMessage());
-            } catch (IllegalArgumentException illegalArgument) {
-                System.out.println(illegalArgument.getMessage());
-            } catch (UnsupportedOperationException unsupportedOperation) {
-                System.out.println(unsupportedOperation.getMessage());
-            } catch (Exception exception) {
-                System.out.println("Inconsistent input");
+                print(evaluate(session, data), brackets, binary, results, messages);
+                results.flush();
+                messages.flush();
             }
+        } catch (IOException exception) {
+            System.out.println("Output failed: " + exception.getMessage());
+        }
+    }
+
+    /**
+     * Returns whether the line terminates the program.
+     *
+     * @param data the line of input
+     * @return true for "^Q" and "^q"
+     */
+    static boolean isQuit(String data) {
+        return Objects.equals(data, "^Q") || Objects.equals(data, "^q");
+    }
+
+    /**
+     * Returns whether the line is a command showing the state of the session rather than an expression.
+     *
+     * @param data the line of input
+     * @return true for "vars", "cache", "stats" and "stats reset"
+     */
+    static boolean isCommand(String data) {
+        String command = data.trim();
+        return Objects.equals(command, "vars") || Objects.equals(command, "cache")
+                || Objects.equals(command, "stats") || Objects.equals(command, "stats reset");
+    }
+
+    /**
+     * Evaluates one line of input and returns the text printed for it: the result matrix, the dimensions of an
+     * assigned or saved result, the output of a command, or the message of an error.
+     *
+     * @param session the Session holding the variables and the result cache
+     * @param data the line of input
+     * @param brackets whether matrices are printed in the same format as the input
+     * @return the response to the line, printed followed by a line separator
+     */
+    static String respond(Session session, String data, boolean brackets) {
+        Response response = evaluate(session, data);
+        if (response.result() == null)
+            return response.text();
+        try {
+            OperationStats.Timer timer = OperationStats.start();
+            String text = MatrixWriter.format(response.result(), brackets);
+            timer.stop("format", OperationStats.Shape.of(response.result(), null), 0);
+            return text;
+        } catch (Exception exception) {
+            return message(exception);
+        }
+    }
+
+    /**
+     * Evaluates one line of input.
+     *
+     * @param session the Session holding the variables and the result cache
+     * @param data the line of input
+     * @return the result matrix to be printed, or the text printed instead of it: the dimensions of an assigned or
+     *         saved result, the output of a command, or the message of an error
+     */
+    static Response evaluate(Session session, String data) {
+        try {
+            if (Objects.equals(data.trim(), "vars"))
+                return Response.of(session.describe());
+            if (Objects.equals(data.trim(), "cache"))
+                return Response.of(session.getResultCache().describe());
+            if (Objects.equals(data.trim(), "stats"))
+                return Response.of(OperationStats.describe());
+            if (Objects.equals(data.trim(), "stats reset")) {
+                OperationStats.reset();
+                return Response.of("Statistics cleared");
+            }
+            CommandLineInput commandLineInput = new CommandLineInput(session);
+            Matrix result = commandLineInput.evaluateTerm(data);
+            if (commandLineInput.getAssignedName() != null)
+                return Response.of(commandLineInput.getAssignedName() + " = " + result.rows + "x" + result.cols);
+            else if (commandLineInput.getSavedPath() != null)
+                return Response.of(result.rows + "x" + result.cols + " saved to " + commandLineInput.getSavedPath());
+            return new Response(result, null);
+        } catch (Exception exception) {
+            return Response.of(message(exception));
+        }
+    }
+
+    /**
+     * Writes the response to a line of input followed by a line separator, a result matrix in binary form without
+     * one.
+     *
+     * @param response the response to write
+     * @param brackets whether matrices are printed in the same format as the input
+     * @param binary whether matrices are written in binary form
+     * @param results the writer of the result matrices
+     * @param messages the writer of the other responses
+     * @throws IOException if a writer fails
+     */
+    private static void print(Response response, boolean brackets, boolean binary, MatrixWriter results,
+                              MatrixWriter messages) throws IOException {
+        if (response.result() == null) {
+            messages.write(response.text());
+            messages.newLine();
+            return;
+        }
+        OperationStats.Timer timer = OperationStats.start();
+        try {
+            if (binary)
+                results.binary(response.result());
+            else {
+                results.text(response.result(), brackets);
+                results.newLine();
+            }
+        } catch (RuntimeException exception) {
+            messages.write(message(exception));
+            messages.newLine();
+        }
+        timer.stop("format", OperationStats.Shape.of(response.result(), null), 0);
+    }
+
+    /**
+     * Returns the message printed for an exception thrown by the evaluation of a line.
+     *
+     * @param exception the exception
+     * @return the message of invalid input, unsupported operations and failed file accesses,
+     *         "Inconsistent input" for other exceptions
+     */
+    private static String message(Exception exception) {
+        if (exception instanceof IllegalArgumentException || exception instanceof UnsupportedOperationException
+                || exception instanceof UncheckedIOException)
+            return exception.getMessage();
+        return "Inconsistent input";
+    }
+
+    /**
+     * The response to a line of input: either the result matrix to be printed or the text printed instead.
+     *
+     * @param result the result matrix, or null
+     * @param text the text, or null if there is a result matrix
+     */
+    record Response(Matrix result, String text) {
+        /**
+         * Returns a response of text only.
+         *
+         * @param text the text
+         * @return the response
+         */
+        static Response of(String text) {
+            return new Response(null, text);
         }
     }
-}
\ No newline at end of file
+}
@@ -8,7 +8,21 @@ import java.security.InvalidParameterException;
 import java.util.Arrays;
 
 public class Matrix {
-    float[][] matrix;
+    /** Number of rows of a transposed operand copied at a time by the element-wise operations */
+    private static final int ROW_BLOCK = 64;
+
+    /** Row-major backing store of the matrix values */
+    float[] data;
+    /** Number of rows of the matrix */
+    int rows;
+    /** Number of columns of the matrix */
+    int cols;
+    /** Distance in {@code data} between the first elements of two consecutive rows */
+    int stride;
+    /** Whether the values of the matrix may no longer be changed */
+    private volatile boolean immutable = false;
+    /** Cached content hash of an immutable matrix, 0 if not computed yet */
+    private int hash = 0;
 
     /**
      * Constructs a Matrix object with a given 2D array of floats
@@ -24,7 +38,12 @@ public class Matrix {
                 throw new InvalidParameterException("The input matrix does not have appropriate dimensions");
             }
         }
-        matrix = inputMatrix;
+        this.rows = row;
+        this.cols = col;
+        this.stride = col;
+        this.data = new float[row * col];
+        for (int i = 0; i < row; i++)
+            System.arraycopy(inputMatrix[i], 0, data, i * col, col);
     }
 
     /**
@@ -33,13 +52,83 @@ public class Matrix {
      * @param matrix A Matrix object to copy
      */
     public Matrix(Matrix matrix) {
-        int row = matrix.getSize()[0];
-        int col = matrix.getSize()[1];
-        this.matrix = new float[row][col];
+        matrix = matrix.inMemory();
+        this.rows = matrix.rows;
+        this.cols = matrix.cols;
+        this.stride = matrix.cols;
+        this.data = new float[rows * cols];
+
+        if (matrix.stride == cols)
+            System.arraycopy(matrix.data, 0, data, 0, rows * cols);
+        else
+            for (int i = 0; i < rows; i++)
+                System.arraycopy(matrix.data, i * matrix.stride, data, i * cols, cols);
+    }
 
-        for (int i = 0; i < row; i++)
-            for (int j = 0; j < col; j++)
-                this.matrix[i][j] = matrix.getValue(i,j);
+    /**
+     * Constructs a Matrix object directly over a row-major array without copying it.
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param data the row-major values, at least {@code rows * cols} long
+     * @throws InvalidParameterException if the dimensions are not positive or the array is too short
+     */
+    Matrix(int rows, int cols, float[] data) {
+        if (rows <= 0 || cols <= 0 || data.length < rows * cols)
+            throw new InvalidParameterException("The input matrix does not have appropriate dimensions");
+        this.rows = rows;
+        this.cols = cols;
+        this.stride = cols;
+        this.data = data;
+    }
+
+    /**
+     * Constructs a Matrix object of the given dimensions whose values are stored by a subclass.
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @throws InvalidParameterException if the dimensions are not positive
+     */
+    Matrix(int rows, int cols) {
+        if (rows <= 0 || cols <= 0)
+            throw new InvalidParameterException("The input matrix does not have appropriate dimensions");
+        this.rows = rows;
+        this.cols = cols;
+        this.stride = cols;
+        this.data = null;
+    }
+
+    /**
+     * Returns this matrix with its values in {@code data}, copying the values of a matrix stored elsewhere
+     * to the heap.
+     *
+     * @return a matrix with the same values backed by {@code data}
+     */
+    Matrix inMemory() {
+        return this;
+    }
+
+    /**
+     * Returns the number of bytes of the values of this matrix held on the heap.
+     *
+     * @return the number of bytes of {@code data} used by the matrix
+     */
+    long heapSize() {
+        return 4L * rows * cols;
+    }
+
+    /**
+     * Copies a block of this matrix into a compact row-major array.
+     *
+     * @param row the first row of the block
+     * @param col the first column of the block
+     * @param height the number of rows of the block
+     * @param width the number of columns of the block
+     * @param out the array receiving the {@code height * width} values of the block
+     */
+    void copyBlock(int row, int col, int height, int width, float[] out) {
+        for (int i = 0; i < height; i++)
+            System.arraycopy(data, (row + i) * stride + col, out, i * width, width);
     }
 
     /**
@@ -48,7 +137,7 @@ public class Matrix {
      * @return An integer array containing the number of rows and columns, respectively
      */
     public int[] getSize() {
-        return new int[]{matrix.length, matrix[0].length};
+        return new int[]{rows, cols};
     }
 
     /**
@@ -59,29 +148,49 @@ public class Matrix {
      * @return The float value at the specified row and column
      */
     public float getValue(int row, int col) {
-        return matrix[row][col];
+        return data[row * stride + col];
     }
 
     /**
-     * Checks if two matrices are equal.
+     * Checks if two matrices are equal. A matrix stored on disk is only equal to itself; sparse matrices and
+     * transposed views are equal to dense matrices with the same values. Views are compared in place, without
+     * copying them.
      *
      * @param A the first matrix to compare
      * @param B the second matrix to compare
      * @return {@code true} if the matrices are equal, {@code false} otherwise
      */
     public static boolean equals(Matrix A, Matrix B) {
-        int rowA = A.getSize()[0];
-        int colA = A.getSize()[1];
-        int rowB = B.getSize()[0];
-        int colB = B.getSize()[1];
+        if (A instanceof TiledMatrix || B instanceof TiledMatrix)
+            return A == B;
+        if (A instanceof SparseMatrix || B instanceof SparseMatrix)
+            return SparseMatrix.sameValues(A, B);
+        if (A instanceof TransposedMatrix a && B instanceof TransposedMatrix b)
+            return equals(a.base, b.base);
+        if (A instanceof TransposedMatrix || B instanceof TransposedMatrix) {
+            if (A.rows != B.rows || A.cols != B.cols)
+                return false;
+            for (int i = 0; i < A.rows; i++)
+                for (int j = 0; j < A.cols; j++)
+                    if (A.getValue(i, j) != B.getValue(i, j))
+                        return false;
+            return true;
+        }
+        int rowA = A.rows;
+        int colA = A.cols;
+        int rowB = B.rows;
+        int colB = B.cols;
 
-        if (rowA != rowB && colA != colB)
+        if (rowA != rowB || colA != colB)
             return false;
 
-        for (int i = 0; i < rowA; i++)
+        for (int i = 0; i < rowA; i++) {
+            int offsetA = i * A.stride;
+            int offsetB = i * B.stride;
             for (int j = 0; j < colA; j++)
-                if (A.getValue(i,j) != B.getValue(i,j))
+                if (A.data[offsetA + j] != B.data[offsetB + j])
                     return false;
+        }
         return true;
     }
 
@@ -103,6 +212,61 @@ public class Matrix {
             return false;
     }
 
+    /**
+     * {@inheritDoc}
+     * Computes a hash of the dimensions and values of the matrix, consistent with {@link #equals(Object)}.
+     * The hash of an immutable matrix is computed only once.
+     *
+     * @return the content hash of the matrix
+     */
+    @Override
+    public int hashCode() {
+        if (immutable && hash != 0)
+            return hash;
+        int result = 31 * rows + cols;
+        for (int i = 0; i < rows; i++) {
+            int offset = i * stride;
+            for (int j = 0; j < cols; j++) {
+                float value = data[offset + j];
+                // 0.0f and -0.0f are equal, so they must hash alike
+                result = 31 * result + (value == 0 ? 0 : Float.floatToIntBits(value));
+            }
+        }
+        if (immutable)
+            hash = result;
+        return result;
+    }
+
+    /**
+     * Returns whether the values of this matrix may no longer be changed.
+     *
+     * @return {@code true} if setValue, rowSwap and rowMultiply are rejected
+     */
+    public boolean isImmutable() {
+        return immutable;
+    }
+
+    /**
+     * Makes this matrix immutable. Matrices shared through caches or session variables are frozen,
+     * so that no holder can change them for the others.
+     *
+     * @return this matrix
+     */
+    Matrix freeze() {
+        immutable = true;
+        return this;
+    }
+
+    /**
+     * Checks that the values of this matrix may be changed.
+     *
+     * @throws UnsupportedOperationException if the matrix is immutable
+     */
+    void checkMutable() {
+        if (immutable)
+            throw new UnsupportedOperationException("Matrix is immutable");
+    }
+
     /**
      * Creates a new Matrix object of a given size with all values initialized to zero
      *
@@ -111,11 +275,7 @@ public class Matrix {
      * @return A new Matrix object with dimensions (row, col) and all values initialized to zero
      */
     public static Matrix allZeroes(int row, int col) {
-        float[][]resultMatrix = new float[row][col];
-
-        for (int i = 0; i < row; i++)
-            Arrays.fill(resultMatrix[i], 0);
-        return new Matrix(resultMatrix);
+        return new Matrix(row, col, new float[row * col]);
     }
 
     /**
@@ -125,15 +285,11 @@ public class Matrix {
      * @return A new Matrix object with dimensions size x size that is the identity matrix
      */
     public static Matrix identityMatrix(int size) {
-        float[][]resultMatrix = new float[size][size];
+        float[] resultMatrix = new float[size * size];
 
         for (int i = 0; i < size; i++)
-            for (int j = 0; j < size; j++)
-                if (i != j)
-                    resultMatrix[i][j] = 0;
-                else
-                    resultMatrix[i][j] = 1;
-        return new Matrix(resultMatrix);
+            resultMatrix[i * size + i] = 1;
+        return new Matrix(size, size, resultMatrix);
     }
 
     /**
@@ -145,20 +301,36 @@ public class Matrix {
      * @throws InvalidParameterException if the matrices do not have the same dimensions
      */
     public static Matrix addition(Matrix A, Matrix B) {
-        int rowA = A.getSize()[0];
-        int colA = A.getSize()[1];
-        int rowB = B.getSize()[0];
-        int colB = B.getSize()[1];
-
-        if (rowA == rowB && colA == colB) {
-            var resultMatrix = new float[rowA][colA];
-            for (int i = 0; i < rowA; i++) {
-                for (int j = 0; j < colB; j++) {
-                    resultMatrix[i][j] = A.getValue(i, j) + B.getValue(i, j);
-                }
-            }
-            return new Matrix(resultMatrix);
-        } else throw new InvalidParameterException("Matrices do not have appropriate dimensions");
+        if (A instanceof TiledMatrix || B instanceof TiledMatrix)
+            return TiledMatrix.addition(A, B);
+        if (A instanceof SparseMatrix || B instanceof SparseMatrix)
+            return SparseMatrix.addition(A, B);
+        int rowA = A.rows;
+        int colA = A.cols;
+        int rowB = B.rows;
+        int colB = B.cols;
+
+        if (rowA == rowB && colA == colB)
+            return addInto(A, B, allZeroes(rowA, colA));
+        else throw new InvalidParameterException("Matrices do not have appropriate dimensions");
+    }
+
+    /**
+     * Adds two matrices element-wise into a destination matrix, which may also be one of the operands.
+     *
+     * @param A the first matrix
+     * @param B the second matrix
+     * @param dest the dense matrix receiving the sum
+     * @return the destination matrix
+     * @throws InvalidParameterException if the matrices do not have the same dimensions or the destination
+     *          is not a dense matrix
+     * @throws UnsupportedOperationException if the destination is immutable
+     */
+    public static Matrix addInto(Matrix A, Matrix B, Matrix dest) {
+        checkElementwise(A, B, dest);
+        if (!isArrayBacked(A) || !isArrayBacked(B))
+            return copyInto(addition(A, B), dest);
+        return elementwiseInto(A, B, dest, false);
     }
 
     /**
@@ -170,24 +342,125 @@ public class Matrix {
      * @throws InvalidParameterException if the matrices do not have the same dimensions
      */
     public static Matrix subtraction(Matrix A, Matrix B) {
-        int rowA = A.getSize()[0];
-        int colA = A.getSize()[1];
-        int rowB = B.getSize()[0];
-        int colB = B.getSize()[1];
-
-        if (rowA == rowB && colA == colB) {
-            var resultMatrix = new float[rowA][colA];
-            for (int i = 0; i < rowA; i++) {
-                for (int j = 0; j < colB; j++) {
-                    resultMatrix[i][j] = A.getValue(i, j) - B.getValue(i, j);
-                }
+        if (A instanceof TiledMatrix || B instanceof TiledMatrix)
+            return TiledMatrix.subtraction(A, B);
+        if (A instanceof SparseMatrix || B instanceof SparseMatrix)
+            return SparseMatrix.subtraction(A, B);
+        int rowA = A.rows;
+        int colA = A.cols;
+        int rowB = B.rows;
+        int colB = B.cols;
+
+        if (rowA == rowB && colA == colB)
+            return subtractInto(A, B, allZeroes(rowA, colA));
+        else throw new InvalidParameterException("Matrices do not have appropriate dimensions");
+    }
+
+    /**
+     * Subtracts two matrices element-wise into a destination matrix, which may also be one of the operands.
+     *
+     * @param A the first matrix
+     * @param B the second matrix
+     * @param dest the dense matrix receiving the difference
+     * @return the destination matrix
+     * @throws InvalidParameterException if the matrices do not have the same dimensions or the destination
+     *          is not a dense matrix
+     * @throws UnsupportedOperationException if the destination is immutable
+     */
+    public static Matrix subtractInto(Matrix A, Matrix B, Matrix dest) {
+        checkElementwise(A, B, dest);
+        if (!isArrayBacked(A) || !isArrayBacked(B))
+            return copyInto(subtraction(A, B), dest);
+        return elementwiseInto(A, B, dest, true);
+    }
+
+    /**
+     * Adds or subtracts two matrices held in arrays row by row into a destination matrix. The rows of a transposed
+     * view are copied {@link #ROW_BLOCK} at a time by the blocked transpose, instead of reading every value of a
+     * row from another row of the base.
+     */
+    private static Matrix elementwiseInto(Matrix A, Matrix B, Matrix dest, boolean subtract) {
+        int cols = A.cols;
+        int height = A.data != null && B.data != null ? A.rows : Math.min(A.rows, ROW_BLOCK);
+        float[] blockA = A.data == null ? new float[height * cols] : null;
+        float[] blockB = B.data == null ? new float[height * cols] : null;
+        for (int row = 0; row < A.rows; row += height) {
+            int rowEnd = Math.min(row + height, A.rows);
+            if (blockA != null)
+                A.copyBlock(row, 0, rowEnd - row, cols, blockA);
+            if (blockB != null)
+                B.copyBlock(row, 0, rowEnd - row, cols, blockB);
+            for (int i = row; i < rowEnd; i++) {
+                float[] a = blockA == null ? A.data : blockA;
+                int offsetA = blockA == null ? i * A.stride : (i - row) * cols;
+                float[] b = blockB == null ? B.data : blockB;
+                int offsetB = blockB == null ? i * B.stride : (i - row) * cols;
+                if (subtract)
+                    RowKernels.subtract(a, offsetA, b, offsetB, dest.data, i * dest.stride, cols);
+                else
+                    RowKernels.add(a, offsetA, b, offsetB, dest.data, i * dest.stride, cols);
             }
-            return new Matrix(resultMatrix);
-        } else throw new InvalidParameterException("Matrices do not have appropriate dimensions");
+        }
+        return dest;
+    }
+
+    /**
+     * Returns whether the values of a matrix are read from an array by the dense kernels, which holds for dense
+     * matrices and transposed views of them.
+     *
+     * @param A the matrix to check
+     * @return {@code true} if the matrix is dense or a transposed view
+     */
+    static boolean isArrayBacked(Matrix A) {
+        return A.data != null || A instanceof TransposedMatrix;
     }
 
     /**
-     * Multiplies two matrices.
+     * Checks the operands and the destination of an element-wise operation.
+     *
+     * @throws InvalidParameterException if the matrices do not have the same dimensions or the destination
+     *          is not a dense matrix
+     * @throws UnsupportedOperationException if the destination is immutable
+     */
+    private static void checkElementwise(Matrix A, Matrix B, Matrix dest) {
+        if (A.rows != B.rows || A.cols != B.cols)
+            throw new InvalidParameterException("Matrices do not have appropriate dimensions");
+        checkDestination(dest, A.rows, A.cols);
+    }
+
+    /**
+     * Checks that a matrix can receive a result of the given dimensions.
+     *
+     * @param dest the destination matrix
+     * @param rows the number of rows of the result
+     * @param cols the number of columns of the result
+     * @throws InvalidParameterException if the destination is not a dense matrix of the given dimensions
+     * @throws UnsupportedOperationException if the destination is immutable
+     */
+    private static void checkDestination(Matrix dest, int rows, int cols) {
+        if (dest.data == null)
+            throw new InvalidParameterException("Destination is not a dense matrix");
+        if (dest.rows != rows || dest.cols != cols)
+            throw new InvalidParameterException("Matrices do not have appropriate dimensions");
+        dest.checkMutable();
+    }
+
+    /**
+     * Copies the values of a matrix into a dense destination matrix of the same dimensions.
+     *
+     * @param source the matrix to copy
+     * @param dest the destination matrix
+     * @return the destination matrix
+     */
+    private static Matrix copyInto(Matrix source, Matrix dest) {
+        source = source.inMemory();
+        for (int i = 0; i < source.rows; i++)
+            System.arraycopy(source.data, i * source.stride, dest.data, i * dest.stride, source.cols);
+        return dest;
+    }
+
+    /**
+     * Multiplies two matrices using the algorithm set in {@link MultiplicationKernel#setAlgorithm}.
      *
      * @param A the first matrix
      * @param B the second matrix
@@ -196,38 +469,105 @@ public class Matrix {
      *          does not match the number of rows in the second matrix
      */
     public static Matrix multiplication(Matrix A, Matrix B) {
-        int rowA = A.getSize()[0];
-        int colA = A.getSize()[1];
-        int rowB = B.getSize()[0];
-        int colB = B.getSize()[1];
-
-        if (colA == rowB) {
-            var resultMatrix = new float[rowA][colA];
-            for (int i = 0; i < rowA; i++) {
-                for (int j = 0; j < colB; j++) {
-                    for (int k = 0; k < rowB; k++)
-                        resultMatrix[i][j] += A.getValue(i, k) * B.getValue(k, j);
-                }
-            }
-            return new Matrix(resultMatrix);
-        } else throw new InvalidParameterException("Matrices do not have appropriate dimensions");
+        return multiplication(A, B, MultiplicationKernel.getAlgorithm());
     }
 
     /**
-     * Transposes a matrix.
+     * Multiplies two matrices using the given algorithm. Products with a matrix stored on disk are always
+     * computed tile by tile with the classic algorithm, products with a sparse matrix by the sparse algorithms.
+     * The product of two transposed views is the transpose of the product of their bases in reverse order,
+     * which is computed without copying either of them.
+     *
+     * @param A the first matrix
+     * @param B the second matrix
+     * @param algorithm the multiplication algorithm to use
+     * @return the product of the two matrices
+     * @throws InvalidParameterException if the number of columns in the first matrix
+     *          does not match the number of rows in the second matrix
+     */
+    public static Matrix multiplication(Matrix A, Matrix B, MultiplicationAlgorithm algorithm) {
+        int colA = A.cols;
+        int rowB = B.rows;
+
+        if (A instanceof TiledMatrix || B instanceof TiledMatrix)
+            return TiledMatrix.multiplication(A, B);
+        if (A instanceof SparseMatrix || B instanceof SparseMatrix)
+            return SparseMatrix.multiplication(A, B);
+        if (colA != rowB)
+            throw new InvalidParameterException("Matrices do not have appropriate dimensions");
+        if (A instanceof TransposedMatrix a && B instanceof TransposedMatrix b)
+            return transpose(MultiplicationKernel.multiply(b.base, a.base, algorithm).freeze());
+        return MultiplicationKernel.multiply(A, B, algorithm);
+    }
+
+    /**
+     * Multiplies two matrices into a destination matrix, which must not share its values with the operands.
+     * Dense products computed by the classic algorithm are accumulated directly in the destination; other
+     * products are computed as by {@link #multiplication(Matrix, Matrix)} and copied.
+     *
+     * @param A the first matrix
+     * @param B the second matrix
+     * @param dest the dense matrix receiving the product
+     * @return the destination matrix
+     * @throws InvalidParameterException if the number of columns in the first matrix does not match the number
+     *          of rows in the second matrix, or the destination is not a dense matrix of the dimensions of the
+     *          product or shares its values with an operand
+     * @throws UnsupportedOperationException if the destination is immutable
+     */
+    public static Matrix multiplyInto(Matrix A, Matrix B, Matrix dest) {
+        if (A.cols != B.rows)
+            throw new InvalidParameterException("Matrices do not have appropriate dimensions");
+        checkDestination(dest, A.rows, B.cols);
+        if (dest.data == A.data || dest.data == B.data)
+            throw new InvalidParameterException("Destination shares its values with an operand");
+        MultiplicationAlgorithm algorithm = MultiplicationKernel.getAlgorithm();
+        if (!isArrayBacked(A) || !isArrayBacked(B) || algorithm == MultiplicationAlgorithm.strassen
+                || algorithm == MultiplicationAlgorithm.automatic
+                && StrassenMultiplication.worthwhile(A.rows, A.cols, B.cols))
+            return copyInto(multiplication(A, B, algorithm), dest);
+        Arrays.fill(dest.data, 0, dest.rows * dest.stride, 0);
+        MultiplicationKernel.multiply(A, B, dest.data);
+        return dest;
+    }
+
+    /**
+     * Transposes a matrix. The transpose of an immutable dense matrix is a {@link TransposedMatrix} reading its
+     * values in place, the transpose of such a view is the matrix it views; other dense matrices are copied.
      *
      * @param A the matrix to transpose
      * @return the transpose of the matrix
      */
     public static Matrix transpose(Matrix A) {
-        int rowA = A.getSize()[0];
-        int colA = A.getSize()[1];
-        float[][] resultMatrix = new float[rowA][colA];
+        if (A instanceof TiledMatrix)
+            return TiledMatrix.transpose(A);
+        if (A instanceof SparseMatrix sparse)
+            return SparseMatrix.transpose(sparse);
+        if (A instanceof TransposedMatrix view)
+            return view.base;
+        if (A.isImmutable())
+            return new TransposedMatrix(A);
+        return transposeInto(A, allZeroes(A.cols, A.rows));
+    }
 
-        for (int i = 0; i < rowA; i++)
-            for (int j = 0; j < colA; j++)
-                resultMatrix[j][i] = A.getValue(i, j);
-        return new Matrix(resultMatrix);
+    /**
+     * Transposes a matrix into a destination matrix, which must not share its values with the operand.
+     * Dense matrices are copied by the cache-oblivious blocked transpose of {@link TransposedMatrix}.
+     *
+     * @param A the matrix to transpose
+     * @param dest the dense matrix receiving the transpose
+     * @return the destination matrix
+     * @throws InvalidParameterException if the destination is not a dense matrix of the transposed dimensions or
+     *          shares its values with the operand
+     * @throws UnsupportedOperationException if the destination is immutable
+     */
+    public static Matrix transposeInto(Matrix A, Matrix dest) {
+        checkDestination(dest, A.cols, A.rows);
+        if (dest.data == A.data)
+            throw new InvalidParameterException("Destination shares its values with an operand");
+        if (A.data == null)
+            return copyInto(transpose(A), dest);
+        TransposedMatrix.transpose(A.data, 0, A.stride, dest.data, 0, dest.stride, A.rows, A.cols);
+        return dest;
     }
 
     /**
@@ -248,11 +588,19 @@ public class Matrix {
      *
      * @param row1 the index of the first row to swap
      * @param row2 the index of the second row to swap
+     * @throws UnsupportedOperationException if the matrix is immutable
      */
     public void rowSwap(int row1, int row2) {
-        float[] temp = matrix[row1];
-        matrix[row1] = matrix[row2];
-        matrix[row2] = temp;
+        checkMutable();
+        if (row1 == row2)
+            return;
+        int offset1 = row1 * stride;
+        int offset2 = row2 * stride;
+        for (int j = 0; j < cols; j++) {
+            float temp = data[offset1 + j];
+            data[offset1 + j] = data[offset2 + j];
+            data[offset2 + j] = temp;
+        }
     }
 
     /**
@@ -261,9 +609,11 @@ public class Matrix {
      * @param row the row index of the element to set
      * @param col the column index of the element to set
      * @param value the value to set the element to
+     * @throws UnsupportedOperationException if the matrix is immutable
      */
     public void setValue(int row, int col, float value) {
-        matrix[row][col] = value;
+        checkMutable();
+        data[row * stride + col] = value;
     }
 
     /**
@@ -271,206 +621,171 @@ public class Matrix {
      *
      * @param row the index of the row to multiply by the scalar coefficient
      * @param coefficient the scalar coefficient to multiply the row by
+     * @throws UnsupportedOperationException if the matrix is immutable
      */
     public void rowMultiply(int row, float coefficient) {
-        for (int i = 0; i < matrix.length; i++)
-            matrix[row][i]*=coefficient;
+        checkMutable();
+        RowKernels.scale(data, row * stride, cols, coefficient);
     }
 
     /**
-     * Calculates the row echelon form of a given matrix. A new copy of the input matrix is created and modified;
-     * the original matrix is left untouched.
+     * Calculates the row echelon form of a given matrix by Gaussian elimination with partial pivoting.
+     * Values that are negligible compared to the largest value of the matrix are treated as zeros.
+     * The original matrix is left untouched.
      *
      * @param A the input matrix to calculate the row echelon form of
      * @return a new matrix object containing the row echelon form of the input matrix
      */
     public static Matrix ref(Matrix A) {
-        int rowA = A.getSize()[0];
-        int colA = A.getSize()[1];
-
-        //create a copy of the given matrix
-        Matrix refMatrix = new Matrix(A);
-
-        int row = 0; // i
-        int col = 0; // j
-        boolean allZeroes = true;
-
-        int pivotRow = 0;
-
-        while (row < rowA && col < colA) {
-            // 2. step
-            for (int k = row; k < rowA; k++) {
-                for (int l = col; l < colA; l++) {
-                    if (A.getValue(k, l) != 0) {
-                        allZeroes = false;
-                        // 3. step
-                        col = l;
-                        pivotRow = k;
-                        break;
-                    }
-                }
-                if (!allZeroes){
-                    break;
-                }
-            }
-            if (allZeroes) {
-                break;
-            }
-
-            // 4. step
-            refMatrix.rowSwap(row, pivotRow);
-
-            // 6. step
-            for (int k = 0; k < rowA; k++) {
-                if (k <= row)
-                    continue;
-                float refPivotRowValue = refMatrix.getValue(k, col)/refMatrix.getValue(row, col);
-                for (int i = 0; i < colA; i++){
-                    float refResult = refMatrix.getValue(k, i) - refPivotRowValue * refMatrix.getValue(pivotRow, i);
-                    refMatrix.setValue(k, i, refResult);
-                }
-            }
-            // 7. step
-            row++;
-            col++;
-        }
-        return refMatrix;
-    }
-
-    /**
-     * Calculates the reduced row echelon form and the inverse of a given matrix.
-     * A new copy of the input matrix is created and modified; the original matrix is left untouched.
-     *
-     * @param A the input matrix to calculate the reduced row echelon form and inverse of
-     * @return an array containing two new matrix objects:
-     * the reduced row echelon form and the inverse of the input matrix
-     */
-    private static Matrix[] rrefAndInverse(Matrix A) {
-        int rowA = A.getSize()[0];
-        int colA = A.getSize()[1];
-
-        //create a copy of the given matrix
-        Matrix rrefMatrix = new Matrix(A);
-        Matrix inverseMatrix = new Matrix(identityMatrix(rowA));
-
-        int row = 0; // i
-        int col = 0; // j
-        boolean allZeroes = true;
-
-        int pivotRow = 0;
-
-        while (row < rowA && col < colA) {
-            // 2. step
-            for (int k = row; k < rowA; k++) {
-                for (int l = col; l < colA; l++) {
-                    if (A.getValue(k, l) != 0) {
-                        allZeroes = false;
-                        // 3. step
-                        col = l;
-                        pivotRow = k;
-                        break;
-                    }
-                }
-                if (!allZeroes){
-                    break;
-                }
-            }
-            if (allZeroes) {
-                break;
-            }
-
-            // 4. step
-            rrefMatrix.rowSwap(row, pivotRow);
-            inverseMatrix.rowSwap(row, pivotRow);
-            // 5. step
-            float pivotValue = rrefMatrix.getValue(row, col);
-            for (int i = 0; i < rowA; i++){
-                var rrefResult = rrefMatrix.getValue(row, i) / pivotValue;
-                rrefMatrix.setValue(row, i, rrefResult);
-
-                var inverseResult = inverseMatrix.getValue(row, i) / pivotValue;
-                inverseMatrix.setValue(row, i, inverseResult);
-            }
-            // 6. step
-            for (int k = 0; k < rowA; k++) {
-                if (k == row)
-                    continue;
-                float rrefPivotRowValue = rrefMatrix.getValue(k, col);
-                for (int i = 0; i < colA; i++){
-                    float rrefResult = rrefMatrix.getValue(k, i) - rrefPivotRowValue * rrefMatrix.getValue(pivotRow, i);
-                    rrefMatrix.setValue(k, i, rrefResult);
-                    float inverseResult = inverseMatrix.getValue(k, i) - rrefPivotRowValue * inverseMatrix.getValue(pivotRow, i);
-                    inverseMatrix.setValue(k, i, inverseResult);
-                }
-            }
-            // 7. step
-            row++;
-            col++;
-        }
-        return new Matrix[] {rrefMatrix, inverseMatrix};
+        return LUDecomposition.withTolerance(A).upper();
     }
 
     /**
-     * Calculates the inverse of a square matrix A.
+     * Calculates the inverse of a square matrix A from its LU decomposition.
      *
      * @param A the input square matrix to calculate the inverse of
      * @return the inverse matrix of the input square matrix
-     * @throws InvalidParameterException if the input matrix is not square
+     * @throws InvalidParameterException if the input matrix is not square or is singular
      */
     public static Matrix inverse(Matrix A){
-        int rowA = A.getSize()[0];
-        int colA = A.getSize()[1];
-        if (rowA != colA)
+        if (A.rows != A.cols)
             throw new InvalidParameterException("Matrix is not a square matrix");
-        var resultMatrices = rrefAndInverse(A);
-        return resultMatrices[1];
+        return new LUDecomposition(A).inverse();
     }
 
     /**
-     * Calculates the reduced row echelon form (RREF).
+     * Calculates the reduced row echelon form (RREF) by Gauss-Jordan elimination with partial pivoting.
+     * Values that are negligible compared to the largest value of the matrix are treated as zeros.
      *
      * @param A the input matrix
      * @return the RREF of the input matrix
      */
     public static Matrix rref(Matrix A){
-        var resultMatrices = rrefAndInverse(A);
-        return resultMatrices[0];
+        return LUDecomposition.withTolerance(A).reducedEchelon();
     }
 
-    public String stringRepresentationWithBrackets() {
-        StringBuilder stringRepresentation = new StringBuilder();
-        stringRepresentation.append('[');
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j < matrix[0].length; j++) {
-                stringRepresentation.append(" ");
-                stringRepresentation.append(matrix[i][j]);
+    /**
+     * Calculates the determinant of a square matrix A from its LU decomposition.
+     *
+     * @param A the input square matrix
+     * @return the determinant of the input matrix
+     * @throws InvalidParameterException if the input matrix is not square
+     */
+    public static float determinant(Matrix A) {
+        if (A.rows != A.cols)
+            throw new InvalidParameterException("Matrix is not a square matrix");
+        return new LUDecomposition(A).determinant();
+    }
+
+    /**
+     * Solves the linear system A X = B without forming the inverse of A.
+     *
+     * @param A the square matrix of the system
+     * @param B the right-hand sides, one per column
+     * @return the solution X
+     * @throws InvalidParameterException if A is not square, is singular or the dimensions do not match
+     */
+    public static Matrix solve(Matrix A, Matrix B) {
+        if (A.rows != A.cols)
+            throw new InvalidParameterException("Matrix is not a square matrix");
+        if (A.rows != B.rows)
+            throw new InvalidParameterException("Matrices do not have appropriate dimensions");
+        return new LUDecomposition(A).solve(B);
+    }
+
+    /**
+     * Raises a square matrix to an integer power by repeated squaring, which takes fewer than 2 log2(n)
+     * multiplications instead of n - 1. A negative power is the power of the inverse, the zeroth power is the
+     * identity matrix.
+     *
+     * @param A the square matrix
+     * @param n the exponent
+     * @return the n-th power of A, a new matrix also for n = 1
+     * @throws InvalidParameterException if A is not square, or is singular and n is negative
+     */
+    public static Matrix power(Matrix A, int n) {
+        if (A.rows != A.cols)
+            throw new InvalidParameterException("Matrix is not a square matrix");
+        try (BufferArena arena = BufferArena.open()) {
+            Matrix result = power(n < 0 ? inverse(A) : A, Math.abs((long) n), arena);
+            return result == A ? new Matrix(A) : result;
+        }
+    }
+
+    /**
+     * Raises a square matrix to a non-negative power by repeated squaring: the squares A, A^2, A^4, ... are
+     * computed in turn, and the squares of the set bits of n are multiplied into the result. The products are
+     * written into arrays of the arena, and every square and partial result is given back to it as soon as it has
+     * been used, so that the whole power needs about three arrays the size of A.
+     *
+     * @param A the square matrix, which is not given back to the arena
+     * @param n the non-negative exponent
+     * @param arena the arena providing the arrays of the products
+     * @return the n-th power of A, A itself for n = 1, which the evaluator does not need to copy
+     */
+    static Matrix power(Matrix A, long n, BufferArena arena) {
+        if (n == 0)
+            return identityMatrix(A.rows);
+        Matrix square = A;
+        Matrix result = null;
+        while (true) {
+            if ((n & 1) != 0) {
+                Matrix product = result == null ? square : multiplyWith(result, square, arena);
+                if (result != null && result != A)
+                    arena.recycle(result);
+                result = product;
             }
-            if (matrix.length > 1 && i != matrix.length-1)
-                stringRepresentation.append(" ;");
+            n >>= 1;
+            if (n == 0)
+                break;
+            Matrix squared = multiplyWith(square, square, arena);
+            // a square that became the result is still needed
+            if (square != A && square != result)
+                arena.recycle(square);
+            square = squared;
         }
-        stringRepresentation.append(" ]");
-        return stringRepresentation.toString();
+        if (square != A && square != result)
+            arena.recycle(square);
+        return result;
+    }
+
+    /**
+     * Multiplies two matrices into an array of the arena if both are held in arrays.
+     */
+    private static Matrix multiplyWith(Matrix A, Matrix B, BufferArena arena) {
+        if (isArrayBacked(A) && isArrayBacked(B))
+            return multiplyInto(A, B, arena.matrix(A.rows, B.cols));
+        return multiplication(A, B);
+    }
+
+    /**
+     * Calculates the rank of a matrix, the number of pivots of its row echelon form.
+     *
+     * @param A the input matrix
+     * @return the rank of the input matrix
+     */
+    public static int rank(Matrix A) {
+        return LUDecomposition.withTolerance(A).rank();
+    }
+
+    /**
+     * Returns a string representation of the matrix in the same format as the input, such as
+     * {@code [ 1.0 2.0 ; 3.0 4.0 ]}.
+     *
+     * @return a string representation of the matrix with brackets
+     */
+    public String stringRepresentationWithBrackets() {
+        return MatrixWriter.format(this, true);
     }
 
     /**
      * Returns a string representation of the matrix, where each element is separated by a space
-     * and each row is separated by a newline character.
+     * and each row is separated by a newline character. The values are formatted as by Float.toString.
      *
      * @return a string representation of the matrix
      */
     @Override
     public String toString() {
-        int row = matrix.length;
-        int col = matrix[0].length;
-        StringBuilder matrixData = new StringBuilder();
-
-        for (int i = 0; i < row; i++) {
-            for (int j = 0; j < col; j++) {
-                matrixData.append(matrix[i][j]);
-                matrixData.append(" ");
-            }
-            matrixData.append('\n');
-        }
-        return matrixData.toString();
+        return MatrixWriter.format(this, false);
     }
-}
\ No newline at end of file
+}
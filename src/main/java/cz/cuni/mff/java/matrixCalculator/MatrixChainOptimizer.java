@@ -0,0 +1,116 @@
+/**
+ * The MatrixChainOptimizer class rewrites an expression tree so that every run of consecutive multiplications
+ * is evaluated in the order needing the fewest floating point operations. The order is found with the classic
+ * dynamic programming solution of the matrix-chain problem over the shapes of the factors, so a product such as
+ * 1000x10 * 10x1000 * 1000x10 is evaluated as 1000x10 * (10x1000 * 1000x10). A chain is only rewritten when
+ * the new order is strictly cheaper than the order as written, so the rounding of the result does not change
+ * when nothing can be gained.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+final class MatrixChainOptimizer {
+    private MatrixChainOptimizer() {
+    }
+
+    /**
+     * Returns an equivalent tree in which every chain of multiplications is reordered optimally.
+     *
+     * @param node the root of the tree to optimize
+     * @return the root of the optimized tree
+     */
+    static ExpressionNode optimize(ExpressionNode node) {
+        if (node.isOperand())
+            return node;
+        if (node.operator == Operators.multiplication) {
+            List<ExpressionNode> factors = new ArrayList<>();
+            collectFactors(node, factors);
+            factors.replaceAll(MatrixChainOptimizer::optimize);
+            return reorder(node, factors);
+        }
+        ExpressionNode left = optimize(node.left);
+        if (node.right == null)
+            return left == node.left ? node : ExpressionNode.unary(node.operator, left);
+        ExpressionNode right = optimize(node.right);
+        if (left == node.left && right == node.right)
+            return node;
+        return ExpressionNode.binary(node.operator, left, right);
+    }
+
+    /**
+     * Collects the factors of a run of multiplications from left to right.
+     */
+    private static void collectFactors(ExpressionNode node, List<ExpressionNode> factors) {
+        if (node.operator == Operators.multiplication) {
+            collectFactors(node.left, factors);
+            collectFactors(node.right, factors);
+        } else
+            factors.add(node);
+    }
+
+    /**
+     * Returns the number of scalar multiplications of a run of multiplications in the order as written.
+     */
+    private static long writtenCost(ExpressionNode node) {
+        if (node.operator != Operators.multiplication)
+            return 0;
+        return writtenCost(node.left) + writtenCost(node.right) + (long) node.left.rows * node.left.cols * node.right.cols;
+    }
+
+    /**
+     * Rebuilds a run of multiplications in the order as written, replacing its factors from left to right.
+     */
+    private static ExpressionNode rebuild(ExpressionNode node, Iterator<ExpressionNode> factors) {
+        if (node.operator != Operators.multiplication)
+            return factors.next();
+        ExpressionNode left = rebuild(node.left, factors);
+        ExpressionNode right = rebuild(node.right, factors);
+        return ExpressionNode.binary(Operators.multiplication, left, right);
+    }
+
+    /**
+     * Builds the cheapest multiplication tree of the given factors of a run of multiplications.
+     * If it is not cheaper than the run as written, the run keeps its order.
+     */
+    private static ExpressionNode reorder(ExpressionNode chain, List<ExpressionNode> factors) {
+        int count = factors.size();
+        // factor i has the shape dimensions[i] x dimensions[i + 1]
+        long[] dimensions = new long[count + 1];
+        for (int i = 0; i < count; i++)
+            dimensions[i] = factors.get(i).rows;
+        dimensions[count] = factors.get(count - 1).cols;
+
+        long[][] cost = new long[count][count];
+        int[][] split = new int[count][count];
+        for (int length = 2; length <= count; length++) {
+            for (int i = 0; i + length - 1 < count; i++) {
+                int j = i + length - 1;
+                cost[i][j] = Long.MAX_VALUE;
+                for (int k = i; k < j; k++) {
+                    long candidate = cost[i][k] + cost[k + 1][j] + dimensions[i] * dimensions[k + 1] * dimensions[j + 1];
+                    if (candidate < cost[i][j]) {
+                        cost[i][j] = candidate;
+                        split[i][j] = k;
+                    }
+                }
+            }
+        }
+        if (cost[0][count - 1] >= writtenCost(chain))
+            return rebuild(chain, factors.iterator());
+        return build(factors, split, 0, count - 1);
+    }
+
+    /**
+     * Builds the multiplication tree of the factors i to j from the table of optimal splits.
+     */
+    private static ExpressionNode build(List<ExpressionNode> factors, int[][] split, int i, int j) {
+        if (i == j)
+            return factors.get(i);
+        int k = split[i][j];
+        return ExpressionNode.binary(Operators.multiplication, build(factors, split, i, k), build(factors, split, k + 1, j));
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * The MatrixFile class reads and writes matrices in a compact binary format, so that large matrices do not have
+ * to be typed or printed as text. A file starts with a 16 byte header of four little-endian 32-bit fields:
+ * the magic bytes {@code MTRX}, the data type of the values, the number of rows and the number of columns.
+ * The header is followed by the values of the matrix in row-major order as raw little-endian numbers.
+ * The only data type so far is {@link #FLOAT32}.
+ * <p>
+ * Files are accessed through memory mappings of their channels, in windows of at most {@link #WINDOW} bytes.
+ * The values are transferred by bulk copies between the mapping and the array of the matrix, so loading a file
+ * needs no heap memory besides the matrix itself. Files larger than the memory budget of {@link TiledMatrix}
+ * are loaded into a TiledMatrix tile by tile instead. The same format is used for binary payloads of the
+ * MatrixServer, which are encoded and decoded in memory.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public final class MatrixFile {
+    /** The magic bytes "MTRX" read as a little-endian integer */
+    static final int MAGIC = 'M' | 'T' << 8 | 'R' << 16 | 'X' << 24;
+    /** Data type of values stored as 32-bit IEEE 754 floats */
+    public static final int FLOAT32 = 1;
+    /** Number of bytes of the header */
+    static final int HEADER = 16;
+    /** Maximal number of bytes mapped at once, a multiple of the size of every data type */
+    static final int WINDOW = 1 << 30;
+
+    private MatrixFile() {
+    }
+
+    /**
+     * Reads a matrix from a file.
+     *
+     * @param path the path of the file
+     * @return the matrix stored in the file, stored on disk if it is larger than the memory budget
+     * @throws IOException if the file cannot be read or is not a valid matrix file
+     */
+    public static Matrix load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER)
+                throw new IOException(path + " is not a matrix file");
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            readHeader(header, channel.size(), path.toString());
+            int rows = header.getInt(8);
+            int cols = header.getInt(12);
+            long count = (long) rows * cols;
+            if (TiledMatrix.exceedsBudget(rows, cols))
+                return TiledMatrix.read(channel, HEADER, rows, cols);
+
+            float[] data = new float[(int) count];
+            long position = HEADER;
+            int offset = 0;
+            while (offset < data.length) {
+                int length = Math.min(WINDOW / 4, data.length - offset);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * length);
+                window.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(data, offset, length);
+                position += 4L * length;
+                offset += length;
+            }
+            return new Matrix(rows, cols, data);
+        }
+    }
+
+    /**
+     * Checks the header at the start of the buffer against the size of the whole content.
+     *
+     * @param header the buffer starting with the header, in little-endian order
+     * @param size the number of bytes of the content including the header
+     * @param name the name of the content used in error messages
+     * @throws IOException if the header is not valid or does not match the size
+     */
+    private static void readHeader(ByteBuffer header, long size, String name) throws IOException {
+        if (header.getInt() != MAGIC)
+            throw new IOException(name + " is not a matrix file");
+        int type = header.getInt();
+        if (type != FLOAT32)
+            throw new IOException(name + " has an unsupported data type " + type);
+        int rows = header.getInt();
+        int cols = header.getInt();
+        if (rows <= 0 || cols <= 0)
+            throw new IOException(name + " has invalid dimensions " + rows + "x" + cols);
+        if (size != HEADER + 4L * rows * cols)
+            throw new IOException(name + " does not have the size given by its header");
+    }
+
+    /**
+     * Decodes a matrix from bytes in the format of a matrix file.
+     *
+     * @param bytes the header and the values of the matrix
+     * @return the decoded matrix
+     * @throws IOException if the bytes are not a valid matrix
+     */
+    static Matrix decode(byte[] bytes) throws IOException {
+        if (bytes.length < HEADER)
+            throw new IOException("payload is not a matrix file");
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        readHeader(buffer, bytes.length, "payload");
+        int rows = buffer.getInt(8);
+        int cols = buffer.getInt(12);
+        float[] data = new float[rows * cols];
+        buffer.asFloatBuffer().get(data);
+        return new Matrix(rows, cols, data);
+    }
+
+    /**
+     * Encodes a matrix into bytes in the format of a matrix file.
+     *
+     * @param matrix the matrix to encode
+     * @return the header and the values of the matrix
+     * @throws IllegalArgumentException if the matrix is too large for an array
+     */
+    static byte[] encode(Matrix matrix) {
+        long count = (long) matrix.rows * matrix.cols;
+        if (HEADER + 4 * count > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Matrix is too large to be encoded in memory");
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + 4 * (int) count).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(FLOAT32).putInt(matrix.rows).putInt(matrix.cols);
+        putValues(matrix, 0, (int) count, buffer.slice(HEADER, 4 * (int) count));
+        return buffer.array();
+    }
+
+    /**
+     * Writes a matrix to a file, replacing its previous content.
+     *
+     * @param matrix the matrix to write
+     * @param path the path of the file
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(Matrix matrix, Path path) throws IOException {
+        long count = (long) matrix.rows * matrix.cols;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(FLOAT32).putInt(matrix.rows).putInt(matrix.cols).flip();
+            while (header.hasRemaining())
+                channel.write(header, HEADER - header.remaining());
+            if (matrix instanceof TiledMatrix tiled) {
+                tiled.write(channel, HEADER);
+                return;
+            }
+
+            long position = HEADER;
+            long written = 0;
+            while (written < count) {
+                int length = (int) Math.min(WINDOW / 4, count - written);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, position, 4L * length);
+                putValues(matrix, written, length, window);
+                window.force();
+                position += 4L * length;
+                written += length;
+            }
+        }
+    }
+
+    /**
+     * Copies length values of the matrix in row-major order, starting with the value of the given index,
+     * to the window.
+     */
+    private static void putValues(Matrix matrix, long first, int length, ByteBuffer window) {
+        var values = window.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        if (matrix.data != null && matrix.stride == matrix.cols) {
+            values.put(matrix.data, (int) first, length);
+            return;
+        }
+        // matrices without a dense array, such as sparse ones, are copied row by row through a buffer
+        float[] buffer = matrix.data == null ? new float[matrix.cols] : null;
+        int row = (int) (first / matrix.cols);
+        int col = (int) (first % matrix.cols);
+        while (length > 0) {
+            int part = Math.min(matrix.cols - col, length);
+            if (buffer == null)
+                values.put(matrix.data, row * matrix.stride + col, part);
+            else {
+                matrix.copyBlock(row, col, 1, part, buffer);
+                values.put(buffer, 0, part);
+            }
+            length -= part;
+            row++;
+            col = 0;
+        }
+    }
+}
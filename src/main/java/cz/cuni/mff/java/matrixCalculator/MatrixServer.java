@@ -0,0 +1,416 @@
+/**
+ * The MatrixServer class evaluates expressions sent over HTTP by clients on the same machine, so that a long-running
+ * process serves many requests without paying for the startup and warm-up of a new JVM each time. It embeds the
+ * JDK's {@code com.sun.net.httpserver} bound to the loopback address and handles every request on its own virtual
+ * thread. Evaluations run on a pool of platform threads, one per thread of the ComputePool: virtual threads are not
+ * preempted, so a long evaluation on a virtual thread could hold a carrier thread and delay the timeouts of other
+ * requests. The endpoints are:
+ * <ul>
+ *     <li>{@code POST /evaluate} evaluates an expression in a new, empty session.</li>
+ *     <li>{@code POST /sessions/ID/evaluate} evaluates an expression in the session ID, created on first use,
+ *     so that assignments bind variables for later requests of the same session.</li>
+ *     <li>{@code PUT /sessions/ID/variables/NAME} binds the matrix in the body to a variable of the session.</li>
+ *     <li>{@code GET /sessions/ID/variables/NAME} returns the matrix bound to a variable of the session.</li>
+ *     <li>{@code DELETE /sessions/ID} removes the session and its variables.</li>
+ * </ul>
+ * An expression is sent either as plain text or as the JSON object {@code {"expression": "A * B", "variables":
+ * {"A": [[1, 2], [3, 4]]}}}, whose variables are bound before the expression is evaluated. A matrix is sent either
+ * as JSON, an array of rows, or with the content type {@code application/octet-stream} in the binary format of
+ * MatrixFile. Results are returned as binary when the request accepts {@code application/octet-stream} and as the
+ * JSON object {@code {"rows": 2, "cols": 2, "values": [[1, 2], [3, 4]]}} otherwise, with the name of the variable
+ * for assignments. Errors are returned as {@code {"error": "message"}} with status 400, or 503 if an evaluation
+ * takes longer than the timeout. The timeout includes the time an evaluation waits for a free thread of the pool.
+ * A timed out evaluation is interrupted and stops before its next operation, so requests arriving meanwhile may wait
+ * for the operation it is running to finish.
+ * Expressions of clients may not load or save files.
+ * <p>
+ * The memory budgets of the variables and of the result cache are shared by all sessions: each session may use
+ * either budget alone, but when the variables or the caches of all sessions together exceed it after a request,
+ * the least recently used sessions are removed until they fit. The one-shot sessions of {@code /evaluate} have no
+ * result cache, since nothing would ever be looked up in it again. Bodies of requests larger than a maximal size are
+ * rejected with status 413 before they are read, or as soon as the read exceeds the size when their length is not
+ * declared, so that a single request cannot exhaust the heap shared by the sessions.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidParameterException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public final class MatrixServer {
+    /** Content type of matrices in the binary format of MatrixFile */
+    static final String BINARY = "application/octet-stream";
+    /** Content type of JSON documents */
+    static final String JSON = "application/json";
+    /** Nesting of a matrix sent as JSON: the array of rows and the rows */
+    static final int MATRIX_DEPTH = 2;
+    /** Nesting of a request sent as JSON: the request, its variables and their matrices */
+    static final int REQUEST_DEPTH = 2 + MATRIX_DEPTH;
+    /** Maximal number of sessions held at once */
+    static final int MAX_SESSIONS = 1024;
+    /** Matches the path of a session, capturing its id, the resource and the name of a variable */
+    private static final Pattern SESSION_PATH =
+            Pattern.compile("/sessions/([A-Za-z0-9_.-]+)(/evaluate|/variables/([A-Za-z_][A-Za-z0-9_]*))?");
+
+    static {
+        // the server writes the headers and the body of a response separately; with Nagle's algorithm the body
+        // waits for the delayed acknowledgement of the headers, adding about 40 ms to every response
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    /** The embedded HTTP server */
+    private final HttpServer server;
+    /** Executor running the requests, one virtual thread each */
+    private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+    /** Executor running the evaluations on platform threads */
+    private final ExecutorService evaluations = Executors.newFixedThreadPool(ComputePool.getParallelism());
+    /** Sessions by their id in the order of their last use, guarded by itself */
+    private final LinkedHashMap<String, Session> sessions = new LinkedHashMap<>(16, 0.75f, true);
+    /** Maximal time of an evaluation in milliseconds */
+    private final long timeoutMillis;
+    /** Memory budget of the variables of all sessions together in bytes */
+    private final long variablesBudget;
+    /** Memory budget of the result caches of all sessions together in bytes */
+    private final long cacheBudget;
+    /** Maximal size of the body of a request in bytes */
+    private final int maxBodyBytes;
+
+    /**
+     * Creates a server listening on the given port of the loopback address. The server does not accept requests
+     * until it is started.
+     *
+     * @param port the port, or 0 for any free port
+     * @param timeoutMillis the maximal time of an evaluation in milliseconds
+     * @param variablesBudget the memory budget of the variables of all sessions together in bytes
+     * @param cacheBudget the memory budget of the result caches of all sessions together in bytes, 0 disables
+     *                    them
+     * @param maxBodyBytes the maximal size of the body of a request in bytes, at most the size of the largest array
+     * @throws IOException if the server cannot listen on the port
+     * @throws InvalidParameterException if the timeout or the maximal size of a body is not positive
+     */
+    public MatrixServer(int port, long timeoutMillis, long variablesBudget, long cacheBudget, long maxBodyBytes)
+            throws IOException {
+        if (timeoutMillis <= 0)
+            throw new InvalidParameterException("Timeout must be positive");
+        if (maxBodyBytes <= 0)
+            throw new InvalidParameterException("Maximal size of a request must be positive");
+        this.timeoutMillis = timeoutMillis;
+        this.variablesBudget = variablesBudget;
+        this.cacheBudget = cacheBudget;
+        this.maxBodyBytes = (int) Math.min(maxBodyBytes, Integer.MAX_VALUE - 8);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(threads);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waits at most a second for the running ones and interrupts the evaluations.
+     */
+    public void stop() {
+        server.stop(1);
+        threads.shutdownNow();
+        evaluations.shutdownNow();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Routes a request to its endpoint and sends the response or the error.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            try {
+                if (path.equals("/evaluate")) {
+                    if (allowed(exchange, "POST"))
+                        evaluate(exchange, new Session(variablesBudget, 0));
+                    return;
+                }
+                Matcher matcher = SESSION_PATH.matcher(path);
+                if (!matcher.matches()) {
+                    sendError(exchange, 404, "No such resource " + path);
+                    return;
+                }
+                String id = matcher.group(1);
+                if (matcher.group(2) == null) {
+                    if (allowed(exchange, "DELETE")) {
+                        synchronized (sessions) {
+                            sessions.remove(id);
+                        }
+                        exchange.sendResponseHeaders(204, -1);
+                    }
+                } else if (matcher.group(3) == null) {
+                    if (allowed(exchange, "POST")) {
+                        try {
+                            evaluate(exchange, session(id));
+                        } finally {
+                            evictSessions(id);
+                        }
+                    }
+                } else if (method.equals("PUT")) {
+                    Matrix matrix = SparseMatrix.choose(readMatrix(exchange));
+                    try {
+                        bind(session(id), matcher.group(3), matrix);
+                    } finally {
+                        evictSessions(id);
+                    }
+                    sendJson(exchange, 200, "{\"name\":" + Json.quote(matcher.group(3))
+                            + ",\"rows\":" + matrix.rows + ",\"cols\":" + matrix.cols + "}");
+                } else if (allowed(exchange, "GET")) {
+                    Matrix matrix = session(id).lookup(matcher.group(3));
+                    if (matrix == null)
+                        sendError(exchange, 404, matcher.group(3) + " is not a defined variable");
+                    else
+                        sendMatrix(exchange, matrix, null);
+                }
+            } catch (TimeoutException exception) {
+                sendError(exchange, 503, "Evaluation timed out after " + timeoutMillis + " ms");
+            } catch (BodyTooLargeException exception) {
+                sendError(exchange, 413, exception.getMessage());
+            } catch (IllegalArgumentException | UnsupportedOperationException
+                     | UncheckedIOException | CancellationException exception) {
+                sendError(exchange, 400, exception.getMessage());
+            } catch (RuntimeException exception) {
+                sendError(exchange, 400, "Inconsistent input");
+            }
+        }
+    }
+
+    /**
+     * Evaluates the expression of a request in a session and sends the result.
+     */
+    private void evaluate(HttpExchange exchange, Session session) throws IOException, TimeoutException {
+        String body = new String(readBody(exchange), StandardCharsets.UTF_8);
+        String expression = body;
+        if (isJson(exchange)) {
+            if (!(Json.parse(body, REQUEST_DEPTH) instanceof Map<?, ?> request)
+                    || !(request.get("expression") instanceof String text))
+                throw new IllegalArgumentException("Expected an object with an expression");
+            if (request.get("variables") instanceof Map<?, ?> variables)
+                for (var variable : variables.entrySet())
+                    bind(session, variable.getKey().toString(), SparseMatrix.choose(Json.toMatrix(variable.getValue())));
+            expression = text;
+        }
+        CommandLineInput input = new CommandLineInput(session);
+        input.setFilesAllowed(false);
+        String line = expression.strip();
+        Future<Matrix> evaluation = evaluations.submit(() -> input.evaluateTerm(line));
+        Matrix result;
+        try {
+            result = evaluation.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException exception) {
+            evaluation.cancel(true);
+            throw exception;
+        } catch (InterruptedException exception) {
+            evaluation.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Evaluation cancelled");
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof RuntimeException cause)
+                throw cause;
+            if (exception.getCause() instanceof Error error)
+                throw error;
+            throw new IllegalStateException(exception.getCause());
+        }
+        sendMatrix(exchange, result, input.getAssignedName());
+    }
+
+    /**
+     * Returns the session of the given id, creating it if it does not exist.
+     *
+     * @throws UnsupportedOperationException if the session does not exist and there are too many sessions
+     */
+    private Session session(String id) {
+        synchronized (sessions) {
+            Session session = sessions.get(id);
+            if (session != null)
+                return session;
+            if (sessions.size() >= MAX_SESSIONS)
+                throw new UnsupportedOperationException("Too many sessions");
+            session = new Session(variablesBudget, cacheBudget);
+            sessions.put(id, session);
+            return session;
+        }
+    }
+
+    /**
+     * Removes the least recently used sessions other than the given one while the variables or the result caches
+     * of all sessions together exceed their memory budgets.
+     *
+     * @param current the id of the session used by the request, which is kept
+     */
+    private void evictSessions(String current) {
+        synchronized (sessions) {
+            long variables = 0;
+            long cached = 0;
+            for (Session session : sessions.values()) {
+                variables += session.usedBytes();
+                cached += session.getResultCache().usedBytes();
+            }
+            Iterator<Map.Entry<String, Session>> iterator = sessions.entrySet().iterator();
+            while ((variables > variablesBudget || cached > cacheBudget) && iterator.hasNext()) {
+                Map.Entry<String, Session> entry = iterator.next();
+                if (entry.getKey().equals(current))
+                    continue;
+                variables -= entry.getValue().usedBytes();
+                cached -= entry.getValue().getResultCache().usedBytes();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Binds a matrix sent by a client to a variable of a session.
+     *
+     * @throws IllegalArgumentException if the name is not a valid variable name or is reserved
+     */
+    private static void bind(Session session, String name, Matrix matrix) {
+        if (!name.matches("[A-Za-z_][A-Za-z0-9_]*") || CommandLineInput.isReservedName(name))
+            throw new IllegalArgumentException(name + " is not a valid variable name");
+        session.bind(name, matrix);
+    }
+
+    /**
+     * Reads the matrix in the body of a request, binary or JSON depending on its content type.
+     */
+    private Matrix readMatrix(HttpExchange exchange) throws IOException {
+        byte[] body = readBody(exchange);
+        if (BINARY.equals(contentType(exchange))) {
+            try {
+                return MatrixFile.decode(body);
+            } catch (IOException exception) {
+                throw new IllegalArgumentException(exception.getMessage());
+            }
+        }
+        return Json.toMatrix(Json.parse(new String(body, StandardCharsets.UTF_8), MATRIX_DEPTH));
+    }
+
+    /**
+     * Reads the body of a request, checking its declared length first and stopping the read one byte past the
+     * maximal size.
+     *
+     * @throws BodyTooLargeException if the body is larger than the maximal size
+     */
+    private byte[] readBody(HttpExchange exchange) throws IOException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null) {
+            try {
+                if (Long.parseLong(length.trim()) > maxBodyBytes)
+                    throw new BodyTooLargeException(maxBodyBytes);
+            } catch (NumberFormatException exception) {
+                throw new IllegalArgumentException("Invalid Content-Length " + length);
+            }
+        }
+        byte[] body = exchange.getRequestBody().readNBytes(maxBodyBytes + 1);
+        if (body.length > maxBodyBytes)
+            throw new BodyTooLargeException(maxBodyBytes);
+        return body;
+    }
+
+    /**
+     * Sends a matrix, binary if the request accepts it and JSON otherwise.
+     *
+     * @param name the name the matrix was bound to, or null
+     */
+    private static void sendMatrix(HttpExchange exchange, Matrix matrix, String name) throws IOException {
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        OperationStats.Timer timer = OperationStats.start();
+        if (accept != null && accept.contains(BINARY)) {
+            byte[] bytes = MatrixFile.encode(matrix);
+            timer.stop("format", OperationStats.Shape.of(matrix, null), 0);
+            exchange.getResponseHeaders().set("Content-Type", BINARY);
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+            return;
+        }
+        StringBuilder json = new StringBuilder(16 + 12 * matrix.rows * matrix.cols).append('{');
+        if (name != null)
+            json.append("\"name\":").append(Json.quote(name)).append(',');
+        json.append("\"rows\":").append(matrix.rows).append(",\"cols\":").append(matrix.cols).append(",\"values\":");
+        Json.appendMatrix(json, matrix);
+        String text = json.append('}').toString();
+        timer.stop("format", OperationStats.Shape.of(matrix, null), 0);
+        sendJson(exchange, 200, text);
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        sendJson(exchange, status, "{\"error\":" + Json.quote(String.valueOf(message)) + "}");
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", JSON);
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static boolean isJson(HttpExchange exchange) {
+        return JSON.equals(contentType(exchange));
+    }
+
+    /**
+     * Returns the media type of the body of a request without its parameters, or null if it has none.
+     */
+    private static String contentType(HttpExchange exchange) {
+        List<String> types = exchange.getRequestHeaders().get("Content-Type");
+        if (types == null || types.isEmpty())
+            return null;
+        return types.get(0).split(";")[0].trim().toLowerCase();
+    }
+
+    /**
+     * Returns whether the request uses the expected method, sending the error 405 if it does not.
+     */
+    private static boolean allowed(HttpExchange exchange, String expected) throws IOException {
+        if (exchange.getRequestMethod().equals(expected))
+            return true;
+        exchange.getResponseHeaders().set("Allow", expected);
+        sendError(exchange, 405, exchange.getRequestMethod() + " is not allowed, use " + expected);
+        return false;
+    }
+
+    /**
+     * Thrown when the body of a request is larger than the maximal size, answered with status 413.
+     */
+    private static final class BodyTooLargeException extends RuntimeException {
+        BodyTooLargeException(int maxBodyBytes) {
+            super("Request body is larger than " + maxBodyBytes + " B");
+        }
+    }
+}
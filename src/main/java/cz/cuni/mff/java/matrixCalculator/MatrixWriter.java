@@ -0,0 +1,238 @@
+/**
+ * The MatrixWriter class streams matrices to a channel, such as the standard output or a file, through one
+ * reusable byte buffer. In text form the values are formatted by {@link FloatFormatter} directly into the buffer,
+ * which is written to the channel whenever it fills up, so that printing a large result needs neither a String of
+ * the whole matrix nor one String per value. The text is the same as {@link Matrix#toString()} or
+ * {@link Matrix#stringRepresentationWithBrackets()} would return. In binary form a matrix is written in the format
+ * of {@link MatrixFile}, a header followed by the raw little-endian floats, so that a result written to a file
+ * can be loaded again.
+ * <p>
+ * Matrices without a dense array, such as tiled or transposed ones, are copied a block of rows at a time, so that
+ * matrices stored on disk are written without loading them as a whole. Sparse matrices are expanded as a whole,
+ * since a block of rows of a matrix in CSC form takes a pass over all of its values.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+final class MatrixWriter implements Closeable, Flushable {
+    /** Number of bytes of the buffer */
+    private static final int BUFFER = 1 << 16;
+    /** Maximal number of values of a block of rows copied from a matrix without a dense array */
+    private static final int BLOCK = 1 << 14;
+
+    /** The channel the buffer is written to */
+    private final WritableByteChannel channel;
+    /** The character set of text other than matrices */
+    private final Charset charset;
+    /** The buffer, in little-endian order for the binary form */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Constructs a MatrixWriter writing to the given channel.
+     *
+     * @param channel the channel receiving the output
+     * @param charset the character set of the text written by {@link #write(String)}
+     */
+    MatrixWriter(WritableByteChannel channel, Charset charset) {
+        this.channel = channel;
+        this.charset = charset;
+    }
+
+    /**
+     * Returns the text of a matrix, as written by {@link #text(Matrix, boolean)}.
+     *
+     * @param matrix the matrix to format
+     * @param brackets whether the matrix is formatted in the same format as the input
+     * @return the text of the matrix
+     */
+    static String format(Matrix matrix, boolean brackets) {
+        var bytes = new ByteArrayOutputStream();
+        try (var writer = new MatrixWriter(Channels.newChannel(bytes), StandardCharsets.US_ASCII)) {
+            writer.text(matrix, brackets);
+        } catch (IOException exception) {
+            // writing to memory does not fail
+            throw new UncheckedIOException(exception);
+        }
+        return bytes.toString(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Writes the values of a matrix as text. Without brackets, every value is followed by a space and every row by
+     * a newline; with brackets, the matrix is written as an input literal, such as {@code [ 1.0 2.0 ; 3.0 4.0 ]}.
+     *
+     * @param matrix the matrix to write
+     * @param brackets whether the matrix is written in the same format as the input
+     * @throws IOException if the channel cannot be written
+     */
+    void text(Matrix matrix, boolean brackets) throws IOException {
+        if (brackets)
+            put((byte) '[');
+        Rows rows = new Rows(matrix);
+        for (int i = 0; i < matrix.rows; i++) {
+            float[] values = rows.array(i);
+            int offset = rows.offset(i);
+            for (int j = 0; j < matrix.cols; j++) {
+                if (buffer.remaining() < FloatFormatter.MAX_LENGTH + 3)
+                    drain();
+                byte[] array = buffer.array();
+                int position = buffer.position();
+                if (brackets)
+                    array[position++] = ' ';
+                position = FloatFormatter.format(values[offset + j], array, position);
+                if (!brackets)
+                    array[position++] = ' ';
+                buffer.position(position);
+            }
+            if (!brackets)
+                put((byte) '\n');
+            else if (matrix.rows > 1 && i != matrix.rows - 1) {
+                put((byte) ' ');
+                put((byte) ';');
+            }
+        }
+        if (brackets) {
+            put((byte) ' ');
+            put((byte) ']');
+        }
+    }
+
+    /**
+     * Writes a matrix in the binary format of {@link MatrixFile}: the header and the values in row-major order as
+     * little-endian floats.
+     *
+     * @param matrix the matrix to write
+     * @throws IOException if the channel cannot be written
+     */
+    void binary(Matrix matrix) throws IOException {
+        if (buffer.remaining() < MatrixFile.HEADER)
+            drain();
+        buffer.putInt(MatrixFile.MAGIC).putInt(MatrixFile.FLOAT32).putInt(matrix.rows).putInt(matrix.cols);
+        Rows rows = new Rows(matrix);
+        for (int i = 0; i < matrix.rows; i++) {
+            float[] values = rows.array(i);
+            int offset = rows.offset(i);
+            int written = 0;
+            while (written < matrix.cols) {
+                if (buffer.remaining() < Float.BYTES)
+                    drain();
+                int length = Math.min(buffer.remaining() / Float.BYTES, matrix.cols - written);
+                buffer.asFloatBuffer().put(values, offset + written, length);
+                buffer.position(buffer.position() + length * Float.BYTES);
+                written += length;
+            }
+        }
+    }
+
+    /**
+     * Writes text in the character set of the writer.
+     *
+     * @param text the text to write
+     * @throws IOException if the channel cannot be written
+     */
+    void write(String text) throws IOException {
+        byte[] bytes = text.getBytes(charset);
+        for (int written = 0; written < bytes.length; ) {
+            if (!buffer.hasRemaining())
+                drain();
+            int length = Math.min(buffer.remaining(), bytes.length - written);
+            buffer.put(bytes, written, length);
+            written += length;
+        }
+    }
+
+    /**
+     * Writes the line separator of the platform.
+     *
+     * @throws IOException if the channel cannot be written
+     */
+    void newLine() throws IOException {
+        write(System.lineSeparator());
+    }
+
+    /**
+     * Writes the buffered output to the channel.
+     *
+     * @throws IOException if the channel cannot be written
+     */
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    /**
+     * Writes the buffered output and closes the channel.
+     *
+     * @throws IOException if the channel cannot be written or closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void put(byte value) throws IOException {
+        if (!buffer.hasRemaining())
+            drain();
+        buffer.put(value);
+    }
+
+    /**
+     * Writes the whole content of the buffer to the channel and empties it.
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * The rows of a matrix as positions in arrays: the array of a dense matrix, otherwise a buffer the rows are
+     * copied to a block at a time.
+     */
+    private static final class Rows {
+        private final Matrix matrix;
+        private final float[] block;
+        private final int height;
+        private int first = -1;
+
+        Rows(Matrix matrix) {
+            if (matrix instanceof SparseMatrix)
+                matrix = matrix.inMemory();
+            this.matrix = matrix;
+            this.height = matrix.data != null ? 0 : Math.max(1, Math.min(matrix.rows, BLOCK / matrix.cols));
+            this.block = matrix.data != null ? null : new float[height * matrix.cols];
+        }
+
+        /** Returns the array holding row i, which must be requested in increasing order. */
+        float[] array(int i) {
+            if (block == null)
+                return matrix.data;
+            if (first < 0 || i >= first + height) {
+                first = i;
+                matrix.copyBlock(first, 0, Math.min(height, matrix.rows - first), matrix.cols, block);
+            }
+            return block;
+        }
+
+        /** Returns the position of row i in the array returned by {@link #array(int)}. */
+        int offset(int i) {
+            return block == null ? i * matrix.stride : (i - first) * matrix.cols;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * Algorithms available for matrix multiplication: classic is the cache-blocked O(n^3) kernel, strassen is the
+ * Strassen-Winograd recursion on top of it, automatic chooses strassen only for products whose dimensions are
+ * all at least twice the crossover size.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+public enum MultiplicationAlgorithm {
+    classic,
+    strassen,
+    automatic
+}
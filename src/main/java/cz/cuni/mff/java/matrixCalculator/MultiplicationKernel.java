@@ -0,0 +1,217 @@
+/**
+ * The MultiplicationKernel class contains the cache-blocked matrix multiplication used by Matrix.multiplication.
+ * The product is computed tile by tile: a block of rows of the result is updated with a block of the shared
+ * dimension at a time, and inside a tile the loops run in i-k-j order so that both the second operand and
+ * the result are read along their rows. The innermost micro-kernel updates four result rows at once, which
+ * lets every loaded value of the second operand be reused four times from a register. A first operand that is a
+ * {@link TransposedMatrix} is read in place along the columns of its base, where the four values of a micro-kernel
+ * step are adjacent; a transposed second operand, which the kernel reads along its rows, is copied first.
+ * The tile sizes can be configured to match the cache sizes of the host. Large products are split into
+ * blocks of result rows which are computed in parallel on the {@link ComputePool}.
+ * The class also holds the global choice of the {@link MultiplicationAlgorithm} used by Matrix.multiplication.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.security.InvalidParameterException;
+import java.util.concurrent.RecursiveAction;
+
+public final class MultiplicationKernel {
+    /** Number of result rows computed in one tile */
+    private static volatile int rowTile = 64;
+    /** Length of the shared dimension processed in one tile */
+    private static volatile int depthTile = 256;
+    /** Number of result columns computed in one tile */
+    private static volatile int colTile = 512;
+    /** Algorithm used when none is given explicitly */
+    private static volatile MultiplicationAlgorithm algorithm = MultiplicationAlgorithm.classic;
+
+    private MultiplicationKernel() {
+    }
+
+    /**
+     * Sets the tile sizes used by the blocked multiplication.
+     *
+     * @param rows the number of result rows in one tile
+     * @param depth the length of the shared dimension in one tile
+     * @param cols the number of result columns in one tile
+     * @throws InvalidParameterException if any of the sizes is not positive
+     */
+    public static void setTileSizes(int rows, int depth, int cols) {
+        if (rows <= 0 || depth <= 0 || cols <= 0)
+            throw new InvalidParameterException("Tile sizes must be positive");
+        rowTile = rows;
+        depthTile = depth;
+        colTile = cols;
+    }
+
+    /**
+     * Returns the tile sizes used by the blocked multiplication.
+     *
+     * @return an integer array containing the row, depth and column tile sizes, respectively
+     */
+    public static int[] getTileSizes() {
+        return new int[]{rowTile, depthTile, colTile};
+    }
+
+    /**
+     * Sets the algorithm used by Matrix.multiplication when none is given explicitly.
+     *
+     * @param defaultAlgorithm the algorithm to use
+     */
+    public static void setAlgorithm(MultiplicationAlgorithm defaultAlgorithm) {
+        algorithm = defaultAlgorithm;
+    }
+
+    /**
+     * Returns the algorithm used by Matrix.multiplication when none is given explicitly.
+     *
+     * @return the default multiplication algorithm
+     */
+    public static MultiplicationAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Sets the size at or below which the Strassen-Winograd recursion hands off to the blocked kernel.
+     *
+     * @param size the crossover size
+     * @throws InvalidParameterException if the size is smaller than 2
+     */
+    public static void setStrassenCrossover(int size) {
+        StrassenMultiplication.setCrossover(size);
+    }
+
+    /**
+     * Multiplies two matrices of matching dimensions with the given algorithm.
+     *
+     * @param A the first operand
+     * @param B the second operand
+     * @param chosen the algorithm to use
+     * @return the product of the two matrices
+     */
+    static Matrix multiply(Matrix A, Matrix B, MultiplicationAlgorithm chosen) {
+        if (chosen == MultiplicationAlgorithm.strassen
+                || chosen == MultiplicationAlgorithm.automatic && StrassenMultiplication.worthwhile(A.rows, A.cols, B.cols))
+            return StrassenMultiplication.multiply(A.inMemory(), B.inMemory());
+        var result = new float[A.rows * B.cols];
+        multiply(A, B, result);
+        return new Matrix(A.rows, B.cols, result);
+    }
+
+    /**
+     * Computes the product of A and B and adds it to C. The result rows are split into blocks computed in
+     * parallel when the product is large enough and the parallel path is enabled in {@link ComputePool}.
+     *
+     * @param A the first operand, dense or a transposed view
+     * @param B the second operand, dense or a transposed view
+     * @param c the row-major result array with row length {@code B.cols}
+     */
+    static void multiply(Matrix A, Matrix B, float[] c) {
+        B = B.inMemory();
+        long flops = 2L * A.rows * A.cols * B.cols;
+        if (A.rows > rowTile && ComputePool.useParallel(flops))
+            ComputePool.pool().invoke(new RowBlockTask(A, B, c, 0, A.rows));
+        else
+            multiply(A, B, c, 0, A.rows);
+    }
+
+    /**
+     * Computes the rows {@code rowStart} to {@code rowEnd - 1} of the product of A and B and adds them to C.
+     *
+     * @param A the first operand
+     * @param B the second operand
+     * @param c the row-major result array with row length {@code B.cols}
+     * @param rowStart the first result row to compute
+     * @param rowEnd the row after the last result row to compute
+     */
+    static void multiply(Matrix A, Matrix B, float[] c, int rowStart, int rowEnd) {
+        int depth = A.cols;
+        int colB = B.cols;
+        int rowStep = rowTile;
+        int depthStep = depthTile;
+        int colStep = colTile;
+
+        for (int ii = rowStart; ii < rowEnd; ii += rowStep) {
+            int iEnd = Math.min(ii + rowStep, rowEnd);
+            for (int kk = 0; kk < depth; kk += depthStep) {
+                int kEnd = Math.min(kk + depthStep, depth);
+                for (int jj = 0; jj < colB; jj += colStep) {
+                    int jEnd = Math.min(jj + colStep, colB);
+                    multiplyTile(A, B, c, ii, iEnd, kk, kEnd, jj, jEnd);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the product of the tile A[iStart..iEnd, kStart..kEnd] and B[kStart..kEnd, jStart..jEnd] to C.
+     * Four rows of the result are updated together; the remaining rows are handled one at a time.
+     * The value of A at row i and column k is read at {@code i * rowStepA + k * colStepA}, which covers both
+     * dense matrices and transposed views.
+     */
+    private static void multiplyTile(Matrix A, Matrix B, float[] c,
+                                     int iStart, int iEnd, int kStart, int kEnd, int jStart, int jEnd) {
+        float[] a = A.data;
+        int rowStepA = A.stride;
+        int colStepA = 1;
+        if (A instanceof TransposedMatrix view) {
+            a = view.base.data;
+            rowStepA = 1;
+            colStepA = view.base.stride;
+        }
+        float[] b = B.data;
+        int strideB = B.stride;
+        int strideC = B.cols;
+
+        int i = iStart;
+        for (; i + 3 < iEnd; i += 4) {
+            int c0 = i * strideC;
+            int a0 = i * rowStepA;
+            for (int k = kStart; k < kEnd; k++) {
+                int offsetA = a0 + k * colStepA;
+                float valueA0 = a[offsetA];
+                float valueA1 = a[offsetA + rowStepA];
+                float valueA2 = a[offsetA + 2 * rowStepA];
+                float valueA3 = a[offsetA + 3 * rowStepA];
+                RowKernels.multiplyAdd4(valueA0, valueA1, valueA2, valueA3,
+                        b, k * strideB + jStart, c, c0 + jStart, strideC, jEnd - jStart);
+            }
+        }
+        for (; i < iEnd; i++) {
+            int offsetC = i * strideC;
+            int offsetA = i * rowStepA;
+            for (int k = kStart; k < kEnd; k++)
+                RowKernels.multiplyAdd(a[offsetA + k * colStepA], b, k * strideB + jStart, c, offsetC + jStart, jEnd - jStart);
+        }
+    }
+
+    /**
+     * A fork-join task computing a block of result rows. Blocks larger than one row tile are split in half.
+     */
+    private static class RowBlockTask extends RecursiveAction {
+        private final Matrix A;
+        private final Matrix B;
+        private final float[] c;
+        private final int rowStart;
+        private final int rowEnd;
+
+        RowBlockTask(Matrix A, Matrix B, float[] c, int rowStart, int rowEnd) {
+            this.A = A;
+            this.B = B;
+            this.c = c;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+        }
+
+        @Override
+        protected void compute() {
+            if (rowEnd - rowStart <= rowTile) {
+                multiply(A, B, c, rowStart, rowEnd);
+                return;
+            }
+            int middle = rowStart + (rowEnd - rowStart) / 2;
+            invokeAll(new RowBlockTask(A, B, c, rowStart, middle), new RowBlockTask(A, B, c, middle, rowEnd));
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/**
+ * The OperationStats class counts where the time of the calculator goes: every matrix operation, every fused pass
+ * of element-wise operations, the parsing of every input and the formatting of every result is measured. For each
+ * kind of work it keeps the number of calls, a histogram of their wall times, the bytes allocated by the measuring
+ * thread, the estimated floating point operations and how often each of the first few distinct operand shapes
+ * occurred. The estimated floating point operations of the evaluated expressions as written and after the
+ * reordering of their chains of multiplications are summed as well. The counters are shared by all threads and
+ * sessions and are updated without locks.
+ * <p>
+ * Every measurement is also emitted as the Java Flight Recorder event {@code matrixCalculator.Operation}, so that
+ * a recording shows the operations alongside the garbage collections and the other events of the JVM. The event
+ * costs nothing while no recording is running.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+final class OperationStats {
+    /** Number of buckets of the histograms; bucket b counts wall times in [2^b, 2^(b+1)) nanoseconds */
+    private static final int BUCKETS = 48;
+    /** Maximal number of distinct shapes counted per kind of work, further shapes are counted together */
+    private static final int MAX_SHAPES = 8;
+    /** Percentiles of the wall times shown by {@link #describe()} */
+    private static final double[] PERCENTILES = {50, 99};
+    /** The per-thread allocation counter of the JVM, or null if it is not available */
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationCounter();
+
+    /** Counters by the name of the kind of work */
+    private static final ConcurrentMap<String, Counters> COUNTERS = new ConcurrentHashMap<>();
+    /** Number of evaluated expressions, of those whose chains of multiplications were reordered */
+    private static final LongAdder EXPRESSIONS = new LongAdder();
+    private static final LongAdder REORDERED = new LongAdder();
+    /** Estimated floating point operations of the evaluated expressions as written and as evaluated */
+    private static final LongAdder FLOPS_WRITTEN = new LongAdder();
+    private static final LongAdder FLOPS_EVALUATED = new LongAdder();
+
+    private OperationStats() {
+    }
+
+    /**
+     * Starts measuring a piece of work on the current thread.
+     *
+     * @return the running measurement, to be stopped on the same thread
+     */
+    static Timer start() {
+        return new Timer();
+    }
+
+    /**
+     * Adds the estimated floating point operations of an evaluated expression before and after its chains of
+     * multiplications were reordered.
+     *
+     * @param written the estimated floating point operations of the expression as written
+     * @param evaluated the estimated floating point operations of the expression as evaluated
+     */
+    static void recordReordering(long written, long evaluated) {
+        EXPRESSIONS.increment();
+        if (evaluated != written)
+            REORDERED.increment();
+        FLOPS_WRITTEN.add(written);
+        FLOPS_EVALUATED.add(evaluated);
+    }
+
+    /**
+     * Returns a table of the measured kinds of work, the most expensive first, followed by the estimated floating
+     * point operations of the evaluated expressions before and after reordering.
+     *
+     * @return one line per kind of work, or a note that nothing was measured
+     */
+    static String describe() {
+        List<Map.Entry<String, Counters>> entries = new ArrayList<>(COUNTERS.entrySet());
+        if (entries.isEmpty() && EXPRESSIONS.sum() == 0)
+            return "No operations measured";
+        entries.sort(Comparator.comparingLong((Map.Entry<String, Counters> entry) -> entry.getValue().nanos.sum())
+                .reversed());
+        StringBuilder table = new StringBuilder();
+        for (var entry : entries) {
+            if (!table.isEmpty())
+                table.append(System.lineSeparator());
+            entry.getValue().describe(entry.getKey(), table);
+        }
+        long expressions = EXPRESSIONS.sum();
+        if (expressions > 0) {
+            if (!table.isEmpty())
+                table.append(System.lineSeparator());
+            table.append("reordering: ").append(expressions)
+                    .append(expressions == 1 ? " expression, " : " expressions, ")
+                    .append(REORDERED.sum()).append(" reordered, ")
+                    .append(scaled(FLOPS_WRITTEN.sum(), "flops")).append(" as written, ")
+                    .append(scaled(FLOPS_EVALUATED.sum(), "flops")).append(" as evaluated");
+        }
+        return table.toString();
+    }
+
+    /**
+     * Clears all counters.
+     */
+    static void reset() {
+        COUNTERS.clear();
+        EXPRESSIONS.reset();
+        REORDERED.reset();
+        FLOPS_WRITTEN.reset();
+        FLOPS_EVALUATED.reset();
+    }
+
+    /**
+     * Returns an amount with a decimal prefix, such as {@code 1.5 MB}.
+     */
+    private static String scaled(long amount, String unit) {
+        if (amount < 1000)
+            return amount + " " + unit;
+        String prefixes = "kMGTPE";
+        double value = amount;
+        int prefix = -1;
+        while (value >= 1000 && prefix < prefixes.length() - 1) {
+            value /= 1000;
+            prefix++;
+        }
+        return String.format("%.1f %c%s", value, prefixes.charAt(prefix), unit);
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        try {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                    && threads.isThreadAllocatedMemorySupported()) {
+                threads.setThreadAllocatedMemoryEnabled(true);
+                return threads;
+            }
+        } catch (UnsupportedOperationException | SecurityException exception) {
+            // the allocations are reported as zero
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        return ALLOCATIONS == null ? 0 : ALLOCATIONS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * A running measurement of one piece of work.
+     */
+    static final class Timer {
+        private final long startNanos;
+        private final long startBytes;
+        private final OperationEvent event = new OperationEvent();
+
+        private Timer() {
+            event.begin();
+            startBytes = allocatedBytes();
+            startNanos = System.nanoTime();
+        }
+
+        /**
+         * Stops the measurement and adds it to the counters of its kind of work.
+         *
+         * @param name the kind of work, such as the name of an operator
+         * @param shape the shape of the operands, or null if the work has none
+         * @param flops the estimated number of floating point operations
+         */
+        void stop(String name, Shape shape, long flops) {
+            long nanos = System.nanoTime() - startNanos;
+            long bytes = allocatedBytes() - startBytes;
+            COUNTERS.computeIfAbsent(name, key -> new Counters()).add(nanos, bytes, flops, shape);
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = name;
+                event.shape = shape == null ? null : shape.toString();
+                event.flops = flops;
+                event.allocated = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * The counters of one kind of work.
+     */
+    private static final class Counters {
+        final LongAdder calls = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder flops = new LongAdder();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+        final ConcurrentMap<Shape, LongAdder> shapes = new ConcurrentHashMap<>();
+        final LongAdder otherShapes = new LongAdder();
+
+        void add(long nanos, long bytes, long flops, Shape shape) {
+            calls.increment();
+            this.nanos.add(nanos);
+            this.bytes.add(bytes);
+            this.flops.add(flops);
+            histogram.incrementAndGet(Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(nanos, 1))));
+            if (shape == null)
+                return;
+            LongAdder count = shapes.get(shape);
+            if (count == null && shapes.size() < MAX_SHAPES)
+                count = shapes.computeIfAbsent(shape, key -> new LongAdder());
+            if (count == null)
+                otherShapes.increment();
+            else
+                count.increment();
+        }
+
+        void describe(String name, StringBuilder line) {
+            long count = calls.sum();
+            line.append(name).append(": ").append(count).append(count == 1 ? " call, " : " calls, ")
+                    .append(String.format("%.3f ms total", nanos.sum() / 1e6));
+            for (double percentile : PERCENTILES)
+                line.append(String.format(", p%.0f <= %.3f ms", percentile, upperBound(percentile) / 1e6));
+            line.append(", ").append(scaled(bytes.sum(), "B")).append(" allocated");
+            if (flops.sum() > 0)
+                line.append(", ").append(scaled(flops.sum(), "flops"));
+            if (shapes.isEmpty())
+                return;
+            List<Map.Entry<Shape, LongAdder>> sorted = new ArrayList<>(shapes.entrySet());
+            sorted.sort(Comparator.comparingLong((Map.Entry<Shape, LongAdder> entry) -> entry.getValue().sum())
+                    .reversed());
+            line.append(", shapes");
+            for (int i = 0; i < sorted.size(); i++)
+                line.append(i == 0 ? " " : "; ").append(sorted.get(i).getKey())
+                        .append(" (").append(sorted.get(i).getValue().sum()).append(')');
+            if (otherShapes.sum() > 0)
+                line.append("; others (").append(otherShapes.sum()).append(')');
+        }
+
+        /**
+         * Returns the upper bound of the histogram bucket holding the given percentile of the wall times.
+         */
+        private long upperBound(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++)
+                total += counts[bucket] = histogram.get(bucket);
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS - 1; bucket++) {
+                seen += counts[bucket];
+                if (seen >= rank)
+                    return 2L << bucket;
+            }
+            return 2L << (BUCKETS - 1);
+        }
+    }
+
+    /**
+     * The shapes of the operands of a piece of work, one matrix or two.
+     *
+     * @param rows the number of rows of the first operand
+     * @param cols the number of columns of the first operand
+     * @param rows2 the number of rows of the second operand, or -1 if there is none
+     * @param cols2 the number of columns of the second operand, or -1 if there is none
+     */
+    record Shape(int rows, int cols, int rows2, int cols2) {
+        /**
+         * Returns the shape of the operands of an operation.
+         *
+         * @param A the first or only operand
+         * @param B the second operand, or null
+         * @return the shape
+         */
+        static Shape of(Matrix A, Matrix B) {
+            return B == null ? new Shape(A.rows, A.cols, -1, -1) : new Shape(A.rows, A.cols, B.rows, B.cols);
+        }
+
+        /**
+         * Returns the shape of a single matrix.
+         *
+         * @param rows the number of rows
+         * @param cols the number of columns
+         * @return the shape
+         */
+        static Shape of(int rows, int cols) {
+            return new Shape(rows, cols, -1, -1);
+        }
+
+        @Override
+        public String toString() {
+            String shape = rows + "x" + cols;
+            return rows2 < 0 ? shape : shape + ", " + rows2 + "x" + cols2;
+        }
+    }
+
+    /**
+     * The flight recorder event of one measured piece of work.
+     */
+    @Name("matrixCalculator.Operation")
+    @Label("Matrix Operation")
+    @Category("Matrix Calculator")
+    @Description("A matrix operation, fused element-wise pass, parse of an input or formatting of a result")
+    static final class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Operand Shapes")
+        String shape;
+        @Label("Floating Point Operations")
+        long flops;
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+}
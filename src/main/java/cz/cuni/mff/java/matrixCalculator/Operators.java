@@ -1,6 +1,6 @@
 /**
- * Operations supported by the Matrix Calculator: openBracket, transpose, ref, inverse, rref, multiplication, addition,
- * subtraction, closedBracket
+ * Operations supported by the Matrix Calculator: openBracket, transpose, ref, inverse, rref, det, rank, power,
+ * solve, multiplication, addition, subtraction, closedBracket
  */
 
 package cz.cuni.mff.java.matrixCalculator;
@@ -11,6 +11,10 @@ public enum Operators {
     ref,
     inverse,
     rref,
+    det,
+    rank,
+    power,
+    solve,
     multiplication,
     subtraction,
     addition,
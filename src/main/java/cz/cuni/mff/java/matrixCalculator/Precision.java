@@ -0,0 +1,14 @@
+/**
+ * Precisions of the arithmetic of the operations based on the LU factorization, that is the inverse, the determinant
+ * and the solution of linear systems: float32 factors and substitutes in float, float64 factors and substitutes in
+ * double, mixed factors in float and refines the solutions with residuals computed in double. The operands and the
+ * results are stored in float in all three cases.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+public enum Precision {
+    float32,
+    mixed,
+    float64
+}
@@ -0,0 +1,240 @@
+/**
+ * The ResultCache class memoizes the results of expensive matrix operations, so that a sub-expression such as
+ * {@code inverse(X)} or {@code transpose(W) * W} that is evaluated again with the same operand values is not
+ * recomputed. Entries are keyed by the operator and the contents of the operands. Operands and results held by
+ * the cache are frozen, so that neither the cache nor its callers can change them for each other.
+ * The cache has a memory budget counting the values of the operands and results it holds; when a new entry
+ * does not fit, the least recently used entries are evicted. Operations involving matrices stored on disk
+ * are not cached.
+ * <p>
+ * The cache is shared by the threads evaluating concurrent subtrees, batch lines and server requests. The content
+ * hashes of the operands, which take O(rows * cols) for mutable matrices, are computed before the lock of the cache
+ * is taken, so that the lock is held only for the operations on the map of entries.
+ * <p>
+ * Besides results, the cache holds LU decompositions keyed by the contents of the factored matrix, so that
+ * solving, inverting or taking the determinant of the same matrix again reuses its factors in O(n^2) instead of
+ * factoring it again in O(n^3).
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.security.InvalidParameterException;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+
+public class ResultCache {
+    /** Cached results and LU decompositions in the order of their last use */
+    private final LinkedHashMap<Key, Object> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** Maximal number of bytes of matrix data held by the cache */
+    private final long budget;
+    /** Number of bytes of matrix data currently held by the cache */
+    private long used = 0;
+    /** Number of lookups that found a result */
+    private long hits = 0;
+    /** Number of lookups that did not find a result */
+    private long misses = 0;
+
+    /**
+     * Constructs a ResultCache with the given memory budget.
+     *
+     * @param budget the maximal number of bytes of matrix data held by the cache, 0 disables the cache
+     * @throws InvalidParameterException if the budget is negative
+     */
+    public ResultCache(long budget) {
+        if (budget < 0)
+            throw new InvalidParameterException("Memory budget must not be negative");
+        this.budget = budget;
+    }
+
+    /**
+     * Returns whether results of the given operator are worth caching. Element-wise operators and transpose
+     * cost about as much as hashing their operands and are not cached.
+     *
+     * @param operator the operator to check
+     * @return {@code true} if results of the operator are cached
+     */
+    static boolean isCacheable(Operators operator) {
+        switch (operator) {
+            case multiplication:
+            case solve:
+            case inverse:
+            case det:
+            case rank:
+            case power:
+            case ref:
+            case rref:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Looks up the result of an operation.
+     *
+     * @param operator the operator
+     * @param A the first or only operand
+     * @param B the second operand, or {@code null} for a unary operator
+     * @return the cached result, or {@code null} if there is none
+     */
+    Matrix get(Operators operator, Matrix A, Matrix B) {
+        if (budget == 0)
+            return null;
+        return (Matrix) lookup(new Key(operator, A, B));
+    }
+
+    /**
+     * Looks up the LU decomposition of a matrix.
+     *
+     * @param A the factored matrix
+     * @return the cached decomposition, or {@code null} if there is none
+     */
+    LUDecomposition getFactors(Matrix A) {
+        if (budget == 0)
+            return null;
+        return (LUDecomposition) lookup(new Key(null, A, null));
+    }
+
+    private synchronized Object lookup(Key key) {
+        Object value = entries.get(key);
+        if (value == null)
+            misses++;
+        else
+            hits++;
+        return value;
+    }
+
+    /**
+     * Stores the result of an operation, freezing the operands and the result. Least recently used entries are
+     * evicted until the new entry fits; an entry larger than the whole budget is not stored.
+     *
+     * @param operator the operator
+     * @param A the first or only operand
+     * @param B the second operand, or {@code null} for a unary operator
+     * @param result the result of the operation
+     */
+    void put(Operators operator, Matrix A, Matrix B, Matrix result) {
+        if (budget == 0 || isOnDisk(A) || isOnDisk(B) || isOnDisk(result))
+            return;
+        store(new Key(operator, A, B), result);
+    }
+
+    /**
+     * Stores the LU decomposition of a matrix, freezing the matrix. Entries are evicted as by
+     * {@link #put(Operators, Matrix, Matrix, Matrix)}.
+     *
+     * @param A the factored matrix
+     * @param factors the decomposition of A
+     */
+    void putFactors(Matrix A, LUDecomposition factors) {
+        if (budget == 0 || isOnDisk(A))
+            return;
+        store(new Key(null, A, null), factors);
+    }
+
+    /**
+     * Adds an entry unless it is already present or larger than the budget, evicting least recently used entries
+     * until it fits. The operands and a result are frozen before the entry becomes visible to other threads.
+     */
+    private synchronized void store(Key key, Object value) {
+        long size = sizeOf(key, value);
+        if (size > budget || entries.containsKey(key))
+            return;
+        key.A.freeze();
+        if (key.B != null)
+            key.B.freeze();
+        if (value instanceof Matrix result)
+            result.freeze();
+        var iterator = entries.entrySet().iterator();
+        while (used + size > budget) {
+            var entry = iterator.next();
+            used -= sizeOf(entry.getKey(), entry.getValue());
+            iterator.remove();
+        }
+        entries.put(key, value);
+        used += size;
+    }
+
+    /**
+     * Returns the number of lookups that found a result.
+     *
+     * @return the number of cache hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that did not find a result.
+     *
+     * @return the number of cache misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of bytes of matrix data held by the cache.
+     *
+     * @return the bytes counted against the memory budget
+     */
+    synchronized long usedBytes() {
+        return used;
+    }
+
+    /**
+     * Returns a summary of the cache: its hits, misses, number of entries and memory use.
+     *
+     * @return a one line summary of the cache
+     */
+    public synchronized String describe() {
+        return "hits " + hits + ", misses " + misses + ", entries " + entries.size()
+                + ", " + used + " of " + budget + " B used";
+    }
+
+    /**
+     * Matrices stored on disk are not cached, since their scratch files would be kept alive by the cache.
+     */
+    private static boolean isOnDisk(Matrix matrix) {
+        return matrix instanceof TiledMatrix;
+    }
+
+    private static long sizeOf(Key key, Object value) {
+        long size = Session.sizeOf(key.A);
+        if (key.B != null)
+            size += Session.sizeOf(key.B);
+        if (value instanceof LUDecomposition factors)
+            return size + factors.heapSize();
+        return size + Session.sizeOf((Matrix) value);
+    }
+
+    /**
+     * The key of a cached result: the operator and the contents of its operands. The key of an LU decomposition
+     * has no operator.
+     */
+    private static final class Key {
+        final Operators operator;
+        final Matrix A;
+        final Matrix B;
+        final int hash;
+
+        Key(Operators operator, Matrix A, Matrix B) {
+            this.operator = operator;
+            this.A = A;
+            this.B = B;
+            this.hash = Objects.hash(operator, A, B);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key key))
+                return false;
+            return operator == key.operator && hash == key.hash && A.equals(key.A) && Objects.equals(B, key.B);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * The RowKernels class contains the element-wise loops shared by the matrix operations. Every loop works on a
+ * contiguous run of a flat array. When the JVM is started with {@code --add-modules jdk.incubator.vector},
+ * the loops are delegated to the SIMD implementations in {@link VectorKernels}; otherwise the scalar loops
+ * below are used. The vector path can also be turned off with {@code -DmatrixCalculator.vector=false}.
+ * Both paths perform the same floating point operations per element, so their results are identical.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+final class RowKernels {
+    /** Whether the Vector API module is present and allowed to be used */
+    static final boolean VECTOR = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && Boolean.parseBoolean(System.getProperty("matrixCalculator.vector", "true"));
+
+    private RowKernels() {
+    }
+
+    /**
+     * Computes c[cOffset + i] = a[aOffset + i] + b[bOffset + i] for i from 0 to length - 1.
+     */
+    static void add(float[] a, int aOffset, float[] b, int bOffset, float[] c, int cOffset, int length) {
+        if (VECTOR) {
+            VectorKernels.add(a, aOffset, b, bOffset, c, cOffset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++)
+            c[cOffset + i] = a[aOffset + i] + b[bOffset + i];
+    }
+
+    /**
+     * Computes c[cOffset + i] = a[aOffset + i] - b[bOffset + i] for i from 0 to length - 1.
+     */
+    static void subtract(float[] a, int aOffset, float[] b, int bOffset, float[] c, int cOffset, int length) {
+        if (VECTOR) {
+            VectorKernels.subtract(a, aOffset, b, bOffset, c, cOffset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++)
+            c[cOffset + i] = a[aOffset + i] - b[bOffset + i];
+    }
+
+    /**
+     * Computes a[offset + i] *= coefficient for i from 0 to length - 1.
+     */
+    static void scale(float[] a, int offset, int length, float coefficient) {
+        if (VECTOR) {
+            VectorKernels.scale(a, offset, length, coefficient);
+            return;
+        }
+        for (int i = 0; i < length; i++)
+            a[offset + i] *= coefficient;
+    }
+
+    /**
+     * Computes c[cOffset + i] += alpha * b[bOffset + i] for i from 0 to length - 1.
+     */
+    static void multiplyAdd(float alpha, float[] b, int bOffset, float[] c, int cOffset, int length) {
+        if (VECTOR) {
+            VectorKernels.multiplyAdd(alpha, b, bOffset, c, cOffset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++)
+            c[cOffset + i] += alpha * b[bOffset + i];
+    }
+
+    /**
+     * Adds alpha0 to alpha3 times the same run of b to four runs of c that are {@code strideC} apart.
+     * This is the micro-kernel of the blocked multiplication.
+     */
+    static void multiplyAdd4(float alpha0, float alpha1, float alpha2, float alpha3, float[] b, int bOffset,
+                             float[] c, int cOffset, int strideC, int length) {
+        if (VECTOR) {
+            VectorKernels.multiplyAdd4(alpha0, alpha1, alpha2, alpha3, b, bOffset, c, cOffset, strideC, length);
+            return;
+        }
+        int c0 = cOffset;
+        int c1 = c0 + strideC;
+        int c2 = c1 + strideC;
+        int c3 = c2 + strideC;
+        for (int i = 0; i < length; i++) {
+            float valueB = b[bOffset + i];
+            c[c0 + i] += alpha0 * valueB;
+            c[c1 + i] += alpha1 * valueB;
+            c[c2 + i] += alpha2 * valueB;
+            c[c3 + i] += alpha3 * valueB;
+        }
+    }
+
+    /**
+     * Double version of {@link #multiplyAdd(float, float[], int, float[], int, int)}, used by the factorizations
+     * in double precision.
+     */
+    static void multiplyAdd(double alpha, double[] b, int bOffset, double[] c, int cOffset, int length) {
+        if (VECTOR) {
+            VectorKernels.multiplyAdd(alpha, b, bOffset, c, cOffset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++)
+            c[cOffset + i] += alpha * b[bOffset + i];
+    }
+
+    /**
+     * Double version of {@link #multiplyAdd4(float, float, float, float, float[], int, float[], int, int, int)},
+     * used by the factorizations in double precision.
+     */
+    static void multiplyAdd4(double alpha0, double alpha1, double alpha2, double alpha3, double[] b, int bOffset,
+                             double[] c, int cOffset, int strideC, int length) {
+        if (VECTOR) {
+            VectorKernels.multiplyAdd4(alpha0, alpha1, alpha2, alpha3, b, bOffset, c, cOffset, strideC, length);
+            return;
+        }
+        int c0 = cOffset;
+        int c1 = c0 + strideC;
+        int c2 = c1 + strideC;
+        int c3 = c2 + strideC;
+        for (int i = 0; i < length; i++) {
+            double valueB = b[bOffset + i];
+            c[c0 + i] += alpha0 * valueB;
+            c[c1 + i] += alpha1 * valueB;
+            c[c2 + i] += alpha2 * valueB;
+            c[c3 + i] += alpha3 * valueB;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * The Session class stores the matrices bound to names by assignments such as {@code A = [1 2; 3 4]}, so that
+ * they are parsed once and can be used as operands on later lines. The store has a memory budget; when a new
+ * binding does not fit, the least recently used bindings are evicted until it does. Bound matrices are frozen.
+ * A matrix bound to several names, as after {@code B = A}, is counted against the budget once.
+ * The session also owns the ResultCache shared by all expressions evaluated in it.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.security.InvalidParameterException;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class Session {
+    /** Bound matrices in the order of their last use */
+    private final LinkedHashMap<String, Matrix> variables = new LinkedHashMap<>(16, 0.75f, true);
+    /** Number of names every bound matrix is bound to */
+    private final IdentityHashMap<Matrix, Integer> references = new IdentityHashMap<>();
+    /** Maximal number of bytes of matrix data held by the store */
+    private final long budget;
+    /** Number of bytes of matrix data currently held by the store */
+    private long used = 0;
+    /** Cache of the results of expensive operations */
+    private final ResultCache resultCache;
+
+    /**
+     * Constructs a Session whose store may use a quarter and whose result cache an eighth of the maximal heap size.
+     */
+    public Session() {
+        this(Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * Constructs a Session with the given memory budget and a result cache using an eighth of the maximal heap size.
+     *
+     * @param budget the maximal number of bytes of matrix data held by the store
+     * @throws InvalidParameterException if the budget is not positive
+     */
+    public Session(long budget) {
+        this(budget, Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    /**
+     * Constructs a Session with the given memory budgets of the store and of the result cache.
+     *
+     * @param budget the maximal number of bytes of matrix data held by the store
+     * @param cacheBudget the maximal number of bytes of matrix data held by the result cache, 0 disables it
+     * @throws InvalidParameterException if the budget is not positive or the cache budget is negative
+     */
+    public Session(long budget, long cacheBudget) {
+        if (budget <= 0)
+            throw new InvalidParameterException("Memory budget must be positive");
+        this.budget = budget;
+        this.resultCache = new ResultCache(cacheBudget);
+    }
+
+    /**
+     * Returns the cache of the results of expensive operations evaluated in this session.
+     *
+     * @return the result cache
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Returns the number of bytes of matrix data of the given matrix held on the heap.
+     *
+     * @param matrix the matrix to measure
+     * @return the number of bytes of its values, 0 for a matrix stored on disk
+     */
+    static long sizeOf(Matrix matrix) {
+        return matrix.heapSize();
+    }
+
+    /**
+     * Binds a matrix to a name, replacing any previous binding of the name. Least recently used bindings are
+     * evicted until the matrix fits into the memory budget; a matrix already bound to another name needs no
+     * memory. The matrix is frozen.
+     *
+     * @param name the name of the variable
+     * @param matrix the matrix to bind
+     * @throws InvalidParameterException if the matrix alone is larger than the memory budget
+     */
+    public synchronized void bind(String name, Matrix matrix) {
+        long size = sizeOf(matrix);
+        if (size > budget)
+            throw new InvalidParameterException("Matrix does not fit into the session memory budget");
+        Matrix previous = variables.remove(name);
+        if (previous != null)
+            release(previous);
+        var iterator = variables.entrySet().iterator();
+        while (!references.containsKey(matrix) && used + size > budget) {
+            release(iterator.next().getValue());
+            iterator.remove();
+        }
+        variables.put(name, matrix.freeze());
+        if (references.merge(matrix, 1, Integer::sum) == 1)
+            used += size;
+    }
+
+    /**
+     * Removes a reference to a matrix that is no longer bound to a name, freeing its memory with the last one.
+     */
+    private void release(Matrix matrix) {
+        if (references.merge(matrix, -1, Integer::sum) == 0) {
+            references.remove(matrix);
+            used -= sizeOf(matrix);
+        }
+    }
+
+    /**
+     * Returns the number of bytes of matrix data held by the bound variables.
+     *
+     * @return the bytes counted against the memory budget
+     */
+    synchronized long usedBytes() {
+        return used;
+    }
+
+    /**
+     * Returns the matrix bound to a name.
+     *
+     * @param name the name of the variable
+     * @return the bound matrix, or {@code null} if the name is not bound
+     */
+    public synchronized Matrix lookup(String name) {
+        return variables.get(name);
+    }
+
+    /**
+     * Returns a listing of the bound variables with their sizes, from the least to the most recently used.
+     *
+     * @return one line per variable with its name, dimensions and size in bytes
+     */
+    public synchronized String describe() {
+        StringBuilder listing = new StringBuilder();
+        for (Map.Entry<String, Matrix> variable : variables.entrySet()) {
+            Matrix matrix = variable.getValue();
+            listing.append(variable.getKey()).append(' ')
+                    .append(matrix.rows).append('x').append(matrix.cols).append(' ')
+                    .append(sizeOf(matrix)).append(" B\n");
+        }
+        listing.append(used).append(" of ").append(budget).append(" B used");
+        return listing.toString();
+    }
+}
@@ -0,0 +1,594 @@
+/**
+ * The SparseMatrix class stores only the non-zero values of a matrix, in compressed sparse row (CSR) or compressed
+ * sparse column (CSC) form. In CSR form the values of every row are stored in order of their columns, together
+ * with their column indices, and {@code pointers[i]} is the position of the first value of row i; CSC is the same
+ * with the roles of rows and columns exchanged. The transpose of a CSR matrix is therefore the CSC matrix with the
+ * same arrays, and vice versa.
+ * <p>
+ * Matrices typed by the user or loaded from files are stored in sparse form when they have at least
+ * {@link #MIN_ELEMENTS} elements and the share of non-zero values is below {@link #getDensityThreshold()}.
+ * The Matrix operations dispatch to the sparse operations below when an operand is sparse. Their results stay
+ * sparse as long as the sparse form needs less memory than the dense one; once fill-in makes it more expensive,
+ * they are converted to dense matrices. Operations that are not sparse-aware work on a dense copy.
+ * <p>
+ * Products and sums of sparse matrices skip the terms with a zero factor or summand, which the dense operations
+ * compute. The results only differ when those terms are not zero, that is when the other operand contains an
+ * infinity or NaN, or in the sign of a zero result. Sparse matrices cannot be changed.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+public final class SparseMatrix extends Matrix {
+    /** Minimal number of elements of a matrix stored in sparse form */
+    public static final int MIN_ELEMENTS = 1024;
+    /** Share of non-zero values below which matrices are stored in sparse form */
+    private static volatile double densityThreshold = 0.05;
+
+    /** Whether the matrix is stored in CSR form, CSC otherwise */
+    final boolean rowCompressed;
+    /** Positions of the first values of the rows in CSR, columns in CSC form, and the number of values */
+    final int[] pointers;
+    /** Column indices of the values in CSR, row indices in CSC form */
+    final int[] indices;
+    /** The non-zero values */
+    final float[] values;
+    /** Cached content hash, 0 if not computed yet */
+    private int hash = 0;
+
+    /**
+     * Constructs a SparseMatrix over the given arrays without copying them. The matrix is immutable.
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param rowCompressed {@code true} for CSR, {@code false} for CSC form
+     * @param pointers the positions of the first values of the rows or columns, followed by the number of values
+     * @param indices the column or row indices of the values, increasing within every row or column
+     * @param values the non-zero values
+     */
+    SparseMatrix(int rows, int cols, boolean rowCompressed, int[] pointers, int[] indices, float[] values) {
+        super(rows, cols);
+        this.rowCompressed = rowCompressed;
+        this.pointers = pointers;
+        this.indices = indices;
+        this.values = values;
+        freeze();
+    }
+
+    /**
+     * Sets the share of non-zero values below which matrices are stored in sparse form.
+     *
+     * @param density the density threshold between 0 and 1, 0 turns the sparse form off
+     * @throws InvalidParameterException if the threshold is not between 0 and 1
+     */
+    public static void setDensityThreshold(double density) {
+        if (!(density >= 0 && density <= 1))
+            throw new InvalidParameterException("Density threshold must be between 0 and 1");
+        densityThreshold = density;
+    }
+
+    /**
+     * Returns the share of non-zero values below which matrices are stored in sparse form.
+     *
+     * @return the density threshold
+     */
+    public static double getDensityThreshold() {
+        return densityThreshold;
+    }
+
+    /**
+     * Returns the given dense matrix in sparse form if it is large and sparse enough, otherwise the matrix itself.
+     * Matrices that are not dense are returned unchanged.
+     *
+     * @param matrix the matrix to store
+     * @return the matrix in the cheaper form
+     */
+    static Matrix choose(Matrix matrix) {
+        long elements = (long) matrix.rows * matrix.cols;
+        if (matrix.data == null || elements < MIN_ELEMENTS)
+            return matrix;
+        long nonZeros = 0;
+        for (int i = 0; i < matrix.rows; i++) {
+            int offset = i * matrix.stride;
+            for (int j = 0; j < matrix.cols; j++)
+                if (matrix.data[offset + j] != 0)
+                    nonZeros++;
+        }
+        if (nonZeros >= densityThreshold * elements)
+            return matrix;
+        return fromDense(matrix, (int) nonZeros);
+    }
+
+    /**
+     * Converts a dense matrix to CSR form.
+     *
+     * @param matrix the dense matrix
+     * @return the matrix in CSR form
+     */
+    public static SparseMatrix fromDense(Matrix matrix) {
+        if (matrix instanceof SparseMatrix sparse)
+            return sparse;
+        matrix = matrix.inMemory();
+        int nonZeros = 0;
+        for (int i = 0; i < matrix.rows; i++)
+            for (int j = 0; j < matrix.cols; j++)
+                if (matrix.data[i * matrix.stride + j] != 0)
+                    nonZeros++;
+        return fromDense(matrix, nonZeros);
+    }
+
+    private static SparseMatrix fromDense(Matrix matrix, int nonZeros) {
+        int[] pointers = new int[matrix.rows + 1];
+        int[] indices = new int[nonZeros];
+        float[] values = new float[nonZeros];
+        int size = 0;
+        for (int i = 0; i < matrix.rows; i++) {
+            int offset = i * matrix.stride;
+            for (int j = 0; j < matrix.cols; j++) {
+                float value = matrix.data[offset + j];
+                if (value != 0) {
+                    indices[size] = j;
+                    values[size++] = value;
+                }
+            }
+            pointers[i + 1] = size;
+        }
+        return new SparseMatrix(matrix.rows, matrix.cols, true, pointers, indices, values);
+    }
+
+    /**
+     * Returns the result of a sparse operation in the cheaper form: dense if the sparse form needs at least as much
+     * memory as the dense one, unless the dense matrix would be larger than the memory budget.
+     */
+    private static Matrix compact(SparseMatrix result) {
+        if (result.heapSize() < 4L * result.rows * result.cols || TiledMatrix.exceedsBudget(result.rows, result.cols))
+            return result;
+        return result.inMemory();
+    }
+
+    /**
+     * Returns whether an operation on the given operands produces a sparse result, so that it is computed in
+     * memory even if the dense result would be larger than the memory budget.
+     *
+     * @param operator the operator
+     * @param A the first or only operand
+     * @param B the second operand, or {@code null} for a unary operator
+     * @return {@code true} for the transpose of a sparse matrix and for operations on two sparse matrices
+     */
+    static boolean keepsSparse(Operators operator, Matrix A, Matrix B) {
+        if (operator == Operators.transpose)
+            return A instanceof SparseMatrix;
+        return A instanceof SparseMatrix && B instanceof SparseMatrix;
+    }
+
+    /**
+     * Returns the number of non-zero values.
+     *
+     * @return the number of stored values
+     */
+    public int nonZeros() {
+        return pointers[pointers.length - 1];
+    }
+
+    /**
+     * Returns this matrix in CSR form, converting it if it is stored in CSC form.
+     *
+     * @return the matrix in CSR form
+     */
+    SparseMatrix toRowCompressed() {
+        if (rowCompressed)
+            return this;
+        int count = nonZeros();
+        int[] rowPointers = new int[rows + 1];
+        for (int index = 0; index < count; index++)
+            rowPointers[indices[index] + 1]++;
+        for (int i = 0; i < rows; i++)
+            rowPointers[i + 1] += rowPointers[i];
+        int[] next = Arrays.copyOf(rowPointers, rows);
+        int[] colIndices = new int[count];
+        float[] rowValues = new float[count];
+        // columns are visited in increasing order, so the columns of every row come out sorted
+        for (int j = 0; j < cols; j++) {
+            for (int index = pointers[j]; index < pointers[j + 1]; index++) {
+                int position = next[indices[index]]++;
+                colIndices[position] = j;
+                rowValues[position] = values[index];
+            }
+        }
+        return new SparseMatrix(rows, cols, true, rowPointers, colIndices, rowValues);
+    }
+
+    /**
+     * Adds two matrices element-wise. The sum of two sparse matrices is sparse unless fill-in makes the sparse
+     * form more expensive; a sum with a dense matrix is dense.
+     *
+     * @param A the first matrix
+     * @param B the second matrix
+     * @return the sum of the two matrices
+     * @throws InvalidParameterException if the matrices do not have the same dimensions
+     */
+    public static Matrix addition(Matrix A, Matrix B) {
+        return elementwise(A, B, false);
+    }
+
+    /**
+     * Subtracts two matrices element-wise. The difference of two sparse matrices is sparse unless fill-in makes
+     * the sparse form more expensive; a difference with a dense matrix is dense.
+     *
+     * @param A the first matrix
+     * @param B the second matrix
+     * @return the difference of the two matrices
+     * @throws InvalidParameterException if the matrices do not have the same dimensions
+     */
+    public static Matrix subtraction(Matrix A, Matrix B) {
+        return elementwise(A, B, true);
+    }
+
+    private static Matrix elementwise(Matrix A, Matrix B, boolean subtract) {
+        if (A.rows != B.rows || A.cols != B.cols)
+            throw new InvalidParameterException("Matrices do not have appropriate dimensions");
+        if (A instanceof SparseMatrix a && B instanceof SparseMatrix b) {
+            if (a.rowCompressed != b.rowCompressed) {
+                a = a.toRowCompressed();
+                b = b.toRowCompressed();
+            }
+            return compact(merge(a, b, subtract));
+        }
+        int cols = A.cols;
+        float[] result = new float[A.rows * cols];
+        if (B instanceof SparseMatrix b) {
+            Matrix a = A.inMemory();
+            for (int i = 0; i < A.rows; i++)
+                System.arraycopy(a.data, i * a.stride, result, i * cols, cols);
+            for (int major = 0; major < b.major(); major++) {
+                for (int index = b.pointers[major]; index < b.pointers[major + 1]; index++) {
+                    int position = b.position(major, index);
+                    result[position] = subtract ? result[position] - b.values[index] : result[position] + b.values[index];
+                }
+            }
+        } else {
+            SparseMatrix a = (SparseMatrix) A;
+            Matrix b = B.inMemory();
+            for (int i = 0; i < A.rows; i++)
+                for (int j = 0; j < cols; j++)
+                    result[i * cols + j] = subtract ? -b.data[i * b.stride + j] : b.data[i * b.stride + j];
+            for (int major = 0; major < a.major(); major++) {
+                for (int index = a.pointers[major]; index < a.pointers[major + 1]; index++) {
+                    int position = a.position(major, index);
+                    float valueB = b.data[position / cols * b.stride + position % cols];
+                    result[position] = subtract ? a.values[index] - valueB : a.values[index] + valueB;
+                }
+            }
+        }
+        return new Matrix(A.rows, cols, result);
+    }
+
+    /**
+     * Merges two sparse matrices of the same form row by row, or column by column.
+     */
+    private static SparseMatrix merge(SparseMatrix a, SparseMatrix b, boolean subtract) {
+        int major = a.major();
+        Builder builder = new Builder(major, a.nonZeros() + b.nonZeros());
+        for (int m = 0; m < major; m++) {
+            int indexA = a.pointers[m];
+            int endA = a.pointers[m + 1];
+            int indexB = b.pointers[m];
+            int endB = b.pointers[m + 1];
+            while (indexA < endA || indexB < endB) {
+                int minorA = indexA < endA ? a.indices[indexA] : Integer.MAX_VALUE;
+                int minorB = indexB < endB ? b.indices[indexB] : Integer.MAX_VALUE;
+                if (minorA < minorB)
+                    builder.add(minorA, a.values[indexA++]);
+                else if (minorB < minorA)
+                    builder.add(minorB, subtract ? -b.values[indexB++] : b.values[indexB++]);
+                else
+                    builder.add(minorA, subtract ? a.values[indexA++] - b.values[indexB++]
+                            : a.values[indexA++] + b.values[indexB++]);
+            }
+            builder.endMajor(m);
+        }
+        return builder.build(a.rows, a.cols, a.rowCompressed);
+    }
+
+    /**
+     * Multiplies two matrices, at least one of which is sparse. The product of two sparse matrices is sparse
+     * unless fill-in makes the sparse form more expensive; a product with a dense matrix is dense.
+     * Every value of the result accumulates its terms in increasing order of the shared dimension.
+     *
+     * @param A the first matrix
+     * @param B the second matrix
+     * @return the product of the two matrices
+     * @throws InvalidParameterException if the number of columns in the first matrix
+     *          does not match the number of rows in the second matrix
+     */
+    public static Matrix multiplication(Matrix A, Matrix B) {
+        if (A.cols != B.rows)
+            throw new InvalidParameterException("Matrices do not have appropriate dimensions");
+        if (A instanceof SparseMatrix a && B instanceof SparseMatrix b)
+            return compact(multiplySparse(a.toRowCompressed(), b.toRowCompressed()));
+        if (A instanceof SparseMatrix a)
+            return multiplySparseDense(a, B.inMemory());
+        return multiplyDenseSparse(A.inMemory(), ((SparseMatrix) B).toRowCompressed());
+    }
+
+    /**
+     * Multiplies a sparse matrix by a dense one: every value of A adds a multiple of a row of B to a row of the
+     * result.
+     */
+    private static Matrix multiplySparseDense(SparseMatrix a, Matrix B) {
+        int colB = B.cols;
+        float[] result = new float[a.rows * colB];
+        if (a.rowCompressed) {
+            for (int i = 0; i < a.rows; i++)
+                for (int index = a.pointers[i]; index < a.pointers[i + 1]; index++)
+                    RowKernels.multiplyAdd(a.values[index], B.data, a.indices[index] * B.stride,
+                            result, i * colB, colB);
+        } else {
+            for (int k = 0; k < a.cols; k++)
+                for (int index = a.pointers[k]; index < a.pointers[k + 1]; index++)
+                    RowKernels.multiplyAdd(a.values[index], B.data, k * B.stride,
+                            result, a.indices[index] * colB, colB);
+        }
+        return new Matrix(a.rows, colB, result);
+    }
+
+    /**
+     * Multiplies a dense matrix by a sparse one in CSR form: every non-zero value of A adds a multiple of a sparse
+     * row of B to a row of the result.
+     */
+    private static Matrix multiplyDenseSparse(Matrix A, SparseMatrix b) {
+        int colB = b.cols;
+        float[] result = new float[A.rows * colB];
+        for (int i = 0; i < A.rows; i++) {
+            int offsetA = i * A.stride;
+            int offsetC = i * colB;
+            for (int k = 0; k < A.cols; k++) {
+                float valueA = A.data[offsetA + k];
+                if (valueA == 0)
+                    continue;
+                for (int index = b.pointers[k]; index < b.pointers[k + 1]; index++)
+                    result[offsetC + b.indices[index]] += valueA * b.values[index];
+            }
+        }
+        return new Matrix(A.rows, colB, result);
+    }
+
+    /**
+     * Multiplies two sparse matrices in CSR form row by row, accumulating every row of the result in a dense
+     * buffer (Gustavson's algorithm).
+     */
+    private static SparseMatrix multiplySparse(SparseMatrix a, SparseMatrix b) {
+        int colB = b.cols;
+        float[] accumulator = new float[colB];
+        int[] lastRow = new int[colB];
+        Arrays.fill(lastRow, -1);
+        int[] touched = new int[colB];
+        Builder builder = new Builder(a.rows, a.nonZeros() + b.nonZeros());
+        for (int i = 0; i < a.rows; i++) {
+            int count = 0;
+            for (int indexA = a.pointers[i]; indexA < a.pointers[i + 1]; indexA++) {
+                int k = a.indices[indexA];
+                float valueA = a.values[indexA];
+                for (int indexB = b.pointers[k]; indexB < b.pointers[k + 1]; indexB++) {
+                    int j = b.indices[indexB];
+                    if (lastRow[j] != i) {
+                        lastRow[j] = i;
+                        accumulator[j] = valueA * b.values[indexB];
+                        touched[count++] = j;
+                    } else
+                        accumulator[j] += valueA * b.values[indexB];
+                }
+            }
+            Arrays.sort(touched, 0, count);
+            for (int t = 0; t < count; t++)
+                builder.add(touched[t], accumulator[touched[t]]);
+            builder.endMajor(i);
+        }
+        return builder.build(a.rows, colB, true);
+    }
+
+    /**
+     * Transposes a sparse matrix by reinterpreting its CSR form as CSC or vice versa, without copying.
+     *
+     * @param A the sparse matrix to transpose
+     * @return the transpose of the matrix
+     */
+    public static Matrix transpose(SparseMatrix A) {
+        return new SparseMatrix(A.cols, A.rows, !A.rowCompressed, A.pointers, A.indices, A.values);
+    }
+
+    /**
+     * Checks if two matrices, at least one of which is sparse, have equal values.
+     *
+     * @param A the first matrix to compare
+     * @param B the second matrix to compare
+     * @return {@code true} if the matrices are equal, {@code false} otherwise
+     */
+    static boolean sameValues(Matrix A, Matrix B) {
+        if (A.rows != B.rows || A.cols != B.cols)
+            return false;
+        if (A instanceof SparseMatrix a && B instanceof SparseMatrix b) {
+            a = a.toRowCompressed();
+            b = b.toRowCompressed();
+            if (!Arrays.equals(a.pointers, b.pointers))
+                return false;
+            for (int index = 0; index < a.nonZeros(); index++)
+                if (a.indices[index] != b.indices[index] || a.values[index] != b.values[index])
+                    return false;
+            return true;
+        }
+        SparseMatrix sparse = (A instanceof SparseMatrix a ? a : (SparseMatrix) B).toRowCompressed();
+        Matrix dense = (A instanceof SparseMatrix ? B : A).inMemory();
+        for (int i = 0; i < sparse.rows; i++) {
+            int index = sparse.pointers[i];
+            for (int j = 0; j < sparse.cols; j++) {
+                float value = 0;
+                if (index < sparse.pointers[i + 1] && sparse.indices[index] == j)
+                    value = sparse.values[index++];
+                if (value != dense.data[i * dense.stride + j])
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of rows in CSR and of columns in CSC form.
+     */
+    private int major() {
+        return rowCompressed ? rows : cols;
+    }
+
+    /**
+     * Returns the row-major position in a dense array of the value with the given index in the given row or column.
+     */
+    private int position(int major, int index) {
+        return rowCompressed ? major * cols + indices[index] : indices[index] * cols + major;
+    }
+
+    /**
+     * Returns a dense copy of this matrix.
+     *
+     * @return the copy of the matrix
+     * @throws InvalidParameterException if the dense matrix does not fit into an array
+     */
+    @Override
+    Matrix inMemory() {
+        if ((long) rows * cols > Integer.MAX_VALUE - 8)
+            throw new InvalidParameterException("Matrix is too large to be held in memory");
+        float[] dense = new float[rows * cols];
+        for (int major = 0; major < major(); major++)
+            for (int index = pointers[major]; index < pointers[major + 1]; index++)
+                dense[position(major, index)] = values[index];
+        return new Matrix(rows, cols, dense);
+    }
+
+    /**
+     * Returns the number of bytes of the arrays of this matrix.
+     *
+     * @return the number of bytes of the pointers, indices and values
+     */
+    @Override
+    long heapSize() {
+        return 4L * (pointers.length + indices.length + values.length);
+    }
+
+    @Override
+    void copyBlock(int row, int col, int height, int width, float[] out) {
+        Arrays.fill(out, 0, height * width, 0);
+        int majorStart = rowCompressed ? row : col;
+        int majorEnd = majorStart + (rowCompressed ? height : width);
+        int minorStart = rowCompressed ? col : row;
+        int minorEnd = minorStart + (rowCompressed ? width : height);
+        for (int major = majorStart; major < majorEnd; major++) {
+            for (int index = pointers[major]; index < pointers[major + 1]; index++) {
+                int minor = indices[index];
+                if (minor < minorStart || minor >= minorEnd)
+                    continue;
+                if (rowCompressed)
+                    out[(major - row) * width + minor - col] = values[index];
+                else
+                    out[(minor - row) * width + major - col] = values[index];
+            }
+        }
+    }
+
+    /**
+     * Returns the value at a given row and column, found by a binary search in its row or column.
+     *
+     * @param row The row index of the desired value
+     * @param col The column index of the desired value
+     * @return The float value at the specified row and column
+     */
+    @Override
+    public float getValue(int row, int col) {
+        int major = rowCompressed ? row : col;
+        int index = Arrays.binarySearch(indices, pointers[major], pointers[major + 1], rowCompressed ? col : row);
+        return index < 0 ? 0 : values[index];
+    }
+
+    /**
+     * {@inheritDoc}
+     * The hash equals the hash of the dense matrix with the same values, and is computed from the non-zero values
+     * only.
+     */
+    @Override
+    public int hashCode() {
+        if (hash != 0)
+            return hash;
+        long elements = (long) rows * cols;
+        // the dense hash is a polynomial in 31 over all values, in which zeros only contribute their power of 31
+        int result = (31 * rows + cols) * power31(elements);
+        for (int major = 0; major < major(); major++) {
+            for (int index = pointers[major]; index < pointers[major + 1]; index++) {
+                long position = rowCompressed ? (long) major * cols + indices[index] : (long) indices[index] * cols + major;
+                result += Float.floatToIntBits(values[index]) * power31(elements - 1 - position);
+            }
+        }
+        hash = result;
+        return result;
+    }
+
+    /**
+     * Returns 31 to the given power in int arithmetic.
+     */
+    private static int power31(long exponent) {
+        int result = 1;
+        int base = 31;
+        while (exponent > 0) {
+            if ((exponent & 1) != 0)
+                result *= base;
+            base *= base;
+            exponent >>= 1;
+        }
+        return result;
+    }
+
+    @Override
+    public String stringRepresentationWithBrackets() {
+        return inMemory().stringRepresentationWithBrackets();
+    }
+
+    @Override
+    public String toString() {
+        return inMemory().toString();
+    }
+
+    /**
+     * Collects the values of a sparse result row by row, or column by column, dropping zeros.
+     */
+    private static final class Builder {
+        private final int[] pointers;
+        private int[] indices;
+        private float[] values;
+        private int size = 0;
+
+        Builder(int major, int capacity) {
+            pointers = new int[major + 1];
+            indices = new int[Math.max(capacity, 16)];
+            values = new float[indices.length];
+        }
+
+        void add(int index, float value) {
+            if (value == 0)
+                return;
+            if (size == indices.length) {
+                indices = Arrays.copyOf(indices, 2 * size);
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            indices[size] = index;
+            values[size++] = value;
+        }
+
+        void endMajor(int major) {
+            pointers[major + 1] = size;
+        }
+
+        SparseMatrix build(int rows, int cols, boolean rowCompressed) {
+            return new SparseMatrix(rows, cols, rowCompressed, pointers, Arrays.copyOf(indices, size),
+                    Arrays.copyOf(values, size));
+        }
+    }
+}
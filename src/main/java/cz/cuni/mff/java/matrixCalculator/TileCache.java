@@ -0,0 +1,107 @@
+/**
+ * The TileCache class keeps recently used tiles of TiledMatrix objects in memory, so that tiles read again
+ * soon after, such as the tiles of a row of the first operand of a multiplication, are not read from disk
+ * every time. Tiles are identified by the number of their matrix and their index within it. The cache has a
+ * memory budget; when a new tile does not fit, the least recently used tiles are evicted. Tiles are written to
+ * disk when they are stored, so evicting a tile never loses data.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.security.InvalidParameterException;
+import java.util.LinkedHashMap;
+
+final class TileCache {
+    /** Cached tiles in the order of their last use */
+    private final LinkedHashMap<Long, float[]> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    /** Maximal number of bytes of tile values held by the cache */
+    private long budget;
+    /** Number of bytes of tile values currently held by the cache */
+    private long used = 0;
+
+    /**
+     * Constructs a TileCache with the given memory budget.
+     *
+     * @param budget the maximal number of bytes of tile values held by the cache
+     * @throws InvalidParameterException if the budget is negative
+     */
+    TileCache(long budget) {
+        setBudget(budget);
+    }
+
+    /**
+     * Changes the memory budget, evicting the least recently used tiles until the cache fits into it.
+     *
+     * @param budget the maximal number of bytes of tile values held by the cache, 0 disables the cache
+     * @throws InvalidParameterException if the budget is negative
+     */
+    synchronized void setBudget(long budget) {
+        if (budget < 0)
+            throw new InvalidParameterException("Memory budget must not be negative");
+        this.budget = budget;
+        evict(0);
+    }
+
+    /**
+     * Looks up a tile.
+     *
+     * @param owner the number of the matrix of the tile
+     * @param index the index of the tile within its matrix
+     * @return the values of the tile, or {@code null} if the tile is not cached
+     */
+    synchronized float[] get(long owner, int index) {
+        return tiles.get(key(owner, index));
+    }
+
+    /**
+     * Stores a tile, replacing a previous version of it. Least recently used tiles are evicted until the tile
+     * fits; a tile larger than the whole budget is not stored. The values must not be changed afterwards.
+     *
+     * @param owner the number of the matrix of the tile
+     * @param index the index of the tile within its matrix
+     * @param values the values of the tile
+     */
+    synchronized void put(long owner, int index, float[] values) {
+        Long key = key(owner, index);
+        float[] previous = tiles.remove(key);
+        if (previous != null)
+            used -= 4L * previous.length;
+        long size = 4L * values.length;
+        if (size > budget)
+            return;
+        evict(size);
+        tiles.put(key, values);
+        used += size;
+    }
+
+    /**
+     * Removes all tiles of a matrix.
+     *
+     * @param owner the number of the matrix
+     */
+    synchronized void invalidate(long owner) {
+        var iterator = tiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            if (entry.getKey() >>> 32 == owner) {
+                used -= 4L * entry.getValue().length;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used tiles until the given number of bytes fits into the budget.
+     */
+    private void evict(long size) {
+        var iterator = tiles.values().iterator();
+        while (used + size > budget && iterator.hasNext()) {
+            used -= 4L * iterator.next().length;
+            iterator.remove();
+        }
+    }
+
+    private static Long key(long owner, int index) {
+        return owner << 32 | index;
+    }
+}
@@ -0,0 +1,581 @@
+/**
+ * The TiledMatrix class is a matrix whose values are stored in a scratch file on disk instead of the heap, for
+ * matrices larger than the memory budget. The matrix is split into square tiles of {@link #getTileSize()} rows
+ * and columns, smaller at the bottom and right edges, and every tile is stored at its own place in the file.
+ * Tiles are read back through a bounded {@link TileCache} shared by all tiled matrices.
+ * <p>
+ * Addition, subtraction, multiplication and transpose stream over the tiles, so that only a few tiles of the
+ * operands and one tile of the result are held in memory at a time. TermEvaluator chooses this representation
+ * on its own for the results of these operations that are larger than {@link #getMemoryBudget()}, and MatrixFile
+ * for files that are larger. Other operations copy a tiled operand to the heap first.
+ * Multiplication always uses the classic algorithm and accumulates every value of the result in the same order
+ * as in memory, so all streamed operations give exactly the same results as their in-memory counterparts.
+ * <p>
+ * The scratch file is deleted when the matrix is no longer reachable. Tiled matrices are equal only to themselves,
+ * since comparing their contents would mean reading them from disk.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class TiledMatrix extends Matrix {
+    /** Size in bytes above which results are stored on disk */
+    private static volatile long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+    /** Number of rows and columns of the tiles of new matrices */
+    private static volatile int tileSize = 1024;
+    /** Directory of the scratch files */
+    private static volatile Path scratchDirectory = Path.of(System.getProperty("java.io.tmpdir"));
+    /** Maximal number of values of a matrix held on the heap */
+    private static final long MAX_VALUES = Integer.MAX_VALUE - 8;
+    /** Cache of the tiles of all tiled matrices */
+    private static final TileCache CACHE = new TileCache(Runtime.getRuntime().maxMemory() / 8);
+    /** Closes and thereby deletes the scratch files of unreachable matrices */
+    private static final Cleaner CLEANER = Cleaner.create();
+    /** Source of the numbers identifying the matrices in the tile cache */
+    private static final AtomicLong IDS = new AtomicLong();
+
+    /** Number of rows and columns of the tiles of this matrix */
+    final int tile;
+    /** Number of tiles in a column of this matrix */
+    final int tileRows;
+    /** Number of tiles in a row of this matrix */
+    final int tileCols;
+    /** Number of this matrix in the tile cache */
+    private final long id;
+    /** Channel of the scratch file */
+    private final FileChannel channel;
+
+    /**
+     * Constructs a TiledMatrix with all values initialized to zero.
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param tile the number of rows and columns of a tile
+     * @throws UncheckedIOException if the scratch file cannot be created
+     */
+    TiledMatrix(int rows, int cols, int tile) {
+        super(rows, cols);
+        this.tile = tile;
+        this.tileRows = (rows + tile - 1) / tile;
+        this.tileCols = (cols + tile - 1) / tile;
+        this.id = IDS.incrementAndGet();
+        try {
+            Path file = Files.createTempFile(scratchDirectory, "matrix", ".tiles");
+            this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+            // extend the file to its full size, so that every tile can be mapped; unwritten tiles read as zeros
+            channel.write(ByteBuffer.allocate(1), position(tileRows - 1, tileCols) - 1);
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Cannot create a scratch file in " + scratchDirectory, exception);
+        }
+        CLEANER.register(this, new Cleanup(id, channel));
+    }
+
+    /**
+     * Sets the size above which the results of streamed operations are stored on disk.
+     *
+     * @param bytes the memory budget in bytes
+     * @throws InvalidParameterException if the budget is not positive
+     */
+    public static void setMemoryBudget(long bytes) {
+        if (bytes <= 0)
+            throw new InvalidParameterException("Memory budget must be positive");
+        memoryBudget = bytes;
+    }
+
+    /**
+     * Returns the size above which the results of streamed operations are stored on disk.
+     *
+     * @return the memory budget in bytes
+     */
+    public static long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the number of rows and columns of the tiles of matrices created afterwards.
+     *
+     * @param size the tile size
+     * @throws InvalidParameterException if the size is not positive or a tile would not fit into an array
+     */
+    public static void setTileSize(int size) {
+        if (size <= 0 || (long) size * size > MAX_VALUES)
+            throw new InvalidParameterException("Invalid tile size");
+        tileSize = size;
+    }
+
+    /**
+     * Returns the number of rows and columns of the tiles of new matrices.
+     *
+     * @return the tile size
+     */
+    public static int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Sets the directory in which the scratch files of matrices created afterwards are stored.
+     *
+     * @param directory the scratch directory
+     */
+    public static void setScratchDirectory(Path directory) {
+        scratchDirectory = directory;
+    }
+
+    /**
+     * Sets the memory budget of the cache of tiles read from disk.
+     *
+     * @param bytes the maximal number of bytes of cached tiles, 0 disables the cache
+     * @throws InvalidParameterException if the budget is negative
+     */
+    public static void setTileCacheSize(long bytes) {
+        CACHE.setBudget(bytes);
+    }
+
+    /**
+     * Returns whether a matrix of the given dimensions is stored on disk.
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @return {@code true} if the matrix is larger than the memory budget or than the largest array
+     */
+    static boolean exceedsBudget(int rows, int cols) {
+        long count = (long) rows * cols;
+        return 4 * count > memoryBudget || count > MAX_VALUES;
+    }
+
+    /**
+     * Returns whether the given operator can be computed tile by tile.
+     *
+     * @param operator the operator to check
+     * @return {@code true} for addition, subtraction, multiplication and transpose
+     */
+    static boolean isStreamable(Operators operator) {
+        switch (operator) {
+            case addition:
+            case subtraction:
+            case multiplication:
+            case transpose:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Performs a streamable operation tile by tile.
+     *
+     * @param operator addition, subtraction, multiplication or transpose
+     * @param A the first or only operand
+     * @param B the second operand of a binary operator, {@code null} otherwise
+     * @return the result, stored on disk if it is larger than the memory budget
+     * @throws UnsupportedOperationException if the operator cannot be streamed
+     */
+    static Matrix evaluate(Operators operator, Matrix A, Matrix B) {
+        switch (operator) {
+            case addition:
+                return addition(A, B);
+            case subtraction:
+                return subtraction(A, B);
+            case multiplication:
+                return multiplication(A, B);
+            case transpose:
+                return transpose(A);
+            default:
+                throw new UnsupportedOperationException("Invalid operator: " + operator);
+        }
+    }
+
+    /**
+     * Adds two matrices element-wise, tile by tile.
+     *
+     * @param A the first matrix
+     * @param B the second matrix
+     * @return the sum of the two matrices, stored on disk if it is larger than the memory budget
+     * @throws InvalidParameterException if the matrices do not have the same dimensions
+     */
+    public static Matrix addition(Matrix A, Matrix B) {
+        return elementwise(A, B, true);
+    }
+
+    /**
+     * Subtracts two matrices element-wise, tile by tile.
+     *
+     * @param A the first matrix
+     * @param B the second matrix
+     * @return the difference of the two matrices, stored on disk if it is larger than the memory budget
+     * @throws InvalidParameterException if the matrices do not have the same dimensions
+     */
+    public static Matrix subtraction(Matrix A, Matrix B) {
+        return elementwise(A, B, false);
+    }
+
+    private static Matrix elementwise(Matrix A, Matrix B, boolean add) {
+        if (A.rows != B.rows || A.cols != B.cols)
+            throw new InvalidParameterException("Matrices do not have appropriate dimensions");
+        int size = tileSize;
+        Matrix result = create(A.rows, A.cols, size);
+        for (int row = 0; row < A.rows; row += size) {
+            int height = Math.min(size, A.rows - row);
+            for (int col = 0; col < A.cols; col += size) {
+                int width = Math.min(size, A.cols - col);
+                Matrix a = block(A, row, col, height, width);
+                Matrix b = block(B, row, col, height, width);
+                store(result, row, col, add ? Matrix.addition(a, b) : Matrix.subtraction(a, b));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Multiplies two matrices tile by tile. Every tile of the result is accumulated over the tiles of the shared
+     * dimension in increasing order.
+     *
+     * @param A the first matrix
+     * @param B the second matrix
+     * @return the product of the two matrices, stored on disk if it is larger than the memory budget
+     * @throws InvalidParameterException if the number of columns in the first matrix
+     *          does not match the number of rows in the second matrix
+     */
+    public static Matrix multiplication(Matrix A, Matrix B) {
+        if (A.cols != B.rows)
+            throw new InvalidParameterException("Matrices do not have appropriate dimensions");
+        int size = tileSize;
+        Matrix result = create(A.rows, B.cols, size);
+        for (int row = 0; row < A.rows; row += size) {
+            int height = Math.min(size, A.rows - row);
+            for (int col = 0; col < B.cols; col += size) {
+                int width = Math.min(size, B.cols - col);
+                float[] c = new float[height * width];
+                for (int k = 0; k < A.cols; k += size) {
+                    int depth = Math.min(size, A.cols - k);
+                    MultiplicationKernel.multiply(block(A, row, k, height, depth), block(B, k, col, depth, width), c);
+                }
+                store(result, row, col, new Matrix(height, width, c));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Transposes a matrix tile by tile.
+     *
+     * @param A the matrix to transpose
+     * @return the transpose of the matrix, stored on disk if it is larger than the memory budget
+     */
+    public static Matrix transpose(Matrix A) {
+        int size = tileSize;
+        Matrix result = create(A.cols, A.rows, size);
+        for (int row = 0; row < A.cols; row += size) {
+            int height = Math.min(size, A.cols - row);
+            for (int col = 0; col < A.rows; col += size) {
+                int width = Math.min(size, A.rows - col);
+                store(result, row, col, Matrix.transpose(block(A, col, row, width, height)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates a zero matrix for a result, on disk if it is larger than the memory budget.
+     */
+    private static Matrix create(int rows, int cols, int size) {
+        if (exceedsBudget(rows, cols))
+            return new TiledMatrix(rows, cols, size);
+        return Matrix.allZeroes(rows, cols);
+    }
+
+    /**
+     * Returns the block of a matrix with the given top left corner and dimensions as a compact Matrix.
+     * A block that is exactly a tile of a tiled matrix shares the cached values of the tile, so it must not be
+     * changed.
+     */
+    private static Matrix block(Matrix matrix, int row, int col, int height, int width) {
+        if (matrix instanceof TiledMatrix tiled) {
+            int tile = tiled.tile;
+            if (row % tile == 0 && col % tile == 0 && height == tiled.tileHeight(row / tile)
+                    && width == tiled.tileWidth(col / tile))
+                return new Matrix(height, width, tiled.tile(row / tile, col / tile));
+        }
+        float[] values = new float[height * width];
+        matrix.copyBlock(row, col, height, width, values);
+        return new Matrix(height, width, values);
+    }
+
+    /**
+     * Stores a compact block of values into a result created by {@link #create}, with its top left corner at the
+     * given position. The block is aligned with the tiles of a tiled result.
+     */
+    private static void store(Matrix result, int row, int col, Matrix block) {
+        if (result instanceof TiledMatrix tiled) {
+            tiled.putTile(row / tiled.tile, col / tiled.tile, block.data);
+            return;
+        }
+        for (int i = 0; i < block.rows; i++)
+            System.arraycopy(block.data, i * block.cols, result.data, (row + i) * result.stride + col, block.cols);
+    }
+
+    /**
+     * Returns the number of rows of the tiles in the given row of tiles.
+     */
+    int tileHeight(int tileRow) {
+        return Math.min(tile, rows - tileRow * tile);
+    }
+
+    /**
+     * Returns the number of columns of the tiles in the given column of tiles.
+     */
+    int tileWidth(int tileCol) {
+        return Math.min(tile, cols - tileCol * tile);
+    }
+
+    /**
+     * Returns the position of a tile in the scratch file. Every tile has room for a full tile.
+     */
+    private long position(int tileRow, int tileCol) {
+        return ((long) tileRow * tileCols + tileCol) * tile * tile * 4;
+    }
+
+    /**
+     * Returns the values of a tile in row-major order, reading them from disk unless they are cached.
+     * The returned array is shared with the cache and must not be changed.
+     *
+     * @param tileRow the row of the tile among the tiles
+     * @param tileCol the column of the tile among the tiles
+     * @return the values of the tile
+     * @throws UncheckedIOException if the scratch file cannot be read
+     */
+    float[] tile(int tileRow, int tileCol) {
+        int index = tileRow * tileCols + tileCol;
+        float[] values = CACHE.get(id, index);
+        if (values != null)
+            return values;
+        values = new float[tileHeight(tileRow) * tileWidth(tileCol)];
+        try {
+            channel.map(FileChannel.MapMode.READ_ONLY, position(tileRow, tileCol), 4L * values.length)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer().get(values);
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Cannot read a scratch file", exception);
+        }
+        CACHE.put(id, index, values);
+        return values;
+    }
+
+    /**
+     * Writes the values of a tile to disk and to the cache. The array must not be changed afterwards.
+     *
+     * @param tileRow the row of the tile among the tiles
+     * @param tileCol the column of the tile among the tiles
+     * @param values the values of the tile in row-major order
+     * @throws UncheckedIOException if the scratch file cannot be written
+     */
+    void putTile(int tileRow, int tileCol, float[] values) {
+        try {
+            channel.map(FileChannel.MapMode.READ_WRITE, position(tileRow, tileCol), 4L * values.length)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer().put(values);
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Cannot write a scratch file", exception);
+        }
+        CACHE.put(id, tileRow * tileCols + tileCol, values);
+    }
+
+    /**
+     * Reads a row-major matrix of little-endian floats from a channel tile by tile.
+     *
+     * @param source the channel to read from
+     * @param position the position of the first value in the channel
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @return the matrix stored on disk
+     * @throws IOException if the channel cannot be read or ends early
+     */
+    static TiledMatrix read(FileChannel source, long position, int rows, int cols) throws IOException {
+        TiledMatrix matrix = new TiledMatrix(rows, cols, tileSize);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4 * matrix.tile).order(ByteOrder.LITTLE_ENDIAN);
+        for (int tileRow = 0; tileRow < matrix.tileRows; tileRow++) {
+            int height = matrix.tileHeight(tileRow);
+            for (int tileCol = 0; tileCol < matrix.tileCols; tileCol++) {
+                int width = matrix.tileWidth(tileCol);
+                float[] values = new float[height * width];
+                for (int i = 0; i < height; i++) {
+                    long row = (long) tileRow * matrix.tile + i;
+                    buffer.clear().limit(4 * width);
+                    long offset = position + 4 * (row * cols + (long) tileCol * matrix.tile);
+                    while (buffer.hasRemaining())
+                        if (source.read(buffer, offset + buffer.position()) < 0)
+                            throw new EOFException("Unexpected end of file");
+                    buffer.flip();
+                    buffer.asFloatBuffer().get(values, i * width, width);
+                }
+                matrix.putTile(tileRow, tileCol, values);
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Writes the matrix to a channel as row-major little-endian floats, tile by tile.
+     *
+     * @param target the channel to write to
+     * @param position the position of the first value in the channel
+     * @throws IOException if the channel cannot be written
+     */
+    void write(FileChannel target, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4 * tile).order(ByteOrder.LITTLE_ENDIAN);
+        for (int tileRow = 0; tileRow < tileRows; tileRow++) {
+            int height = tileHeight(tileRow);
+            for (int tileCol = 0; tileCol < tileCols; tileCol++) {
+                int width = tileWidth(tileCol);
+                float[] values = tile(tileRow, tileCol);
+                for (int i = 0; i < height; i++) {
+                    long row = (long) tileRow * tile + i;
+                    buffer.clear();
+                    buffer.asFloatBuffer().put(values, i * width, width);
+                    buffer.limit(4 * width);
+                    long offset = position + 4 * (row * cols + (long) tileCol * tile);
+                    while (buffer.hasRemaining())
+                        target.write(buffer, offset + buffer.position());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of this matrix held on the heap.
+     *
+     * @return the copy of the matrix
+     * @throws InvalidParameterException if the matrix does not fit into an array
+     */
+    @Override
+    Matrix inMemory() {
+        if ((long) rows * cols > MAX_VALUES)
+            throw new InvalidParameterException("Matrix is too large to be held in memory");
+        Matrix copy = Matrix.allZeroes(rows, cols);
+        for (int tileRow = 0; tileRow < tileRows; tileRow++)
+            for (int tileCol = 0; tileCol < tileCols; tileCol++)
+                store(copy, tileRow * tile, tileCol * tile,
+                        new Matrix(tileHeight(tileRow), tileWidth(tileCol), tile(tileRow, tileCol)));
+        return copy;
+    }
+
+    /**
+     * Returns the number of bytes of the values of this matrix held on the heap, which is none.
+     *
+     * @return 0
+     */
+    @Override
+    long heapSize() {
+        return 0;
+    }
+
+    @Override
+    void copyBlock(int row, int col, int height, int width, float[] out) {
+        for (int i = 0; i < height; i++)
+            for (int j = 0; j < width; j++)
+                out[i * width + j] = getValue(row + i, col + j);
+    }
+
+    /**
+     * Returns the value at a given row and column, reading its tile from disk unless it is cached.
+     *
+     * @param row The row index of the desired value
+     * @param col The column index of the desired value
+     * @return The float value at the specified row and column
+     */
+    @Override
+    public float getValue(int row, int col) {
+        int tileCol = col / tile;
+        return tile(row / tile, tileCol)[(row % tile) * tileWidth(tileCol) + col % tile];
+    }
+
+    /**
+     * Sets the value of a specific element, rewriting its tile on disk.
+     *
+     * @param row the row index of the element to set
+     * @param col the column index of the element to set
+     * @param value the value to set the element to
+     * @throws UnsupportedOperationException if the matrix is immutable
+     */
+    @Override
+    public void setValue(int row, int col, float value) {
+        checkMutable();
+        int tileRow = row / tile;
+        int tileCol = col / tile;
+        float[] values = tile(tileRow, tileCol).clone();
+        values[(row % tile) * tileWidth(tileCol) + col % tile] = value;
+        putTile(tileRow, tileCol, values);
+    }
+
+    /**
+     * Row operations are not supported on a matrix stored on disk.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void rowSwap(int row1, int row2) {
+        throw new UnsupportedOperationException("Row operations are not supported on a matrix stored on disk");
+    }
+
+    /**
+     * Row operations are not supported on a matrix stored on disk.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void rowMultiply(int row, float coefficient) {
+        throw new UnsupportedOperationException("Row operations are not supported on a matrix stored on disk");
+    }
+
+    /**
+     * {@inheritDoc}
+     * A tiled matrix is only equal to itself.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Consistent with {@link #equals(Object)}, the hash does not depend on the values.
+     */
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    /**
+     * Closes the scratch file of an unreachable matrix, which deletes it, and drops its cached tiles.
+     */
+    private static final class Cleanup implements Runnable {
+        private final long id;
+        private final FileChannel channel;
+
+        Cleanup(long id, FileChannel channel) {
+            this.id = id;
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            CACHE.invalidate(id);
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // the file is only scratch space
+            }
+        }
+    }
+}
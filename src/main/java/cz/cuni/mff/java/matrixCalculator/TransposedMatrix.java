@@ -0,0 +1,131 @@
+/**
+ * The TransposedMatrix class is the transpose of a dense matrix that reads the values of the matrix in place
+ * instead of copying them: its value at row i and column j is the value at row j and column i of its base.
+ * {@link Matrix#transpose} returns such a view for immutable matrices, whose values cannot change under it, so
+ * that expressions such as {@code transpose(W) * W} do not copy W.
+ * <p>
+ * The operations recognize views. The multiplication reads a transposed first operand along the columns of its
+ * base, which for the four result rows updated together are four consecutive values; the element-wise operations
+ * and the LU decomposition copy a view a block of rows at a time; the transpose of a view is its base. Operations
+ * that are not aware of views work on a dense copy, made by the cache-oblivious transpose of
+ * {@link #transpose(float[], int, int, float[], int, int, int, int)}, which also copies the transposes of mutable
+ * matrices. Views cannot be changed.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+public final class TransposedMatrix extends Matrix {
+    /** Largest number of rows and columns of a block the blocked transpose copies element by element */
+    private static final int LEAF = 16;
+
+    /** The transposed matrix, dense and immutable */
+    final Matrix base;
+    /** Cached content hash, 0 if not computed yet */
+    private int hash = 0;
+
+    /**
+     * Constructs the transpose of a dense immutable matrix over its values. The view is immutable.
+     *
+     * @param base the matrix to transpose
+     */
+    TransposedMatrix(Matrix base) {
+        super(base.cols, base.rows);
+        this.base = base;
+        freeze();
+    }
+
+    /**
+     * Writes the transpose of a rows x cols block of a row-major array to another row-major array. The block is
+     * halved along its longer side until both sides are at most {@link #LEAF}, so that the small blocks copied
+     * element by element fit into the cache for any cache size, and both arrays are read and written along
+     * whole cache lines.
+     *
+     * @param source the array holding the block
+     * @param offset the position of the top left value of the block
+     * @param stride the distance between two rows of the block
+     * @param out the array receiving the cols x rows transpose
+     * @param outOffset the position of the top left value of the transpose
+     * @param outStride the distance between two rows of the transpose
+     * @param rows the number of rows of the block
+     * @param cols the number of columns of the block
+     */
+    static void transpose(float[] source, int offset, int stride, float[] out, int outOffset, int outStride,
+                          int rows, int cols) {
+        if (rows <= LEAF && cols <= LEAF) {
+            for (int i = 0; i < rows; i++)
+                for (int j = 0; j < cols; j++)
+                    out[outOffset + j * outStride + i] = source[offset + i * stride + j];
+            return;
+        }
+        if (rows >= cols) {
+            int half = rows / 2;
+            transpose(source, offset, stride, out, outOffset, outStride, half, cols);
+            transpose(source, offset + half * stride, stride, out, outOffset + half, outStride, rows - half, cols);
+        } else {
+            int half = cols / 2;
+            transpose(source, offset, stride, out, outOffset, outStride, rows, half);
+            transpose(source, offset + half, stride, out, outOffset + half * outStride, outStride, rows, cols - half);
+        }
+    }
+
+    /**
+     * Returns a dense copy of this matrix.
+     *
+     * @return the copy of the matrix
+     */
+    @Override
+    Matrix inMemory() {
+        float[] values = new float[rows * cols];
+        transpose(base.data, 0, base.stride, values, 0, cols, base.rows, base.cols);
+        return new Matrix(rows, cols, values);
+    }
+
+    /**
+     * Returns the number of bytes of the values of the base, which the view keeps alive.
+     *
+     * @return the number of bytes of the values of the base
+     */
+    @Override
+    long heapSize() {
+        return base.heapSize();
+    }
+
+    @Override
+    void copyBlock(int row, int col, int height, int width, float[] out) {
+        // the block is the transpose of the width x height block of the base at row col and column row
+        transpose(base.data, col * base.stride + row, base.stride, out, 0, width, width, height);
+    }
+
+    /**
+     * Returns the value at a given row and column, the value at the exchanged position of the base.
+     *
+     * @param row The row index of the desired value
+     * @param col The column index of the desired value
+     * @return The float value at the specified row and column
+     */
+    @Override
+    public float getValue(int row, int col) {
+        return base.data[col * base.stride + row];
+    }
+
+    /**
+     * {@inheritDoc}
+     * The hash equals the hash of the dense matrix with the same values and is computed only once.
+     */
+    @Override
+    public int hashCode() {
+        if (hash != 0)
+            return hash;
+        float[] values = base.data;
+        int result = 31 * rows + cols;
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                float value = values[j * base.stride + i];
+                // 0.0f and -0.0f are equal, so they must hash alike
+                result = 31 * result + (value == 0 ? 0 : Float.floatToIntBits(value));
+            }
+        }
+        hash = result;
+        return result;
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * The VectorKernels class contains SIMD versions of the loops in {@link RowKernels}, written with the
+ * incubating Vector API using the preferred float and double species of the host. This class must only be loaded
+ * when the {@code jdk.incubator.vector} module is present; {@link RowKernels} guards every call.
+ * Multiplications and additions are kept as separate lane-wise operations instead of a fused multiply-add,
+ * so that the results match the scalar loops bit for bit.
+ */
+
+package cz.cuni.mff.java.matrixCalculator;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+final class VectorKernels {
+    /** The widest float species supported by the host */
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    /** The widest double species supported by the host */
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+    private VectorKernels() {
+    }
+
+    /** Vector version of {@link RowKernels#add}. */
+    static void add(float[] a, int aOffset, float[] b, int bOffset, float[] c, int cOffset, int length) {
+        int i = 0;
+        for (int upper = SPECIES.loopBound(length); i < upper; i += SPECIES.length()) {
+            var va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            var vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            va.add(vb).intoArray(c, cOffset + i);
+        }
+        for (; i < length; i++)
+            c[cOffset + i] = a[aOffset + i] + b[bOffset + i];
+    }
+
+    /** Vector version of {@link RowKernels#subtract}. */
+    static void subtract(float[] a, int aOffset, float[] b, int bOffset, float[] c, int cOffset, int length) {
+        int i = 0;
+        for (int upper = SPECIES.loopBound(length); i < upper; i += SPECIES.length()) {
+            var va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            var vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            va.sub(vb).intoArray(c, cOffset + i);
+        }
+        for (; i < length; i++)
+            c[cOffset + i] = a[aOffset + i] - b[bOffset + i];
+    }
+
+    /** Vector version of {@link RowKernels#scale}. */
+    static void scale(float[] a, int offset, int length, float coefficient) {
+        int i = 0;
+        for (int upper = SPECIES.loopBound(length); i < upper; i += SPECIES.length()) {
+            var va = FloatVector.fromArray(SPECIES, a, offset + i);
+            va.mul(coefficient).intoArray(a, offset + i);
+        }
+        for (; i < length; i++)
+            a[offset + i] *= coefficient;
+    }
+
+    /** Vector version of {@link RowKernels#multiplyAdd}. */
+    static void multiplyAdd(float alpha, float[] b, int bOffset, float[] c, int cOffset, int length) {
+        int i = 0;
+        for (int upper = SPECIES.loopBound(length); i < upper; i += SPECIES.length()) {
+            var vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            var vc = FloatVector.fromArray(SPECIES, c, cOffset + i);
+            vc.add(vb.mul(alpha)).intoArray(c, cOffset + i);
+        }
+        for (; i < length; i++)
+            c[cOffset + i] += alpha * b[bOffset + i];
+    }
+
+    /** Vector version of {@link RowKernels#multiplyAdd4}. */
+    static void multiplyAdd4(float alpha0, float alpha1, float alpha2, float alpha3, float[] b, int bOffset,
+                             float[] c, int cOffset, int strideC, int length) {
+        int c0 = cOffset;
+        int c1 = c0 + strideC;
+        int c2 = c1 + strideC;
+        int c3 = c2 + strideC;
+        int i = 0;
+        for (int upper = SPECIES.loopBound(length); i < upper; i += SPECIES.length()) {
+            var vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            FloatVector.fromArray(SPECIES, c, c0 + i).add(vb.mul(alpha0)).intoArray(c, c0 + i);
+            FloatVector.fromArray(SPECIES, c, c1 + i).add(vb.mul(alpha1)).intoArray(c, c1 + i);
+            FloatVector.fromArray(SPECIES, c, c2 + i).add(vb.mul(alpha2)).intoArray(c, c2 + i);
+            FloatVector.fromArray(SPECIES, c, c3 + i).add(vb.mul(alpha3)).intoArray(c, c3 + i);
+        }
+        for (; i < length; i++) {
+            float valueB = b[bOffset + i];
+            c[c0 + i] += alpha0 * valueB;
+            c[c1 + i] += alpha1 * valueB;
+            c[c2 + i] += alpha2 * valueB;
+            c[c3 + i] += alpha3 * valueB;
+        }
+    }
+
+    /** Vector version of the double {@link RowKernels#multiplyAdd}. */
+    static void multiplyAdd(double alpha, double[] b, int bOffset, double[] c, int cOffset, int length) {
+        int i = 0;
+        for (int upper = DOUBLES.loopBound(length); i < upper; i += DOUBLES.length()) {
+            var vb = DoubleVector.fromArray(DOUBLES, b, bOffset + i);
+            var vc = DoubleVector.fromArray(DOUBLES, c, cOffset + i);
+            vc.add(vb.mul(alpha)).intoArray(c, cOffset + i);
+        }
+        for (; i < length; i++)
+            c[cOffset + i] += alpha * b[bOffset + i];
+    }
+
+    /** Vector version of the double {@link RowKernels#multiplyAdd4}. */
+    static void multiplyAdd4(double alpha0, double alpha1, double alpha2, double alpha3, double[] b, int bOffset,
+                             double[] c, int cOffset, int strideC, int length) {
+        int c0 = cOffset;
+        int c1 = c0 + strideC;
+        int c2 = c1 + strideC;
+        int c3 = c2 + strideC;
+        int i = 0;
+        for (int upper = DOUBLES.loopBound(length); i < upper; i += DOUBLES.length()) {
+            var vb = DoubleVector.fromArray(DOUBLES, b, bOffset + i);
+            DoubleVector.fromArray(DOUBLES, c, c0 + i).add(vb.mul(alpha0)).intoArray(c, c0 + i);
+            DoubleVector.fromArray(DOUBLES, c, c1 + i).add(vb.mul(alpha1)).intoArray(c, c1 + i);
+            DoubleVector.fromArray(DOUBLES, c, c2 + i).add(vb.mul(alpha2)).intoArray(c, c2 + i);
+            DoubleVector.fromArray(DOUBLES, c, c3 + i).add(vb.mul(alpha3)).intoArray(c, c3 + i);
+        }
+        for (; i < length; i++) {
+            double valueB = b[bOffset + i];
+            c[c0 + i] += alpha0 * valueB;
+            c[c1 + i] += alpha1 * valueB;
+            c[c2 + i] += alpha2 * valueB;
+            c[c3 + i] += alpha3 * valueB;
+        }
+    }
+}